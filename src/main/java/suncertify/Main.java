@@ -22,6 +22,8 @@ import suncertify.config.Configuration.Option;
 import suncertify.dao.Dao;
 import suncertify.dao.DefaultDao;
 import suncertify.db.Data;
+import suncertify.db.DataOptions;
+import suncertify.db.Durability;
 import suncertify.gui.GuiFactory;
 import suncertify.gui.ConfigurationObserver;
 import suncertify.gui.SwingHelper;
@@ -204,7 +206,7 @@ public final class Main {
         }
         
         try {
-            return new Data(new File(file));
+            return new Data(new File(file), createDataOptions());
         } catch (FileNotFoundException e) {
             displayError(null, textResolver.get(MESSAGE_DB_FILE_NOT_FOUND));
             return null;
@@ -216,6 +218,37 @@ public final class Main {
     }
     
     
+    private static DataOptions createDataOptions() {
+        final DataOptions options = new DataOptions();
+        
+        final String durability = Configuration.getInstance().getValue(
+                Option.DATABASE_DURABILITY);
+        
+        if (durability != null) {
+            try {
+                options.setDurability(Durability.valueOf(durability
+                        .toUpperCase()));
+            } catch (IllegalArgumentException e) {
+                logger.warning("unknown durability '" + durability
+                        + "', using " + options.getDurability());
+            }
+        }
+        
+        final String writeAheadLog = Configuration.getInstance().getValue(
+                Option.DATABASE_WRITE_AHEAD_LOG);
+        
+        if ("true".equalsIgnoreCase(writeAheadLog)) {
+            options.setWriteAheadLog(true);
+        } else if ((writeAheadLog != null)
+                && !"false".equalsIgnoreCase(writeAheadLog)) {
+            logger.warning("invalid write-ahead log setting '"
+                    + writeAheadLog + "', using " + options.isWriteAheadLog());
+        }
+        
+        return options;
+    }
+    
+    
     private static void exportRemoteDao(Dao dao) {
         while (true) {
             final String port = Configuration.getInstance().getValue(
@@ -84,6 +84,29 @@ public final class Configuration {
             }
         },
         
+        /**
+         * When database-modifications are forced to disk, the name of a
+         * <code>suncertify.db.Durability</code> constant.
+         */
+        DATABASE_DURABILITY(false, false) {
+            @Override public boolean isApplicableFor(Mode mode) {
+                return ((Mode.SERVER == mode)
+                        || (Mode.CLIENT_STANDALONE == mode));
+            }
+        },
+        
+        /**
+         * Whether database-modifications are logged in a write-ahead log
+         * before the database-file is modified, <code>true</code> or
+         * <code>false</code>.
+         */
+        DATABASE_WRITE_AHEAD_LOG(false, false) {
+            @Override public boolean isApplicableFor(Mode mode) {
+                return ((Mode.SERVER == mode)
+                        || (Mode.CLIENT_STANDALONE == mode));
+            }
+        },
+        
         /**
          * IP-address/hostname of the application's server.
          */
@@ -112,6 +112,12 @@ public final class TextResolver {
         /** Text-representation of the DATABASE_LOCATION option. */
         CONFIG_KEY_DATABASE_LOCATION,
         
+        /** Text-representation of the DATABASE_DURABILITY option. */
+        CONFIG_KEY_DATABASE_DURABILITY,
+        
+        /** Text-representation of the DATABASE_WRITE_AHEAD_LOG option. */
+        CONFIG_KEY_DATABASE_WRITE_AHEAD_LOG,
+        
         /** Text-representation of the SERVER_HOST option. */
         CONFIG_KEY_SERVER_HOST,
         
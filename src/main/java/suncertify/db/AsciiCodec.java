@@ -0,0 +1,107 @@
+package suncertify.db;
+
+
+/**
+ * Static helpers that decode the database's US-ASCII text-fields without
+ * going through a <code>Charset</code>. Decoding is the innermost loop of every
+ * search, so the trimmed bounds of a field are found directly in the
+ * byte-array, and only the remaining characters are copied.
+ *
+ * @author Lars Hvile
+ */
+final class AsciiCodec {
+
+    // replacement for bytes outside of the 7-bit range, same as the one used
+    // by the US-ASCII charset
+    private static final char REPLACEMENT = '\uFFFD';
+
+
+    /*
+     * Private constructor, prevents instantiation.
+     */
+    private AsciiCodec() {
+    }
+
+
+    /**
+     * Decodes a field, leading and trailing whitespace/padding is removed. The
+     * result equals <code>new String(..., "US-ASCII").trim()</code>.
+     *
+     * @param buffer
+     *            a <code>byte[]</code> containing the field
+     * @param offset
+     *            offset of the field's first byte
+     * @param length
+     *            the field's length
+     * @return the decoded <code>String</code>
+     */
+    static String decode(byte[] buffer, int offset, int length) {
+
+        final int start = trimmedStart(buffer, offset, length);
+        final int end   = trimmedEnd(buffer, start, offset + length);
+
+        if (start == end) {
+            return "";
+        }
+
+        final char[] chars = new char[end - start];
+        for (int i = 0; i < chars.length; i++) {
+            final byte b = buffer[start + i];
+            chars[i] = (b < 0) ? REPLACEMENT : (char) b;
+        }
+
+        return new String(chars);
+    }
+
+
+    /**
+     * Returns the index of the first byte in a field that isn't
+     * whitespace/padding.
+     *
+     * @param buffer
+     *            a <code>byte[]</code> containing the field
+     * @param offset
+     *            offset of the field's first byte
+     * @param length
+     *            the field's length
+     * @return the index, <code>offset + length</code> if the field is blank
+     */
+    static int trimmedStart(byte[] buffer, int offset, int length) {
+        final int end = offset + length;
+        int start = offset;
+        while ((start < end) && isBlank(buffer[start])) {
+            start++;
+        }
+        return start;
+    }
+
+
+    /**
+     * Returns the index after the last byte in a field that isn't
+     * whitespace/padding.
+     *
+     * @param buffer
+     *            a <code>byte[]</code> containing the field
+     * @param start
+     *            the field's trimmed start, see <code>trimmedStart()</code>
+     * @param end
+     *            the index after the last byte in the field
+     * @return the index, <code>start</code> if the field is blank
+     */
+    static int trimmedEnd(byte[] buffer, int start, int end) {
+        int tmp = end;
+        while ((tmp > start) && isBlank(buffer[tmp - 1])) {
+            tmp--;
+        }
+        return tmp;
+    }
+
+
+    /*
+     * Same definition of whitespace as String.trim(), note that bytes outside
+     * of the 7-bit range are negative.
+     */
+    private static boolean isBlank(byte b) {
+        return ((b >= 0) && (b <= ' '));
+    }
+}
@@ -0,0 +1,145 @@
+package suncertify.db;
+
+import java.util.concurrent.Future;
+
+
+/**
+ * Asynchronous variant of <code>ExtendedDBMain</code>. Each operation
+ * returns immediately with a <code>Future</code>, and is performed by one of a
+ * small number of worker-threads. Exceptions thrown by the operation, e.g.
+ * <code>RecordNotFoundException</code>, are reported as the cause of the
+ * <code>ExecutionException</code> thrown by <code>Future.get()</code>.
+ *
+ * @author Lars Hvile
+ * @see ExtendedDBMain
+ * @see AsyncData
+ */
+public interface AsyncDBMain {
+
+    /**
+     * Reads a record from the database.
+     *
+     * @param recNo
+     *            index of the record to read
+     * @return a <code>Future</code> with the record-values
+     * @see DBMain#read(int)
+     */
+    Future<String[]> read(int recNo);
+
+
+    /**
+     * Modifies the fields of a record.
+     *
+     * @param recNo
+     *            id of the record to modify
+     * @param data
+     *            a <code>String[]</code> with the new record-values
+     * @return a <code>Future</code> that completes when the record is updated
+     * @see DBMain#update(int, String[])
+     */
+    Future<Void> update(int recNo, String[] data);
+
+
+    /**
+     * Deletes a record.
+     *
+     * @param recNo
+     *            id of the record to delete
+     * @return a <code>Future</code> that completes when the record is deleted
+     * @see DBMain#delete(int)
+     */
+    Future<Void> delete(int recNo);
+
+
+    /**
+     * Searches the database for record-numbers matching the specified
+     * criteria.
+     *
+     * @param criteria
+     *            a <code>String[]</code> with the criteria to search for
+     * @return a <code>Future</code> with the matching record-numbers
+     * @see DBMain#find(String[])
+     */
+    Future<int[]> find(String[] criteria);
+
+
+    /**
+     * Looks up the record with a given key.
+     *
+     * @param key
+     *            the values of the key-fields, in field-order
+     * @return a <code>Future</code> with the record-number
+     * @see ExtendedDBMain#findByKey(String...)
+     */
+    Future<Integer> findByKey(String... key);
+
+
+    /**
+     * Searches for records where fields contain given tokens.
+     *
+     * @param tokens
+     *            the token for each field, <code>null</code> matches any
+     *            value
+     * @return a <code>Future</code> with the matching record-numbers
+     * @see ExtendedDBMain#findContaining(String[])
+     */
+    Future<int[]> findContaining(String[] tokens);
+
+
+    /**
+     * Creates a new record in the database.
+     *
+     * @param data
+     *            a <code>String[]</code> with the record-values
+     * @return a <code>Future</code> with the record-number of the new record
+     * @see DBMain#create(String[])
+     */
+    Future<Integer> create(String[] data);
+
+
+    /**
+     * Locks a record. The lock may be held by another client for a long time,
+     * so waiting for it doesn't occupy the threads used by the other
+     * operations.
+     *
+     * @param recNo
+     *            id of the record to lock
+     * @return a <code>Future</code> that completes when the lock is acquired
+     * @see DBMain#lock(int)
+     */
+    Future<Void> lock(int recNo);
+
+
+    /**
+     * Releases the lock on a record.
+     *
+     * @param recNo
+     *            id of the record to unlock
+     * @return a <code>Future</code> that completes when the record is unlocked
+     * @see DBMain#unlock(int)
+     */
+    Future<Void> unlock(int recNo);
+
+
+    /**
+     * Checks if a record is locked.
+     *
+     * @param recNo
+     *            id of the record to check
+     * @return a <code>Future</code> with the result
+     * @see DBMain#isLocked(int)
+     */
+    Future<Boolean> isLocked(int recNo);
+
+
+    /**
+     * Visits every active record in the database.
+     *
+     * @param visitor
+     *            the <code>RecordVisitor</code> to call for each record, it's
+     *            called by a worker-thread
+     * @return a <code>Future</code> that completes when the scan is done
+     * @see ExtendedDBMain#scan(RecordVisitor)
+     */
+    Future<Void> scan(RecordVisitor visitor);
+}
@@ -0,0 +1,281 @@
+package suncertify.db;
+
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+
+/**
+ * <code>AsyncDBMain</code> implemented on top of an
+ * <code>ExtendedDBMain</code>, typically <code>Data</code>. Reads and
+ * modifications are performed by a fixed number of worker-threads, while
+ * waiting for record-locks is done by separate threads, since a lock may be
+ * held for a long time. Only one thread waits for each record, the other
+ * requests for the same record are queued and handed to a thread when the
+ * one before them has got the lock, so the number of waiting threads is
+ * bounded by the number of records being waited for. <br/>
+ * <br/>
+ * The worker-threads are daemon-threads, and are stopped by
+ * <code>shutdown()</code>. The underlying database isn't closed.
+ *
+ * @author Lars Hvile
+ */
+public final class AsyncData implements AsyncDBMain {
+
+    private final ExtendedDBMain  database;
+    private final ExecutorService workers;
+    private final ExecutorService lockWaiters;
+
+    // record -> queued lock-requests, present while a thread waits for it
+    private final Map<Integer, Queue<FutureTask<Void>>> lockQueues
+            = new HashMap<Integer, Queue<FutureTask<Void>>>();
+
+
+    /**
+     * Class-constructor.
+     *
+     * @param database
+     *            the <code>ExtendedDBMain</code> to use
+     * @param numThreads
+     *            the number of worker-threads
+     * @throws IllegalArgumentException
+     *             if <code>numThreads</code> isn't positive
+     */
+    public AsyncData(ExtendedDBMain database, int numThreads) {
+        if (numThreads <= 0) {
+            throw new IllegalArgumentException("invalid number of threads: "
+                    + numThreads);
+        }
+        this.database = database;
+        this.workers = Executors.newFixedThreadPool(numThreads,
+                new WorkerThreadFactory("db-worker"));
+        this.lockWaiters = Executors.newCachedThreadPool(
+                new WorkerThreadFactory("db-lock"));
+    }
+
+
+    /**
+     * Stops the worker-threads after the submitted operations are done, and
+     * waits for them to finish.
+     *
+     * @param timeoutMillis
+     *            max number of milliseconds to wait
+     * @return <code>true</code> if all the operations were done before the
+     *         timeout
+     */
+    public boolean shutdown(long timeoutMillis) {
+        workers.shutdown();
+        lockWaiters.shutdown();
+        try {
+            final long deadline = System.currentTimeMillis() + timeoutMillis;
+            return (workers.awaitTermination(timeoutMillis,
+                    TimeUnit.MILLISECONDS) && lockWaiters.awaitTermination(
+                    Math.max(0, deadline - System.currentTimeMillis()),
+                    TimeUnit.MILLISECONDS));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+
+    @Override
+    public Future<String[]> read(final int recNo) {
+        return workers.submit(new Callable<String[]>() {
+            @Override public String[] call() throws Exception {
+                return database.read(recNo);
+            }
+        });
+    }
+
+
+    @Override
+    public Future<Void> update(final int recNo, final String[] data) {
+        return workers.submit(new Callable<Void>() {
+            @Override public Void call() throws Exception {
+                database.update(recNo, data);
+                return null;
+            }
+        });
+    }
+
+
+    @Override
+    public Future<Void> delete(final int recNo) {
+        return workers.submit(new Callable<Void>() {
+            @Override public Void call() throws Exception {
+                database.delete(recNo);
+                return null;
+            }
+        });
+    }
+
+
+    @Override
+    public Future<int[]> find(final String[] criteria) {
+        return workers.submit(new Callable<int[]>() {
+            @Override public int[] call() throws Exception {
+                return database.find(criteria);
+            }
+        });
+    }
+
+
+    @Override
+    public Future<Integer> findByKey(final String... key) {
+        return workers.submit(new Callable<Integer>() {
+            @Override public Integer call() throws Exception {
+                return database.findByKey(key);
+            }
+        });
+    }
+
+
+    @Override
+    public Future<int[]> findContaining(final String[] tokens) {
+        return workers.submit(new Callable<int[]>() {
+            @Override public int[] call() throws Exception {
+                return database.findContaining(tokens);
+            }
+        });
+    }
+
+
+    @Override
+    public Future<Integer> create(final String[] data) {
+        return workers.submit(new Callable<Integer>() {
+            @Override public Integer call() throws Exception {
+                return database.create(data);
+            }
+        });
+    }
+
+
+    @Override
+    public Future<Void> lock(final int recNo) {
+        final FutureTask<Void> request = new FutureTask<Void>(
+                new Callable<Void>() {
+                    @Override public Void call() throws Exception {
+                        try {
+                            database.lock(recNo);
+                            return null;
+                        } finally {
+                            lockNext(recNo);
+                        }
+                    }
+                });
+
+        synchronized (lockQueues) {
+            final Queue<FutureTask<Void>> queue = lockQueues.get(recNo);
+            if (null != queue) {
+                queue.add(request);
+                return request;
+            }
+            lockQueues.put(recNo, new LinkedList<FutureTask<Void>>());
+        }
+
+        try {
+            lockWaiters.execute(request);
+        } catch (RejectedExecutionException e) {
+            lockNext(recNo);
+            throw e;
+        }
+        return request;
+    }
+
+
+    /*
+     * Hands the next queued lock-request for a record to a thread, called
+     * when the previous one is done waiting. Requests which are cancelled
+     * while queued are skipped, and the remaining ones are cancelled after
+     * shutdown().
+     */
+    private void lockNext(int recNo) {
+        while (true) {
+            final FutureTask<Void> next;
+            synchronized (lockQueues) {
+                next = lockQueues.get(recNo).poll();
+                if (null == next) {
+                    lockQueues.remove(recNo);
+                    return;
+                }
+            }
+
+            if (!next.isDone()) {
+                try {
+                    lockWaiters.execute(next);
+                    return;
+                } catch (RejectedExecutionException e) {
+                    next.cancel(false);
+                }
+            }
+        }
+    }
+
+
+    @Override
+    public Future<Void> unlock(final int recNo) {
+        return workers.submit(new Callable<Void>() {
+            @Override public Void call() throws Exception {
+                database.unlock(recNo);
+                return null;
+            }
+        });
+    }
+
+
+    @Override
+    public Future<Boolean> isLocked(final int recNo) {
+        return workers.submit(new Callable<Boolean>() {
+            @Override public Boolean call() throws Exception {
+                return database.isLocked(recNo);
+            }
+        });
+    }
+
+
+    @Override
+    public Future<Void> scan(final RecordVisitor visitor) {
+        return workers.submit(new Callable<Void>() {
+            @Override public Void call() throws Exception {
+                database.scan(visitor);
+                return null;
+            }
+        });
+    }
+
+
+    /*
+     * Creates named daemon-threads, so pending operations don't prevent the
+     * application from exiting.
+     */
+    private static final class WorkerThreadFactory implements ThreadFactory {
+
+        private final AtomicInteger counter = new AtomicInteger();
+        private final String        prefix;
+
+
+        WorkerThreadFactory(String prefix) {
+            this.prefix = prefix;
+        }
+
+
+        @Override
+        public Thread newThread(Runnable r) {
+            final Thread thread = new Thread(r, prefix + "-"
+                    + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
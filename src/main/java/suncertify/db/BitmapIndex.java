@@ -0,0 +1,115 @@
+package suncertify.db;
+
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+
+/**
+ * In-memory index of a field with few distinct values, used by
+ * <code>Data</code> to answer case-insensitive prefix-criteria without
+ * scanning the database. Each distinct lower-cased value has a compressed
+ * bitmap of the records having that value, so the criteria of several indexed
+ * fields are combined by intersecting bitmaps. <br/>
+ * <br/>
+ * Values are lower-cased the same way as <code>PrefixIndex</code> does it,
+ * and the same prefixes are supported. <br/>
+ * <br/>
+ * The index is built when the database is opened, and updated after every
+ * modification. Instances aren't thread-safe, <code>Data</code> guards it
+ * with its state-lock.
+ *
+ * @author Lars Hvile
+ */
+final class BitmapIndex {
+
+    private static final RecordBitmap EMPTY = new RecordBitmap();
+
+    // lower-cased value -> records
+    private final TreeMap<String, RecordBitmap> bitmaps
+            = new TreeMap<String, RecordBitmap>();
+
+
+    /**
+     * Returns the number of distinct values.
+     *
+     * @return the number of values
+     */
+    int getNumValues() {
+        return bitmaps.size();
+    }
+
+
+    /**
+     * Adds a record's value.
+     *
+     * @param recNo
+     *            the record's id
+     * @param value
+     *            the record's value, as returned by <code>read()</code>
+     */
+    void add(int recNo, String value) {
+        final String key = PrefixIndex.toKey(value);
+        RecordBitmap bitmap = bitmaps.get(key);
+        if (null == bitmap) {
+            bitmap = new RecordBitmap();
+            bitmaps.put(key, bitmap);
+        }
+        bitmap.add(recNo);
+    }
+
+
+    /**
+     * Removes a record's value.
+     *
+     * @param recNo
+     *            the record's id
+     * @param value
+     *            the record's value, as returned by <code>read()</code>
+     */
+    void remove(int recNo, String value) {
+        final String key = PrefixIndex.toKey(value);
+        final RecordBitmap bitmap = bitmaps.get(key);
+        if ((null != bitmap) && bitmap.remove(recNo) && bitmap.isEmpty()) {
+            bitmaps.remove(key);
+        }
+    }
+
+
+    /**
+     * Finds the records with a value starting with a prefix, ignoring case.
+     *
+     * @param prefix
+     *            the prefix, must be supported by <code>PrefixIndex</code>
+     * @return the matching records, must not be modified
+     */
+    RecordBitmap find(String prefix) {
+        RecordBitmap result = EMPTY;
+        for (RecordBitmap bitmap : getRange(prefix).values()) {
+            result = ((result == EMPTY) ? bitmap : result.or(bitmap));
+        }
+        return result;
+    }
+
+
+    /**
+     * Counts the records with a value starting with a prefix, without
+     * combining their bitmaps.
+     *
+     * @param prefix
+     *            the prefix, must be supported by <code>PrefixIndex</code>
+     * @return the number of matching records
+     */
+    int count(String prefix) {
+        int count = 0;
+        for (RecordBitmap bitmap : getRange(prefix).values()) {
+            count += bitmap.size();
+        }
+        return count;
+    }
+
+
+    private SortedMap<String, RecordBitmap> getRange(String prefix) {
+        final String key = PrefixIndex.toKey(prefix);
+        return bitmaps.subMap(key, key + Character.MAX_VALUE);
+    }
+}
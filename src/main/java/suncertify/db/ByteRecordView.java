@@ -0,0 +1,295 @@
+package suncertify.db;
+
+import java.util.Arrays;
+
+
+/**
+ * <code>RecordView</code> over a record in a <code>byte[]</code>, a single
+ * instance is reused for every record in a scan. The trimmed bounds of a
+ * text-field are found the first time the field is accessed, and binary
+ * fields are formatted into a reused <code>char[]</code>. <br/>
+ * <br/>
+ * Dictionary-encoded fields are viewed through their canonical
+ * <code>String</code>, and the results of <code>contentEquals()</code> and
+ * <code>startsWithIgnoreCase()</code> are remembered per code as long as the
+ * same argument is passed, so a scan compares each distinct value once. The
+ * argument must therefore not be modified during a scan.
+ *
+ * @author Lars Hvile
+ */
+final class ByteRecordView implements RecordView {
+
+    // replacement for bytes outside of the 7-bit range, see AsciiCodec
+    private static final char REPLACEMENT = '\uFFFD';
+
+    private final RecordFormat format;
+    private final int[]        starts;  // trimmed start, -1 if not found yet
+    private final int[]        ends;    // trimmed end
+    private final char[][]     text;    // text-form of binary fields
+    private final String[]     values;  // value of dictionary-fields
+    private final int[]        codes;   // code of dictionary-fields
+
+    // remembered results of dictionary-fields, indexed by code
+    private final byte[][]     memos;
+    private final Object[]     memoArgs;
+    private final boolean[]    memoPrefix;
+
+    private byte[] buffer;
+    private int    offset;
+    private int    recNo;
+
+
+    /**
+     * Creates a view for records with the given format.
+     *
+     * @param format
+     *            the database's <code>RecordFormat</code>
+     */
+    ByteRecordView(RecordFormat format) {
+        this.format = format;
+        this.starts = new int[format.getFieldCount()];
+        this.ends = new int[format.getFieldCount()];
+        this.text = new char[format.getFieldCount()][];
+        this.values = new String[format.getFieldCount()];
+        this.codes = new int[format.getFieldCount()];
+        this.memos = new byte[format.getFieldCount()][];
+        this.memoArgs = new Object[format.getFieldCount()];
+        this.memoPrefix = new boolean[format.getFieldCount()];
+
+        for (int i = 0; i < text.length; i++) {
+            if (format.isBinary(i)) {
+                text[i] = new char[RecordFormat.MAX_BINARY_TEXT];
+            }
+        }
+    }
+
+
+    /**
+     * Moves the view to another record.
+     *
+     * @param buffer
+     *            a <code>byte[]</code> containing the record
+     * @param offset
+     *            offset of the record's first byte in the buffer
+     * @param recNo
+     *            the record's id
+     */
+    void reset(byte[] buffer, int offset, int recNo) {
+        this.buffer = buffer;
+        this.offset = offset;
+        this.recNo = recNo;
+        Arrays.fill(starts, -1);
+    }
+
+
+    @Override
+    public int getRecNo() {
+        return recNo;
+    }
+
+
+    @Override
+    public int getFieldCount() {
+        return format.getFieldCount();
+    }
+
+
+    @Override
+    public int length(int field) {
+        final int start = start(field);
+        return (ends[field] - start);
+    }
+
+
+    @Override
+    public char charAt(int field, int index) {
+        if ((index < 0) || (index >= length(field))) {
+            throw new IndexOutOfBoundsException("index: " + index);
+        }
+        return get(field, index);
+    }
+
+
+    @Override
+    public int compareTo(int field, byte[] value) {
+        if (DatabaseField.Type.TEXT != format.getType(field)) {
+            try {
+                final int a = getInt(field);
+                final int b = format.parseInt(field, value);
+                return ((a < b) ? -1 : ((a == b) ? 0 : 1));
+            } catch (NumberFormatException e) {
+                // not a valid number, compared as text below
+            }
+        }
+
+        final int len = length(field);
+        final int n   = Math.min(len, value.length);
+
+        for (int i = 0; i < n; i++) {
+            final int diff = (getByte(field, i) & 0xff) - (value[i] & 0xff);
+            if (0 != diff) {
+                return diff;
+            }
+        }
+
+        return (len - value.length);
+    }
+
+
+    @Override
+    public boolean contentEquals(int field, CharSequence value) {
+        if (format.isDictionary(field)) {
+            return memoized(field, value, false);
+        }
+        return matchesContent(field, value);
+    }
+
+
+    @Override
+    public boolean startsWithIgnoreCase(int field, CharSequence prefix) {
+        if (format.isDictionary(field)) {
+            return memoized(field, prefix, true);
+        }
+        return matchesPrefix(field, prefix);
+    }
+
+
+    /*
+     * Returns the remembered result of a comparison against a
+     * dictionary-field's current value, the memo is reset when the argument
+     * changes.
+     */
+    private boolean memoized(int field, CharSequence arg, boolean prefix) {
+
+        start(field);
+        final int code = codes[field];
+
+        if ((arg != memoArgs[field]) || (prefix != memoPrefix[field])
+                || (null == memos[field])) {
+            memos[field] = new byte[code + 1];
+            memoArgs[field] = arg;
+            memoPrefix[field] = prefix;
+        } else if (code >= memos[field].length) {
+            memos[field] = Arrays.copyOf(memos[field], code + 1);
+        }
+
+        if (0 == memos[field][code]) {
+            final boolean match = (prefix ? matchesPrefix(field, arg)
+                    : matchesContent(field, arg));
+            memos[field][code] = (byte) (match ? 1 : 2);
+        }
+
+        return (1 == memos[field][code]);
+    }
+
+
+    private boolean matchesContent(int field, CharSequence value) {
+        if (length(field) != value.length()) {
+            return false;
+        }
+
+        for (int i = 0; i < value.length(); i++) {
+            if (get(field, i) != value.charAt(i)) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+
+    private boolean matchesPrefix(int field, CharSequence prefix) {
+        if (length(field) < prefix.length()) {
+            return false;
+        }
+
+        for (int i = 0; i < prefix.length(); i++) {
+            final char c = get(field, i);
+            final char p = prefix.charAt(i);
+            if ((c != p) && (Character.toLowerCase(c)
+                    != Character.toLowerCase(p))) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+
+    @Override
+    public int getInt(int field) {
+        return format.getInt(buffer, offset, field);
+    }
+
+
+    @Override
+    public String getString(int field) {
+        return format.decode(buffer, offset, field);
+    }
+
+
+    @Override
+    public String[] toArray() {
+        return format.decode(buffer, offset);
+    }
+
+
+    @Override
+    public String toString() {
+        return "#" + recNo + " " + Arrays.asList(toArray());
+    }
+
+
+    /*
+     * Returns the trimmed start of a field, finding the trimmed bounds or
+     * formatting a binary value if required. Binary fields start at 0 in
+     * their char[], dictionary-fields in their String.
+     */
+    private int start(int field) {
+        if (-1 == starts[field]) {
+            if (format.isDictionary(field)) {
+                codes[field] = format.getCode(buffer, offset, field);
+                values[field] = format.getDictionaryValue(field,
+                        codes[field]);
+                starts[field] = 0;
+                ends[field] = values[field].length();
+            } else if (null != text[field]) {
+                starts[field] = 0;
+                ends[field] = RecordFormat.format(format.getType(field),
+                        format.getInt(buffer, offset, field), text[field]);
+            } else {
+                final int fieldStart = offset + format.getOffset(field);
+                final int fieldEnd = fieldStart + format.getWidth(field);
+                final int start = AsciiCodec.trimmedStart(buffer, fieldStart,
+                        format.getWidth(field));
+                ends[field] = AsciiCodec.trimmedEnd(buffer, start, fieldEnd);
+                starts[field] = start;
+            }
+        }
+        return starts[field];
+    }
+
+
+    /*
+     * Returns a character of a field, after its bounds have been found.
+     */
+    private char get(int field, int index) {
+        if (null != text[field]) {
+            return text[field][index];
+        } else if (null != values[field]) {
+            return values[field].charAt(index);
+        }
+        final byte b = buffer[starts[field] + index];
+        return ((b < 0) ? REPLACEMENT : (char) b);
+    }
+
+
+    private byte getByte(int field, int index) {
+        if (null != text[field]) {
+            return (byte) text[field][index];
+        } else if (null != values[field]) {
+            return (byte) values[field].charAt(index);
+        }
+        return buffer[starts[field] + index];
+    }
+}
@@ -0,0 +1,243 @@
+package suncertify.db;
+
+import java.util.Arrays;
+
+
+/**
+ * In-memory columnar copy of the records, used by <code>Data</code> to answer
+ * searches without reading the database-file. Each field is stored in its own
+ * <code>byte[]</code> with a fixed width per record, as lower-cased US-ASCII,
+ * so a case-insensitive prefix-match is a plain byte-comparison. A search
+ * filters one column at a time, only visiting the records that matched the
+ * previous criteria. <br/>
+ * <br/>
+ * The database-file is still the source of truth, the mirror is built when
+ * the database is opened and updated after every modification. Instances
+ * aren't thread-safe, <code>Data</code> guards it with its state-lock.
+ *
+ * @author Lars Hvile
+ */
+final class ColumnMirror {
+
+    // stored in place of characters outside of the 7-bit range, never equal to
+    // a (lower-cased) US-ASCII character
+    private static final byte NON_ASCII = (byte) 0x80;
+
+    private static final int INITIAL_CAPACITY = 64;
+
+    private final int[]    widths;   // bytes / record in each column
+    private final byte[][] columns;  // lower-cased values
+    private final int[][]  lengths;  // length of each value
+    private long[]         deleted;  // deletion-bitmap
+    private int            numRecords;
+    private int            capacity;
+
+
+    /**
+     * Creates an empty mirror.
+     *
+     * @param widths
+     *            the max length of each field's value
+     */
+    ColumnMirror(int[] widths) {
+        this.widths = widths.clone();
+        this.columns = new byte[widths.length][];
+        this.lengths = new int[widths.length][];
+        this.capacity = INITIAL_CAPACITY;
+
+        for (int i = 0; i < widths.length; i++) {
+            columns[i] = new byte[capacity * widths[i]];
+            lengths[i] = new int[capacity];
+        }
+        this.deleted = new long[capacity / 64];
+        Arrays.fill(deleted, -1L);
+    }
+
+
+    /**
+     * Returns the number of records, including deleted ones.
+     *
+     * @return the number of records
+     */
+    int getNumRecords() {
+        return numRecords;
+    }
+
+
+    /**
+     * Stores the values of a record, the record is no longer deleted.
+     *
+     * @param recNo
+     *            the record's id
+     * @param record
+     *            the record's values
+     */
+    void set(int recNo, RecordView record) {
+        ensureCapacity(recNo);
+        for (int field = 0; field < widths.length; field++) {
+            final int length = record.length(field);
+            final int offset = recNo * widths[field];
+            for (int i = 0; i < length; i++) {
+                columns[field][offset + i] = toLowerCase(record.charAt(field,
+                        i));
+            }
+            lengths[field][recNo] = length;
+        }
+        deleted[recNo / 64] &= ~(1L << (recNo % 64));
+    }
+
+
+    /**
+     * Stores the values of a record, the record is no longer deleted.
+     *
+     * @param recNo
+     *            the record's id
+     * @param data
+     *            the record's values, as returned by <code>read()</code>
+     */
+    void set(int recNo, String[] data) {
+        ensureCapacity(recNo);
+        for (int field = 0; field < widths.length; field++) {
+            final int length = data[field].length();
+            final int offset = recNo * widths[field];
+            for (int i = 0; i < length; i++) {
+                columns[field][offset + i] = toLowerCase(data[field]
+                        .charAt(i));
+            }
+            lengths[field][recNo] = length;
+        }
+        deleted[recNo / 64] &= ~(1L << (recNo % 64));
+    }
+
+
+    /**
+     * Marks a record as deleted, records that are never set are deleted.
+     *
+     * @param recNo
+     *            the record's id
+     */
+    void delete(int recNo) {
+        ensureCapacity(recNo);
+        deleted[recNo / 64] |= (1L << (recNo % 64));
+    }
+
+
+    /**
+     * Checks if a set of criteria can be answered by the mirror, criteria
+     * outside of the 7-bit range have to be compared character by character.
+     *
+     * @param criteria
+     *            the criteria
+     * @return <code>true</code> if <code>find()</code> can be used
+     */
+    static boolean isSupported(String[] criteria) {
+        for (String criterion : criteria) {
+            if (null != criterion) {
+                for (int i = 0; i < criterion.length(); i++) {
+                    if (criterion.charAt(i) >= 0x80) {
+                        return false;
+                    }
+                }
+            }
+        }
+        return true;
+    }
+
+
+    /**
+     * Finds the active records matching a set of criteria, each criteria
+     * being a case-insensitive prefix. Same result as comparing with
+     * <code>RecordView.startsWithIgnoreCase()</code>.
+     *
+     * @param criteria
+     *            the criteria, <code>null</code> matches any value
+     * @return the matching record-ids, in ascending order
+     */
+    int[] find(String[] criteria) {
+
+        int[] candidates = new int[numRecords];
+        int numCandidates = 0;
+
+        for (int recNo = 0; recNo < numRecords; recNo++) {
+            if (0 == (deleted[recNo / 64] & (1L << (recNo % 64)))) {
+                candidates[numCandidates++] = recNo;
+            }
+        }
+
+        for (int field = 0; field < criteria.length; field++) {
+            if (null != criteria[field]) {
+                numCandidates = filter(field, toPrefix(criteria[field]),
+                        candidates, numCandidates);
+            }
+        }
+
+        return Arrays.copyOf(candidates, numCandidates);
+    }
+
+
+    /*
+     * Removes the candidates that don't start with the prefix, a single pass
+     * over one column.
+     */
+    private int filter(int field, byte[] prefix, int[] candidates,
+            int numCandidates) {
+
+        final byte[] column = columns[field];
+        final int[]  length = lengths[field];
+        final int    width  = widths[field];
+        int numMatches = 0;
+
+        for (int i = 0; i < numCandidates; i++) {
+            final int recNo = candidates[i];
+            if (length[recNo] >= prefix.length) {
+                final int offset = recNo * width;
+                int j = 0;
+                while ((j < prefix.length)
+                        && (column[offset + j] == prefix[j])) {
+                    j++;
+                }
+                if (j == prefix.length) {
+                    candidates[numMatches++] = recNo;
+                }
+            }
+        }
+
+        return numMatches;
+    }
+
+
+    private static byte[] toPrefix(String criterion) {
+        final byte[] tmp = new byte[criterion.length()];
+        for (int i = 0; i < tmp.length; i++) {
+            tmp[i] = toLowerCase(criterion.charAt(i));
+        }
+        return tmp;
+    }
+
+
+    private static byte toLowerCase(char c) {
+        return ((c < 0x80) ? (byte) Character.toLowerCase(c) : NON_ASCII);
+    }
+
+
+    /*
+     * Makes room for a record, doubling the capacity when required.
+     */
+    private void ensureCapacity(int recNo) {
+        if (recNo >= capacity) {
+            while (recNo >= capacity) {
+                capacity *= 2;
+            }
+            for (int i = 0; i < widths.length; i++) {
+                columns[i] = Arrays.copyOf(columns[i], capacity * widths[i]);
+                lengths[i] = Arrays.copyOf(lengths[i], capacity);
+            }
+            final int oldLength = deleted.length;
+            deleted = Arrays.copyOf(deleted, capacity / 64);
+            Arrays.fill(deleted, oldLength, deleted.length, -1L);
+        }
+        if (recNo >= numRecords) {
+            numRecords = recNo + 1;
+        }
+    }
+}
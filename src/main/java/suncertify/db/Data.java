@@ -1,12 +1,19 @@
 package suncertify.db;
 
 
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
 import java.io.File;
 import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 import java.util.logging.Logger;
 
 
@@ -19,27 +26,36 @@ import java.util.logging.Logger;
  */
 public final class Data implements ExtendedDBMain {
 
-    private static final String FIELD_NAME     = "name";
-    private static final String FIELD_LOCATION = "location";
-
     // lock used to secure all internal state, e.g. access to the db-file or
-    // modification of the record-lock map
-    private final Object stateLock = new Object();
+    // modification of the record-lock map. Reading/searching only requires
+    // the read-lock, so searches may run in parallel
+    private final ReadWriteLock stateLock = new ReentrantReadWriteLock();
 
     // map containing locks for individual database-records
     private final Map<Integer, SimpleLock> recordLocks
             = new HashMap<Integer, SimpleLock>();
 
+    // snapshots of running backups, guarded by the state-lock
+    private final List<RecordSnapshot> snapshots
+            = new ArrayList<RecordSnapshot>();
+
+    // number of records a backup copies while holding the read-lock
+    private static final int BACKUP_BATCH_SIZE = 256;
+
     private final Logger logger = Logger.getLogger(Data.class.getName());
 
-    private final DataFileAccess dbAccess;
-    private final File           dbFile;
-    private final int            nameIndex;
-    private final int            locationIndex;
+    private final StorageEngine dbAccess;
+    private final Object        source;     // for toString()
+    private final int[]         keyIndexes; // fields in the composite-key
+    private final ColumnMirror  mirror;     // null unless enabled
+    private final KeyIndex      keyIndex;
+    private final PrefixIndex[] prefixIndexes; // null if not indexed
+    private final BitmapIndex[] bitmapIndexes; // null if not indexed
+    private final TokenIndex[]  tokenIndexes;  // null if not indexed
 
 
     /**
-     * Opens an existing database.
+     * Opens an existing database, using the default options.
      *
      * @param databaseFile
      *            a <code>File</code> used as the database -source.
@@ -51,33 +67,254 @@ public final class Data implements ExtendedDBMain {
      *             on I/O-errors
      */
     public Data(File databaseFile) throws FileNotFoundException, IOException {
+        this(databaseFile, new DataOptions());
+    }
 
-        logger.config("using database-file: " + databaseFile);
 
-        this.dbAccess   = DataFileAccess.create(databaseFile);
-        this.dbFile     = databaseFile;
+    /**
+     * Opens an existing database.
+     *
+     * @param databaseFile
+     *            a <code>File</code> used as the database -source.
+     * @param options
+     *            the <code>DataOptions</code> to use
+     * @throws FileNotFoundException
+     *             if the file doesn't exist, or isn't writable
+     * @throws DatabaseException
+     *             if the file isn't recognized as a valid database-file
+     * @throws IOException
+     *             on I/O-errors
+     */
+    public Data(File databaseFile, DataOptions options)
+            throws FileNotFoundException, IOException {
+        this(openStorage(databaseFile, options), databaseFile, options);
+    }
+
+
+    /**
+     * Opens a database on top of a <code>StorageEngine</code>, using the
+     * default options.
+     *
+     * @param storage
+     *            the <code>StorageEngine</code>, closed by
+     *            <code>close()</code>
+     * @throws DatabaseException
+     *             if the storage doesn't contain a valid database
+     * @throws IOException
+     *             on I/O-errors
+     */
+    public Data(StorageEngine storage) throws IOException {
+        this(storage, new DataOptions());
+    }
+
+
+    /**
+     * Opens a database on top of a <code>StorageEngine</code>. The options
+     * concerning the storage are ignored.
+     *
+     * @param storage
+     *            the <code>StorageEngine</code>, closed by
+     *            <code>close()</code>
+     * @param options
+     *            the <code>DataOptions</code> to use
+     * @throws DatabaseException
+     *             if the storage doesn't contain a valid database
+     * @throws IOException
+     *             on I/O-errors
+     */
+    public Data(StorageEngine storage, DataOptions options)
+            throws IOException {
+        this(storage, storage, options);
+    }
+
+
+    /*
+     * Private constructor, the source is only used for logging.
+     */
+    private Data(StorageEngine storage, Object source, DataOptions options)
+            throws IOException {
+
+        logger.config("using database: " + source + ", " + options);
+
+        this.dbAccess   = storage;
+        this.source     = source;
         
-        // extract the field-index of the name-/location-fields which
-        // are used as a composite-key
-        {
-            nameIndex = getFieldIndex(FIELD_NAME);
-            locationIndex = getFieldIndex(FIELD_LOCATION);
+        this.keyIndexes = getKeyIndexes(dbAccess.getFields());
+
+        if (0 == keyIndexes.length) {
+            dbAccess.close();
+            throw new DatabaseException("invalid db-file");
+        }
 
-            if ((-1 == nameIndex) || (-1 == locationIndex)) {
-                throw new DatabaseException("invalid db-file");
+        this.keyIndex = createKeyIndex();
+        this.mirror = (options.isColumnMirror() ? createMirror() : null);
+
+        final int numFields = dbAccess.getFields().length;
+        this.prefixIndexes = new PrefixIndex[numFields];
+        for (int index : getFieldIndexes(options.getPrefixIndexes())) {
+            prefixIndexes[index] = new PrefixIndex();
+        }
+        this.bitmapIndexes = new BitmapIndex[numFields];
+        for (int index : getFieldIndexes(options.getBitmapIndexes())) {
+            bitmapIndexes[index] = new BitmapIndex();
+        }
+        this.tokenIndexes = new TokenIndex[numFields];
+        for (int index : getFieldIndexes(options.getTokenIndexes())) {
+            tokenIndexes[index] = new TokenIndex();
+        }
+        buildIndexes();
+    }
+
+
+    private static StorageEngine openStorage(File databaseFile,
+            DataOptions options) throws FileNotFoundException, IOException {
+        if (StorageMode.LOG_STRUCTURED == options.getStorageMode()) {
+            return LogStructuredStore.create(databaseFile, options);
+        }
+        return DataFileAccess.create(databaseFile, options);
+    }
+
+
+    /*
+     * Builds the key-index from the records in the file. If the file contains
+     * duplicate keys, every record with the key is indexed.
+     */
+    private KeyIndex createKeyIndex() {
+        final KeyIndex tmp = new KeyIndex(keyIndexes);
+        scanRecords(new RecordVisitor() {
+            @Override
+            public boolean visit(RecordView record) {
+                if (!tmp.add(record.getRecNo(), record.toArray())) {
+                    logger.warning("record #" + record.getRecNo()
+                            + " has a duplicate key");
+                }
+                return true;
+            }
+        });
+        return tmp;
+    }
+
+
+    /*
+     * Resolves the names of the fields to index, the storage is closed if a
+     * field doesn't exist.
+     */
+    private int[] getFieldIndexes(String[] fieldNames) throws IOException {
+        final DatabaseField[] fields = dbAccess.getFields();
+        final int[] tmp = new int[fieldNames.length];
+
+        names:
+        for (int i = 0; i < fieldNames.length; i++) {
+            for (int j = 0; j < fields.length; j++) {
+                if (fields[j].getName().equals(fieldNames[i])) {
+                    tmp[i] = j;
+                    continue names;
+                }
             }
+            dbAccess.close();
+            throw new IllegalArgumentException("unknown field: "
+                    + fieldNames[i]);
         }
+        return tmp;
     }
-    
-    
-    private int getFieldIndex(String name) {
+
+
+    /*
+     * Fills the prefix-, bitmap- & token-indexes from the records in the
+     * file.
+     */
+    private void buildIndexes() {
+        boolean any = false;
+        for (int i = 0; i < prefixIndexes.length; i++) {
+            any |= ((null != prefixIndexes[i]) || (null != bitmapIndexes[i])
+                    || (null != tokenIndexes[i]));
+        }
+
+        if (any) {
+            scanRecords(new RecordVisitor() {
+                @Override
+                public boolean visit(RecordView record) {
+                    addToIndexes(record.getRecNo(), record.toArray());
+                    return true;
+                }
+            });
+        }
+    }
+
+
+    private void addToIndexes(int recNo, String[] data) {
+        for (int i = 0; i < data.length; i++) {
+            if (null != prefixIndexes[i]) {
+                prefixIndexes[i].add(recNo, data[i]);
+            }
+            if (null != bitmapIndexes[i]) {
+                bitmapIndexes[i].add(recNo, data[i]);
+            }
+            if (null != tokenIndexes[i]) {
+                tokenIndexes[i].add(recNo, data[i]);
+            }
+        }
+    }
+
+
+    private void removeFromIndexes(int recNo, String[] data) {
+        for (int i = 0; i < data.length; i++) {
+            if (null != prefixIndexes[i]) {
+                prefixIndexes[i].remove(recNo, data[i]);
+            }
+            if (null != bitmapIndexes[i]) {
+                bitmapIndexes[i].remove(recNo, data[i]);
+            }
+            if (null != tokenIndexes[i]) {
+                tokenIndexes[i].remove(recNo, data[i]);
+            }
+        }
+    }
+
+
+    /*
+     * Builds the column-mirror from the records in the file. Binary fields
+     * are mirrored in their text-form, which may be longer than the field.
+     */
+    private ColumnMirror createMirror() {
         final DatabaseField[] fields = dbAccess.getFields();
+        final int[] widths = new int[fields.length];
         for (int i = 0; i < fields.length; i++) {
-            if (fields[i].getName().equals(name)) {
-                return i;
+            widths[i] = ((DatabaseField.Type.TEXT == fields[i].getType())
+                    ? fields[i].getLength() : Math.max(fields[i].getLength(),
+                            RecordFormat.MAX_BINARY_TEXT));
+        }
+
+        final ColumnMirror tmp = new ColumnMirror(widths);
+        scanRecords(new RecordVisitor() {
+            @Override
+            public boolean visit(RecordView record) {
+                tmp.set(record.getRecNo(), record);
+                return true;
+            }
+        });
+        logger.info("mirrored " + tmp.getNumRecords() + " record(s)");
+        return tmp;
+    }
+    
+    
+    /*
+     * Extracts the field-index of the fields which are used as a
+     * composite-key.
+     */
+    static int[] getKeyIndexes(DatabaseField[] fields) {
+        int count = 0;
+        for (DatabaseField field : fields) {
+            count += (field.isKey() ? 1 : 0);
+        }
+
+        final int[] tmp = new int[count];
+        for (int i = 0, j = 0; i < fields.length; i++) {
+            if (fields[i].isKey()) {
+                tmp[j++] = i;
             }
         }
-        return -1;
+        return tmp;
     }
 
 
@@ -90,15 +327,241 @@ public final class Data implements ExtendedDBMain {
      */
     public void close() throws IOException {
         logger.info("closing database-file");
-        synchronized (stateLock) {
+        stateLock.writeLock().lock();
+        try {
             dbAccess.close();
+        } finally {
+            stateLock.writeLock().unlock();
+        }
+    }
+
+
+    /**
+     * Compacts the database-file, moving records into the slots of deleted
+     * records and removing the deleted slots at the end of the file. The
+     * database stays available while compacting, each record is moved in a
+     * separate step. Record-numbers aren't affected as long as the database
+     * is open, but once it's re-opened the records are numbered by their new
+     * position in the file.
+     *
+     * @return the number of steps performed
+     */
+    public int compact() {
+        try {
+            int numSteps = 0;
+            long modification = -1;
+
+            while (true) {
+                stateLock.writeLock().lock();
+                try {
+                    if (!dbAccess.compact()) {
+                        break;
+                    }
+                    modification = dbAccess.getModificationSequence();
+                } finally {
+                    stateLock.writeLock().unlock();
+                }
+                numSteps++;
+            }
+
+            if (-1 != modification) {
+                dbAccess.awaitDurable(modification);
+            }
+
+            logger.info("compacted database in " + numSteps + " step(s)");
+            return numSteps;
+        } catch (IOException e) {
+            throw new DatabaseException(e);
+        }
+    }
+
+
+    /**
+     * Writes a consistent copy of the database, as it was when the backup
+     * started, to a new database-file. Modifications aren't blocked while the
+     * copy is written: the records are copied in small batches, and a record
+     * that's modified before it's been copied is preserved in memory first
+     * (copy-on-write). <br/>
+     * <br/>
+     * Deleted records are copied too, so the record-numbers are the same in
+     * the copy. The copy uses the same version of the file-format as the
+     * database, but no fields are dictionary-encoded.
+     *
+     * @param target
+     *            the file to write, must not exist
+     * @return the number of records copied, deleted ones included
+     * @throws IOException
+     *             on I/O-errors, or if the target exists
+     */
+    public int backup(File target) throws IOException {
+
+        if (target.exists()) {
+            throw new IOException("target exists: " + target);
+        }
+
+        final RecordSnapshot snapshot = beginSnapshot();
+        try {
+            writeSnapshot(snapshot, target);
+        } finally {
+            endSnapshot(snapshot);
+        }
+
+        logger.info("backed up " + snapshot.getNumRecords()
+                + " record(s) to " + target);
+        return snapshot.getNumRecords();
+    }
+
+
+    /*
+     * Takes a snapshot, which is kept up to date until endSnapshot().
+     */
+    RecordSnapshot beginSnapshot() {
+        stateLock.writeLock().lock();
+        try {
+            final RecordSnapshot snapshot = new RecordSnapshot(dbAccess
+                    .getNumRecords());
+            snapshots.add(snapshot);
+            return snapshot;
+        } finally {
+            stateLock.writeLock().unlock();
+        }
+    }
+
+
+    void endSnapshot(RecordSnapshot snapshot) {
+        stateLock.writeLock().lock();
+        try {
+            snapshots.remove(snapshot);
+        } finally {
+            stateLock.writeLock().unlock();
+        }
+    }
+
+
+    /*
+     * Writes the records of a snapshot to a new database-file. Each batch is
+     * encoded while holding the read-lock, and written after releasing it.
+     */
+    void writeSnapshot(RecordSnapshot snapshot, File target)
+            throws IOException {
+
+        final RecordFormat format = new RecordFormat(getFormatVersion(),
+                dbAccess.getFields());
+        final int recordLen = format.getRecordLength();
+        final byte[] batch = new byte[BACKUP_BATCH_SIZE * recordLen];
+        final FileOutputStream file = new FileOutputStream(target);
+
+        try {
+            final DataOutputStream out = new DataOutputStream(
+                    new BufferedOutputStream(file));
+            format.write(out);
+
+            for (int first = 0; first < snapshot.getNumRecords();
+                    first += BACKUP_BATCH_SIZE) {
+                final int count = Math.min(BACKUP_BATCH_SIZE, snapshot
+                        .getNumRecords() - first);
+
+                stateLock.readLock().lock();
+                try {
+                    for (int i = 0; i < count; i++) {
+                        final int recNo = first + i;
+                        final byte[] record = encodeSnapshot(format,
+                                snapshot, recNo);
+                        System.arraycopy(record, 0, batch, i * recordLen,
+                                recordLen);
+                        snapshot.copied(recNo);
+                    }
+                } finally {
+                    stateLock.readLock().unlock();
+                }
+
+                out.write(batch, 0, count * recordLen);
+            }
+
+            out.flush();
+            file.getFD().sync();
+        } catch (IOException e) {
+            closeAfterFailure(file, target);
+            throw e;
+        } catch (RuntimeException e) {
+            closeAfterFailure(file, target);
+            throw e;
+        }
+
+        file.close();
+    }
+
+
+    private byte[] encodeSnapshot(RecordFormat format,
+            RecordSnapshot snapshot, int recNo) throws IOException {
+
+        final String[] values;
+        if (snapshot.isPreserved(recNo)) {
+            values = snapshot.getPreImage(recNo);
+        } else {
+            values = (dbAccess.isDeleted(recNo) ? null : dbAccess
+                    .read(recNo));
+        }
+
+        if (null == values) {
+            final byte[] tmp = format.createEmptyRecord();
+            tmp[0] = 1; // deleted
+            return tmp;
+        }
+        return format.encode(values);
+    }
+
+
+    private static void closeAfterFailure(FileOutputStream file,
+            File target) throws IOException {
+        try {
+            file.close();
+        } finally {
+            if (target.exists() && !target.delete()) {
+                target.deleteOnExit();
+            }
         }
     }
 
 
+    /*
+     * Returns the version of the file-format used by the storage, storage
+     * that isn't provided by this package is backed up as version 2.
+     */
+    private int getFormatVersion() {
+        if (dbAccess instanceof FormattedStorage) {
+            return ((FormattedStorage) dbAccess).getFormatVersion();
+        }
+        return 2;
+    }
+
+
+    /*
+     * Preserves a record in the running backups before it's modified, must
+     * be called while holding the write-lock.
+     */
+    private void preserve(int recNo) throws IOException {
+        for (RecordSnapshot snapshot : snapshots) {
+            if (snapshot.needsPreImage(recNo)) {
+                snapshot.preserve(recNo, (dbAccess.isDeleted(recNo) ? null
+                        : dbAccess.read(recNo)));
+            }
+        }
+    }
+
+
+    /*
+     * Returns the field-values the way they're stored, used by ShardedData
+     * to find a record's shard.
+     */
+    String[] normalize(String[] data) {
+        return dbAccess.normalize(data);
+    }
+
+
     @Override
     public String toString() {
-        return ("Data, " + dbFile + ", numRecords: " + dbAccess.size());
+        return ("Data, " + source + ", numRecords: " + dbAccess.size());
     }
 
 
@@ -118,22 +581,66 @@ public final class Data implements ExtendedDBMain {
     }
 
 
+    /**
+     * Returns the number of reads served by the page-cache.
+     *
+     * @return the number of cache-hits
+     * @see DataOptions#setCacheSize(long)
+     */
+    public long getCacheHits() {
+        return dbAccess.getCacheHits();
+    }
+
+
+    /**
+     * Returns the number of reads that missed the page-cache.
+     *
+     * @return the number of cache-misses
+     * @see DataOptions#setCacheSize(long)
+     */
+    public long getCacheMisses() {
+        return dbAccess.getCacheMisses();
+    }
+
+
     @Override
     public int create(String[] data) throws DuplicateKeyException {
-        synchronized (stateLock) {
+        final int  recNo;
+        final long modification;
+
+        stateLock.writeLock().lock();
+        try {
             dbAccess.verifyFieldFormat(data);
-            verifyUniqueKey(data);
-            return createAndWriteRecord(data);
+            final String[] normalized = dbAccess.normalize(data);
+            verifyUniqueKey(normalized);
+            recNo = createAndWriteRecord(data);
+            keyIndex.add(recNo, normalized);
+            addToIndexes(recNo, normalized);
+            for (RecordSnapshot snapshot : snapshots) {
+                snapshot.preserve(recNo, null); // reused a deleted record
+            }
+            if (null != mirror) {
+                mirror.set(recNo, normalized);
+            }
+            modification = dbAccess.getModificationSequence();
+        } finally {
+            stateLock.writeLock().unlock();
         }
+
+        awaitDurable(modification);
+        return recNo;
     }
 
 
     @Override
     public String[] read(int recNo) throws RecordNotFoundException {
         try {
-            synchronized (stateLock) {
+            stateLock.readLock().lock();
+            try {
                 verifyActiveRecord(recNo);
                 return dbAccess.read(recNo);
+            } finally {
+                stateLock.readLock().unlock();
             }
         } catch (IOException e) {
             throw new DatabaseException(e);
@@ -145,14 +652,32 @@ public final class Data implements ExtendedDBMain {
     public void update(int recNo, String[] data)
             throws RecordNotFoundException {
         try {
-            synchronized (stateLock) {
+            final long modification;
+
+            stateLock.writeLock().lock();
+            try {
                 verifyActiveRecord(recNo);
-                verifyUniqueKeyExcept(data, recNo);
+                final String[] normalized = dbAccess.normalize(data);
+                verifyUniqueKeyExcept(normalized, recNo);
                 
                 assert isLocked(recNo);
                 
+                preserve(recNo);
+                final String[] old = dbAccess.read(recNo);
                 dbAccess.write(recNo, data);
+                keyIndex.remove(recNo, old);
+                keyIndex.add(recNo, normalized);
+                removeFromIndexes(recNo, old);
+                addToIndexes(recNo, normalized);
+                if (null != mirror) {
+                    mirror.set(recNo, normalized);
+                }
+                modification = dbAccess.getModificationSequence();
+            } finally {
+                stateLock.writeLock().unlock();
             }
+
+            dbAccess.awaitDurable(modification);
         } catch (IOException e) {
             throw new DatabaseException(e);
         } catch (DuplicateKeyException e) {
@@ -165,14 +690,29 @@ public final class Data implements ExtendedDBMain {
     @Override
     public void delete(int recNo) throws RecordNotFoundException {
         try {
-            synchronized (stateLock) {
+            final long modification;
+
+            stateLock.writeLock().lock();
+            try {
                 verifyActiveRecord(recNo);
                 
                 assert isLocked(recNo);
                 
+                preserve(recNo);
+                final String[] old = dbAccess.read(recNo);
+                keyIndex.remove(recNo, old);
+                removeFromIndexes(recNo, old);
                 dbAccess.delete(recNo);
+                if (null != mirror) {
+                    mirror.delete(recNo);
+                }
                 removeLockForDeletedRecord(recNo);
+                modification = dbAccess.getModificationSequence();
+            } finally {
+                stateLock.writeLock().unlock();
             }
+
+            dbAccess.awaitDurable(modification);
         } catch (IOException e) {
             throw new DatabaseException(e);
         }
@@ -197,7 +737,8 @@ public final class Data implements ExtendedDBMain {
             throw new IllegalArgumentException("invalid number of fields");
         }
 
-        synchronized (stateLock) {
+        stateLock.readLock().lock();
+        try {
             final int[] result = doFind(criteria);
 
             if (0 == result.length) {
@@ -205,37 +746,159 @@ public final class Data implements ExtendedDBMain {
             } else {
                 return result;
             }
+        } finally {
+            stateLock.readLock().unlock();
         }
     }
 
 
     private int[] doFind(String[] criteria) {
+        final QueryPlan plan = createPlan(criteria);
+
+        switch (plan.getAccess()) {
+            case MIRROR_SCAN:
+                return mirror.find(criteria);
+            case SCAN:
+                final CriteriaVisitor visitor = new CriteriaVisitor(criteria,
+                        dbAccess.getNumRecords(), false);
+                scanRecords(visitor);
+                return visitor.getMatches();
+            default:
+                final int[] candidates = findIndexed(plan, criteria);
+                final String[] residual = plan.getResidual();
+                return ((QueryPlan.isEmpty(residual)
+                        || (0 == candidates.length)) ? candidates
+                        : verifyCriteria(candidates, residual, false));
+        }
+    }
+
+
+    /**
+     * Describes how <code>find()</code> would search for a set of criteria:
+     * the indexes it would use, in order, the criteria it would compare
+     * against the records, and the estimated number of matches & cost. The
+     * plan depends on the indexes and the current records.
+     *
+     * @param criteria
+     *            the criteria, as passed to <code>find()</code>
+     * @return a description of the plan
+     * @throws IllegalArgumentException
+     *             if the number of criteria doesn't match the number of
+     *             fields
+     * @see DataOptions#setPrefixIndexes(String...)
+     * @see DataOptions#setBitmapIndexes(String...)
+     */
+    public String explain(String[] criteria) {
+
+        if (criteria.length != dbAccess.getFields().length) {
+            throw new IllegalArgumentException("invalid number of fields");
+        }
+
+        stateLock.readLock().lock();
         try {
-            final int   numRecords = dbAccess.size();
-            final int[] result     = new int[numRecords];
-            int         numMatches = 0;
+            return createPlan(criteria).toString();
+        } finally {
+            stateLock.readLock().unlock();
+        }
+    }
 
-            for (int iRecord = 0; iRecord < numRecords; iRecord++) {
-                if (dbAccess.isDeleted(iRecord)) {
-                    continue;
-                } else if (isMatch(criteria, dbAccess.read(iRecord))) {
-                    result[numMatches++] = iRecord;
-                }
+
+    private QueryPlan createPlan(String[] criteria) {
+        return QueryPlan.create(criteria, dbAccess.getFields(),
+                dbAccess.getNumRecords(), prefixIndexes, bitmapIndexes,
+                ((null != mirror) && ColumnMirror.isSupported(criteria)));
+    }
+
+
+    /*
+     * Intersects the records found by each index in the plan, starting with
+     * the most selective.
+     */
+    private int[] findIndexed(QueryPlan plan, String[] criteria) {
+        int[] result = null;
+
+        for (int i = 0; i < plan.getNumSteps(); i++) {
+            final int field = plan.getField(i);
+
+            if (QueryPlan.Access.BITMAP_INDEX == plan.getAccess(i)) {
+                final RecordBitmap bitmap = bitmapIndexes[field].find(
+                        criteria[field]);
+                result = ((null == result) ? bitmap.toArray()
+                        : retain(result, bitmap));
+            } else {
+                final int[] recNos = prefixIndexes[field].find(
+                        criteria[field]);
+                result = ((null == result) ? recNos
+                        : intersect(result, recNos));
             }
 
-            return Arrays.copyOfRange(result, 0, numMatches);
+            if (0 == result.length) {
+                break;
+            }
+        }
+        return result;
+    }
+
+
+    private static int[] retain(int[] recNos, RecordBitmap bitmap) {
+        final int[] tmp = new int[recNos.length];
+        int count = 0;
+        for (int recNo : recNos) {
+            if (bitmap.contains(recNo)) {
+                tmp[count++] = recNo;
+            }
+        }
+        return Arrays.copyOf(tmp, count);
+    }
+
+
+    private static int[] intersect(int[] a, int[] b) {
+        final int[] tmp = new int[Math.min(a.length, b.length)];
+        int count = 0;
+        for (int i = 0, j = 0; (i < a.length) && (j < b.length);) {
+            if (a[i] < b[j]) {
+                i++;
+            } else if (a[i] > b[j]) {
+                j++;
+            } else {
+                tmp[count++] = a[i];
+                i++;
+                j++;
+            }
+        }
+        return Arrays.copyOf(tmp, count);
+    }
+
+
+    /*
+     * Reads the candidates from the file, and keeps the ones matching the
+     * remaining criteria, which are prefixes or tokens.
+     */
+    private int[] verifyCriteria(int[] candidates, String[] criteria,
+            boolean tokens) {
+        try {
+            final int[] tmp = new int[candidates.length];
+            int count = 0;
+            for (int recNo : candidates) {
+                if (matches(dbAccess.read(recNo), criteria, tokens)) {
+                    tmp[count++] = recNo;
+                }
+            }
+            return Arrays.copyOf(tmp, count);
         } catch (IOException e) {
             throw new DatabaseException(e);
         }
     }
 
 
-    private boolean isMatch(String[] criteria, String[] record) {
-        for (int iCol = 0; iCol < record.length; iCol++) {
-            if (null == criteria[iCol]) {
+    private static boolean matches(String[] data, String[] criteria,
+            boolean tokens) {
+        for (int i = 0; i < criteria.length; i++) {
+            if (null == criteria[i]) {
                 continue;
-            } else if (!record[iCol].toLowerCase().startsWith(
-                    criteria[iCol].toLowerCase())) {
+            } else if (tokens ? !TokenIndex.contains(data[i], criteria[i])
+                    : !PrefixIndex.startsWithIgnoreCase(data[i],
+                            criteria[i])) {
                 return false;
             }
         }
@@ -243,12 +906,109 @@ public final class Data implements ExtendedDBMain {
     }
 
 
+    @Override
+    public int[] findContaining(String[] tokens)
+            throws RecordNotFoundException {
+
+        if (tokens.length != dbAccess.getFields().length) {
+            throw new IllegalArgumentException("invalid number of fields");
+        }
+
+        stateLock.readLock().lock();
+        try {
+            final int[] result = doFindContaining(tokens);
+
+            if (0 == result.length) {
+                throw new RecordNotFoundException();
+            } else {
+                return result;
+            }
+        } finally {
+            stateLock.readLock().unlock();
+        }
+    }
+
+
+    private int[] doFindContaining(String[] tokens) {
+        final String[] residual = tokens.clone();
+        RecordBitmap bitmap = null;
+        for (int i = 0; i < tokens.length; i++) {
+            if ((null != tokens[i]) && (null != tokenIndexes[i])) {
+                final RecordBitmap match = tokenIndexes[i].find(tokens[i]);
+                bitmap = ((null == bitmap) ? match : bitmap.and(match));
+                residual[i] = null;
+            }
+        }
+
+        if (null != bitmap) {
+            return (QueryPlan.isEmpty(residual) ? bitmap.toArray()
+                    : verifyCriteria(bitmap.toArray(), residual, true));
+        }
+
+        final CriteriaVisitor visitor = new CriteriaVisitor(tokens,
+                dbAccess.getNumRecords(), true);
+        scanRecords(visitor);
+        return visitor.getMatches();
+    }
+
+
+    @Override
+    public int findByKey(String... key) throws RecordNotFoundException {
+
+        if (key.length != keyIndexes.length) {
+            throw new IllegalArgumentException("invalid number of key-fields");
+        }
+
+        final String[] data = new String[dbAccess.getFields().length];
+        Arrays.fill(data, "");
+        for (int i = 0; i < keyIndexes.length; i++) {
+            data[keyIndexes[i]] = key[i];
+        }
+        final String[] normalized = dbAccess.normalize(data);
+
+        stateLock.readLock().lock();
+        try {
+            final int recNo = keyIndex.get(normalized);
+            if (-1 == recNo) {
+                throw new RecordNotFoundException("no record with key: "
+                        + generateKey(normalized));
+            }
+            return recNo;
+        } finally {
+            stateLock.readLock().unlock();
+        }
+    }
+
+
+    @Override
+    public void scan(RecordVisitor visitor) {
+        stateLock.readLock().lock();
+        try {
+            scanRecords(visitor);
+        } finally {
+            stateLock.readLock().unlock();
+        }
+    }
+
+
+    private void scanRecords(RecordVisitor visitor) {
+        try {
+            dbAccess.scan(visitor);
+        } catch (IOException e) {
+            throw new DatabaseException(e);
+        }
+    }
+
+
     @Override
     public boolean isLocked(int recNo) throws RecordNotFoundException {
-        synchronized (stateLock) {
+        stateLock.readLock().lock();
+        try {
             verifyActiveRecord(recNo);
             final SimpleLock recordLock = recordLocks.get(recNo);            
             return ((null != recordLock) && recordLock.isLocked());
+        } finally {
+            stateLock.readLock().unlock();
         }
     }
     
@@ -258,23 +1018,27 @@ public final class Data implements ExtendedDBMain {
 
         SimpleLock recordLock;
 
-        synchronized (stateLock) {
+        stateLock.writeLock().lock();
+        try {
             verifyActiveRecord(recNo);
             if (null == recordLocks.get(recNo)) {
                 recordLocks.put(recNo, new SimpleLock());
             }
             recordLock = recordLocks.get(recNo);
+        } finally {
+            stateLock.writeLock().unlock();
         }
 
         recordLock.lock(); // it's extremely important to acquire this lock
-                           // outside of the synchronized block above, if not
-                           // there will be deadlocks..
+                           // outside of the state-lock above, if not there
+                           // will be deadlocks..
     }
 
 
     @Override
     public void unlock(int recNo) throws RecordNotFoundException {
-        synchronized (stateLock) {
+        stateLock.writeLock().lock();
+        try {
             verifyActiveRecord(recNo);
             
             assert isLocked(recNo);
@@ -283,12 +1047,15 @@ public final class Data implements ExtendedDBMain {
             recordLock.unlock();
             // NOTE, don't remove the lock here, potential race-condition
             // in the recordLock.lock() line in the method above..
+        } finally {
+            stateLock.writeLock().unlock();
         }
     }
     
     
     /*
-     * Verifies that the records's key is unique within the database.
+     * Verifies that the records's key is unique within the database, the
+     * values must be normalized.
      */
     private void verifyUniqueKey(String[] data) throws DuplicateKeyException {
         verifyUniqueKeyExcept(data, -1);
@@ -297,32 +1064,27 @@ public final class Data implements ExtendedDBMain {
 
     /*
      * Verifies that the records's key is unique within the database, with the
-     * exception of a given record-index.
+     * exception of a given record-index. The values must be normalized, i.e.
+     * truncated/trimmed the way they would be stored.
      */
     private void verifyUniqueKeyExcept(String[] data, int except)
             throws DuplicateKeyException {
-        try {
-            final String key = generateKey(data);
-            final int numRecords = dbAccess.size();
 
-            for (int i = 0; i < numRecords; i++) {
-                if (dbAccess.isDeleted(i) || (i == except)) {
-                    continue;
-                }
+        final int match = keyIndex.get(data, except);
 
-                if (key.equals(generateKey(dbAccess.read(i)))) {
-                    throw new DuplicateKeyException("record #" + i
-                            + " already has key: " + key);
-                }
-            }
-        } catch (IOException e) {
-            throw new DatabaseException(e);
+        if (-1 != match) {
+            throw new DuplicateKeyException("record #" + match
+                    + " already has key: " + generateKey(data));
         }
     }
 
 
     private String generateKey(String[] data) {
-        return (data[nameIndex] + "_" + data[locationIndex]);
+        final StringBuilder key = new StringBuilder();
+        for (int index : keyIndexes) {
+            key.append((0 == key.length()) ? "" : "_").append(data[index]);
+        }
+        return key.toString();
     }
 
 
@@ -334,8 +1096,6 @@ public final class Data implements ExtendedDBMain {
             if (dbAccess.isDeleted(recNo)) {
                 throw new IndexOutOfBoundsException();
             }
-        } catch (IOException e) {
-            throw new DatabaseException(e);
         } catch (IndexOutOfBoundsException e) {
             throw new RecordNotFoundException("record #" + recNo
                     + " doesn't exist", e);
@@ -345,11 +1105,68 @@ public final class Data implements ExtendedDBMain {
 
     private int createAndWriteRecord(String[] data) {
         try {
-            final int recordIndex = dbAccess.create();
-            dbAccess.write(recordIndex, data);
-            return recordIndex;
+            return dbAccess.create(data);
         } catch (IOException e) {
             throw new DatabaseException(e);
         }
     }
+
+
+    /*
+     * Waits until a modification is durable, must be called after the
+     * state-lock has been released so writers can share a group-commit.
+     */
+    private void awaitDurable(long modification) {
+        try {
+            dbAccess.awaitDurable(modification);
+        } catch (IOException e) {
+            throw new DatabaseException(e);
+        }
+    }
+
+
+    /*
+     * Collects the records that match a set of search-criteria, each
+     * criteria being a case-insensitive prefix, or a token if searching with
+     * findContaining().
+     */
+    private static final class CriteriaVisitor implements RecordVisitor {
+
+        private final String[] criteria; // prefixes or tokens
+        private final int[]    matches;
+        private final boolean  tokens;
+        private int            numMatches;
+
+
+        CriteriaVisitor(String[] criteria, int numRecords, boolean tokens) {
+            this.criteria = criteria;
+            this.matches = new int[numRecords];
+            this.tokens = tokens;
+        }
+
+
+        @Override
+        public boolean visit(RecordView record) {
+            for (int iCol = 0; iCol < criteria.length; iCol++) {
+                if (null == criteria[iCol]) {
+                    continue;
+                } else if (tokens ? !TokenIndex.contains(
+                        record.getString(iCol), criteria[iCol])
+                        : !record.startsWithIgnoreCase(iCol, criteria[iCol])) {
+                    return true;
+                }
+            }
+            matches[numMatches++] = record.getRecNo();
+            return true;
+        }
+
+
+        int[] getMatches() {
+            // records are visited in the order they're stored in the file,
+            // which changes when the file is compacted
+            final int[] tmp = Arrays.copyOfRange(matches, 0, numMatches);
+            Arrays.sort(tmp);
+            return tmp;
+        }
+    }
 }
@@ -5,10 +5,11 @@ import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.RandomAccessFile;
-import java.nio.charset.Charset;
 import java.util.Arrays;
 import java.util.logging.Logger;
 
+import suncertify.db.WriteAheadLog.Operation;
+
 
 /**
  * Support-class that deals with low-level file-access and database-structure.
@@ -16,41 +17,68 @@ import java.util.logging.Logger;
  * work on a different level of abstraction, <code>Data</code> takes care of
  * higher-level functionality like searching, updating etc. <br/>
  * <br/>
- * This class is not thread-safe, proper synchronization is the client's
- * responsibility.
+ * This class is not thread-safe for writers, proper synchronization is the
+ * client's responsibility. Reading methods (<code>read</code>,
+ * <code>isDeleted</code>, <code>size</code> and <code>getFields</code>) may
+ * however be called by any number of threads in parallel, as long as no
+ * modifying method runs at the same time.
  *
  * @author Lars Hvile
  */
-final class DataFileAccess {
+final class DataFileAccess implements StorageEngine, FormattedStorage {
     
-    // hardcoded field-indexes required for the type-system, ideally this
-    // information should be present in the database-file
-    private static final int FIELD_SIZE  = 3;
-    private static final int FIELD_RATE  = 4;
-    private static final int FIELD_OWNER = 5;
+    // number of bytes in the record-header
+    private static final int RECORD_HEADER_SIZE
+            = RecordFormat.RECORD_HEADER_SIZE;
 
-    // magic-value used to identify a database-file
-    private static final int MAGIC = 513;
+    // suffix of the write-ahead log's file-name
+    static final String LOG_SUFFIX = ".wal";
 
-    // number of bytes in the record-header
-    private static final int RECORD_HEADER_SIZE = 1;
+    // suffix of the dictionary's file-name, see FieldDictionary
+    static final String DICTIONARY_SUFFIX = ".dict";
+
+    // suffix of the record-summary's file-name
+    static final String SUMMARY_SUFFIX = ".summary";
 
-    // charset of strings in the database
-    private static final Charset CHARSET = Charset.forName("US-ASCII");
+    // preferred number of bytes / page in the page-cache, a page always
+    // holds a whole number of records
+    private static final int PAGE_SIZE = 4096;
+
+    // number of bytes read at a time while scanning the deleted-flags
+    private static final int SCAN_BUFFER_SIZE = 64 * 1024;
 
     private final Logger           logger = Logger.getLogger(
             DataFileAccess.class.getName());
 
-    private final RandomAccessFile dbFile;
+    private final FileStorage      storage;
+    private final WriteAheadLog    log;         // null if not used
+    private final File             databaseFile;
+    private final File             summaryFile;
+    private final long             checkpointSize;
+    private final Durability       durability;
+    private final SyncCoordinator  sync;
     private final int              recordLen;   // number of bytes / record
     private final long             recordStart; // pos of 1st byte in 1st record
-    private final DatabaseField[]  fields;
+    private final RecordFormat     format;
+    private final SlotAllocator    slots;       // slots in the file
+    private final SlotAllocator    recNos;      // record-numbers in use
+    private final RecordMap        recordMap = new RecordMap();
+    private final int              chunkSize;   // # of records preallocated
+    private int                    numAllocated; // # of slots in the file
     private volatile int           numActiveRecords;
 
+    // per-thread buffer used when reading records, since reads may run in
+    // parallel
+    private final ThreadLocal<byte[]> readBuffer = new ThreadLocal<byte[]>() {
+        @Override protected byte[] initialValue() {
+            return new byte[recordLen];
+        }
+    };
+
 
     /**
      * Factory-method that creates a <code>DataFileAccess</code> instance
-     * based on a <code>File</code>.
+     * based on a <code>File</code>, using the default options.
      *
      * @param databaseFile
      *            a <code>File</code> used as the database -source.
@@ -63,114 +91,282 @@ final class DataFileAccess {
      */
     public static DataFileAccess create(File databaseFile)
             throws FileNotFoundException, IOException {
+        return create(databaseFile, new DataOptions());
+    }
 
-        final RandomAccessFile dbFile = openDatabaseFile(databaseFile);
-
-        verifyDbHeader(dbFile);
 
-        final int recordLen          = extractRecordLength(dbFile);
-        final DatabaseField[] fields = extractFields(dbFile);
-        final long recordStart       = dbFile.getFilePointer();
+    /**
+     * Factory-method that creates a <code>DataFileAccess</code> instance
+     * based on a <code>File</code>.
+     *
+     * @param databaseFile
+     *            a <code>File</code> used as the database -source.
+     * @param options
+     *            the <code>DataOptions</code> to use
+     * @throws FileNotFoundException
+     *             if the file doesn't exist, or isn't writable
+     * @throws DatabaseException
+     *             if the file isn't recognized as a valid database-file
+     * @throws IOException
+     *             on I/O-errors
+     */
+    public static DataFileAccess create(File databaseFile, DataOptions options)
+            throws FileNotFoundException, IOException {
 
-        return new DataFileAccess(dbFile, recordLen, recordStart, fields);
-    }
+        if (LogStructuredStore.hasSegments(databaseFile)) {
+            throw new DatabaseException("the database wasn't closed after "
+                    + "being opened with StorageMode.LOG_STRUCTURED, it must "
+                    + "be re-opened with that mode first");
+        }
 
+        final RandomAccessFile dbFile = openDatabaseFile(databaseFile,
+                isSynchronous(options));
+        WriteAheadLog log = null;
+        FieldDictionary dictionary = null;
+
+        try {
+            final RecordFormat format    = readFormat(dbFile, databaseFile);
+            dictionary                   = format.getDictionary();
+            final int recordLen          = format.getRecordLength();
+            final long recordStart       = dbFile.getFilePointer();
+            final FileStorage storage    = openStorage(dbFile, options,
+                    recordStart, recordLen);
+            final File summaryFile       = new File(databaseFile.getPath()
+                    + SUMMARY_SUFFIX);
+
+            if (options.isWriteAheadLog()) {
+                log = WriteAheadLog.open(new File(databaseFile.getPath()
+                        + LOG_SUFFIX), recordLen, Durability.SYNCHRONOUS
+                        == options.getDurability());
+                recover(log, storage, recordStart, summaryFile);
+            } else {
+                recover(databaseFile, recordLen, storage, recordStart,
+                        summaryFile);
+            }
 
-    private static RandomAccessFile openDatabaseFile(File databaseFile)
-            throws FileNotFoundException {
-        if (databaseFile.exists()) {
-            return new RandomAccessFile(databaseFile, "rws");
-        } else {
-            throw new FileNotFoundException("db-file doesn't exist, "
-                    + databaseFile);
+            return new DataFileAccess(storage, log, databaseFile, format,
+                    recordStart, options);
+        } catch (IOException e) {
+            closeAfterFailure(dbFile, log, dictionary);
+            throw e;
+        } catch (RuntimeException e) {
+            closeAfterFailure(dbFile, log, dictionary);
+            throw e;
         }
     }
 
 
-    private static void verifyDbHeader(RandomAccessFile dbFile)
+    /**
+     * Reads the header of a database-file, and opens the dictionary if any
+     * fields are dictionary-encoded.
+     *
+     * @param dbFile
+     *            the database-file, positioned at the start
+     * @param databaseFile
+     *            the database-file's <code>File</code>
+     * @return the file's <code>RecordFormat</code>
+     * @throws DatabaseException
+     *             if the file isn't recognized as a valid database-file
+     * @throws IOException
+     *             on I/O-errors
+     */
+    static RecordFormat readFormat(RandomAccessFile dbFile, File databaseFile)
             throws IOException {
-        if (MAGIC != dbFile.readInt()) {
-            throw (new DatabaseException("unknown file-type"));
+        final RecordFormat format = RecordFormat.read(dbFile);
+        if (!format.hasDictionary()) {
+            return format;
         }
+        return format.withDictionary(FieldDictionary.open(new File(
+                databaseFile.getPath() + DICTIONARY_SUFFIX), format
+                .getFieldCount()));
     }
 
 
-    private static int extractRecordLength(RandomAccessFile dbFile)
-            throws IOException {
-        return (RECORD_HEADER_SIZE + dbFile.readInt());
+    /*
+     * The database-file is only opened in 'rws' mode if it's the file that
+     * provides durability, when using a write-ahead log it's the log's job.
+     */
+    private static boolean isSynchronous(DataOptions options) {
+        return ((Durability.SYNCHRONOUS == options.getDurability())
+                && !options.isWriteAheadLog());
     }
 
 
-    private static DatabaseField[] extractFields(RandomAccessFile dbFile)
-            throws IOException {
-        final DatabaseField[] fields = new DatabaseField[dbFile.readShort()];
-        for (int iField = 0; iField < fields.length; iField++) {
-            fields[iField] = new DatabaseField(iField, readString(dbFile, dbFile
-                    .readShort()), dbFile.readShort(), getFieldType(iField));
+    private static void closeAfterFailure(RandomAccessFile dbFile,
+            WriteAheadLog log, FieldDictionary dictionary) throws IOException {
+        try {
+            if (null != log) {
+                log.close();
+            }
+            if (null != dictionary) {
+                dictionary.close();
+            }
+        } finally {
+            dbFile.close();
         }
-        return fields;
     }
-    
-    
+
+
     /*
-     * Returns a field's type based on it's index, ideally this information
-     * should be present in the database-file.
-     */
-    private static DatabaseField.Type getFieldType(int index) {
-        switch (index) {
-            case FIELD_SIZE:
-            case FIELD_OWNER:
-                return DatabaseField.Type.NUMBER;
-            case FIELD_RATE:
-                return DatabaseField.Type.MONEY;
-            default:
-                return DatabaseField.Type.TEXT;
+     * Replays the write-ahead log after a crash, making the database-file
+     * consistent before anything else reads it. The record-summary no longer
+     * matches the file once the log has been replayed.
+     */
+    static void recover(WriteAheadLog log, FileStorage storage,
+            long recordStart, File summaryFile) throws IOException {
+        if (!log.isEmpty()) {
+            RecordSummary.markDirty(summaryFile);
+            final int numEntries = log.replay(storage, recordStart);
+            storage.force();
+            log.truncate();
+            Logger.getLogger(DataFileAccess.class.getName()).info(
+                    "recovered " + numEntries + " modification(s) from the "
+                            + "write-ahead log");
         }
     }
 
 
-    private static String readString(RandomAccessFile dbFile, int length)
+    /**
+     * Replays a write-ahead log left behind by a crash, when the database is
+     * opened without one. The log's modifications were committed, and would
+     * be replayed over newer modifications if the log was used again later.
+     *
+     * @param databaseFile
+     *            the database-file
+     * @param recordLen
+     *            the length of a record
+     * @param storage
+     *            the database-file's storage
+     * @param recordStart
+     *            the position of the first record
+     * @param summaryFile
+     *            the database's record-summary
+     * @throws IOException
+     *             on I/O-errors
+     */
+    static void recover(File databaseFile, int recordLen,
+            FileStorage storage, long recordStart, File summaryFile)
             throws IOException {
-        final byte[] tmp = new byte[length];
-        dbFile.readFully(tmp);
-        return new String(tmp, CHARSET).trim();
+        final File logFile = new File(databaseFile.getPath() + LOG_SUFFIX);
+        if (logFile.length() > 0) {
+            final WriteAheadLog log = WriteAheadLog.open(logFile, recordLen,
+                    false);
+            try {
+                recover(log, storage, recordStart, summaryFile);
+            } finally {
+                log.close();
+            }
+        }
     }
 
 
-    private static void writeString(RandomAccessFile dbFile, String str,
-            int length) throws IOException {
-        byte[] tmp = str.getBytes(CHARSET);
-        tmp = Arrays.copyOf(tmp, length); // truncate/pad to the correct length
-        dbFile.write(tmp);
+    static RandomAccessFile openDatabaseFile(File databaseFile,
+            boolean synchronous) throws FileNotFoundException {
+        if (databaseFile.exists()) {
+            return new RandomAccessFile(databaseFile,
+                    synchronous ? "rws" : "rw");
+        } else {
+            throw new FileNotFoundException("db-file doesn't exist, "
+                    + databaseFile);
+        }
+    }
+
+
+    static FileStorage openStorage(RandomAccessFile dbFile,
+            DataOptions options, long recordStart, int recordLen)
+            throws IOException {
+        switch (options.getStorageMode()) {
+            case MEMORY_MAPPED:
+                return new MappedFileStorage(dbFile, isSynchronous(options));
+            default:
+                final FileStorage storage = new RandomAccessFileStorage(
+                        dbFile);
+                if (0 == options.getCacheSize()) {
+                    return storage;
+                }
+                return new PageCache(storage, recordStart, recordLen
+                        * Math.max(1, PAGE_SIZE / recordLen), options
+                        .getCacheSize(), options.isCacheOffHeap());
+        }
     }
 
 
     /*
      * Private constructor for the factory-method.
      */
-    private DataFileAccess(RandomAccessFile dbFile, int recordLen,
-            long recordStart, DatabaseField[] fields) throws IOException {
-
-        this.dbFile = dbFile;
-        this.recordLen = recordLen;
+    private DataFileAccess(FileStorage storage, WriteAheadLog log,
+            File databaseFile, RecordFormat format, long recordStart,
+            DataOptions options) throws IOException {
+
+        this.storage = storage;
+        this.log = log;
+        this.databaseFile = databaseFile;
+        this.summaryFile = new File(databaseFile.getPath() + SUMMARY_SUFFIX);
+        this.checkpointSize = options.getCheckpointSize();
+        this.durability = options.getDurability();
+        this.sync = new SyncCoordinator((null == log) ? storage : log
+                .getStorage(), options.getDurability(), options
+                .getGroupCommitWindow());
+        this.format = format;
+        this.recordLen = format.getRecordLength();
         this.recordStart = recordStart;
-        this.fields = Arrays.copyOf(fields, fields.length);
-        this.numActiveRecords = getNumActiveRecords();
+
+        this.slots = loadSlots();
+        this.recNos = new SlotAllocator(slots.getDeletionBitmap(), slots
+                .getNumSlots());
+        this.numAllocated = slots.getNumSlots();
+        this.chunkSize = (int) Math.min(Integer.MAX_VALUE, options
+                .getPreallocationSize() / recordLen);
+        this.numActiveRecords = slots.getNumActive();
+
+        // the summary is only valid until the file is modified
+        RecordSummary.markDirty(summaryFile);
 
         logger.info("database loaded, record-length: " + recordLen
-                + ", fields: " + Arrays.asList(fields));
+                + ", format: v" + format.getVersion() + ", fields: "
+                + Arrays.asList(format.getFields()));
     }
 
 
-    private int getNumActiveRecords() throws IOException {
-        final int numRecords = getNumRecords();
-        int numActive = 0;
-        for (int i = 0; i < numRecords; i++) {
-            if (!isDeleted(i)) {
-                numActive++;
+    /*
+     * Loads the in-memory deletion-bitmap from the record-summary written by
+     * the last clean close, or by scanning the file if it can't be trusted.
+     */
+    private SlotAllocator loadSlots() throws IOException {
+        final SlotAllocator summary = RecordSummary.load(summaryFile,
+                recordLen, databaseFile);
+        return ((null != summary) ? summary : scanSlots());
+    }
+
+
+    /*
+     * Builds the in-memory deletion-bitmap by scanning the deleted-flag of
+     * every record. The file is read in large blocks, not record by record.
+     */
+    private SlotAllocator scanSlots() throws IOException {
+
+        logger.info("scanning the database-file");
+
+        final int numRecords = (int) ((storage.length() - recordStart)
+                / recordLen);
+        final long[] deleted = new long[(numRecords + 63) / 64];
+        final int recordsPerBlock = Math.max(1, SCAN_BUFFER_SIZE / recordLen);
+        final byte[] block = new byte[recordsPerBlock * recordLen];
+
+        for (int first = 0; first < numRecords; first += recordsPerBlock) {
+            final int count = Math.min(recordsPerBlock, numRecords - first);
+            storage.read(recordStart + ((long) recordLen * first), block, 0,
+                    count * recordLen);
+
+            for (int i = 0; i < count; i++) {
+                if (0 != block[i * recordLen]) {
+                    final int record = first + i;
+                    deleted[record / 64] |= (1L << (record % 64));
+                }
             }
         }
-        return numActive;
+
+        return new SlotAllocator(deleted, numRecords);
     }
 
 
@@ -181,8 +377,85 @@ final class DataFileAccess {
      * @throws IOException
      *             if an IO-error occurs while closing
      */
+    @Override
     public void close() throws IOException {
-        dbFile.close();
+        try {
+            sync.flush();
+            if (null != log) {
+                checkpoint();
+            } else if (Durability.SYNCHRONOUS != durability) {
+                storage.force();
+            }
+            trimPreallocated();
+            RecordSummary.save(summaryFile, recordLen, databaseFile, slots);
+        } finally {
+            try {
+                if (null != log) {
+                    log.close();
+                }
+                if (null != format.getDictionary()) {
+                    format.getDictionary().close();
+                }
+            } finally {
+                storage.close();
+            }
+        }
+    }
+
+
+    /**
+     * Returns the sequence-number of the latest modification, to be passed to
+     * <code>awaitDurable()</code>. Should be called by the writer before it
+     * releases its lock.
+     *
+     * @return the sequence-number
+     */
+    @Override
+    public long getModificationSequence() {
+        return sync.getModifiedSequence();
+    }
+
+
+    /**
+     * Blocks until a modification, and all modifications before it, are
+     * durable according to the <code>Durability</code> the file was opened
+     * with. Should be called after the writer has released its lock, so
+     * concurrent writers can share a group-commit. <br/>
+     * NOTE: this method can safely be called without any synchronization.
+     *
+     * @param sequence
+     *            the modification's sequence-number
+     * @throws IOException
+     *             on I/O-errors
+     * @see #getModificationSequence()
+     */
+    @Override
+    public void awaitDurable(long sequence) throws IOException {
+        sync.awaitDurable(sequence);
+    }
+
+
+    /**
+     * Returns the number of reads served by the page-cache.
+     *
+     * @return the number of cache-hits, 0 if the cache isn't used
+     */
+    @Override
+    public long getCacheHits() {
+        return ((storage instanceof PageCache)
+                ? ((PageCache) storage).getHits() : 0);
+    }
+
+
+    /**
+     * Returns the number of reads that missed the page-cache.
+     *
+     * @return the number of cache-misses, 0 if the cache isn't used
+     */
+    @Override
+    public long getCacheMisses() {
+        return ((storage instanceof PageCache)
+                ? ((PageCache) storage).getMisses() : 0);
     }
 
 
@@ -192,8 +465,25 @@ final class DataFileAccess {
      *
      * @return a <code>DatabaseField[]</code>
      */
+    @Override
     public DatabaseField[] getFields() {
-        return Arrays.copyOf(fields, fields.length);
+        return format.getFields();
+    }
+
+
+    /**
+     * Returns the layout of the records in the file.
+     *
+     * @return the <code>RecordFormat</code>
+     */
+    RecordFormat getFormat() {
+        return format;
+    }
+
+
+    @Override
+    public int getFormatVersion() {
+        return format.getVersion();
     }
 
 
@@ -203,24 +493,38 @@ final class DataFileAccess {
      *
      * @return the number of records in the file
      */
+    @Override
     public int size() {
         return numActiveRecords;
     }
 
 
     /**
-     * Checks if a record is deleted.
+     * Returns the total number of records in the database, including records
+     * that are deleted. Valid record-indexes are in the range
+     * <code>0 .. getNumRecords() - 1</code>.
+     *
+     * @return the number of records, including deleted ones
+     */
+    @Override
+    public int getNumRecords() {
+        return recNos.getNumSlots();
+    }
+
+
+    /**
+     * Checks if a record is deleted. This information is kept in memory, no
+     * I/O is required.
      *
      * @param record
      *            index of the record to check
      * @throws IndexOutOfBoundsException
-     *             if the index is out of range (index < 0 || index >= size())
-     * @throws IOException
-     *             on I/O-errors
+     *             if the index is out of range
+     *             (index < 0 || index >= getNumRecords())
      */
-    public boolean isDeleted(int record) throws IOException {
-        seek(record);
-        return dbFile.readBoolean();
+    @Override
+    public boolean isDeleted(int record) {
+        return recNos.isDeleted(record);
     }
 
 
@@ -230,36 +534,112 @@ final class DataFileAccess {
      * @param record
      *            index of the record to check
      * @throws IndexOutOfBoundsException
-     *             if the index is out of range (index < 0 || index >= size())
+     *             if the index is out of range
+     *             (index < 0 || index >= getNumRecords())
      * @throws IOException
      *             on I/O-errors
      */
+    @Override
     public void delete(int record) throws IOException {
-        seek(record);
-        dbFile.writeBoolean(true);
-        numActiveRecords--;
+        final int slot = getSlot(record);
+        modify(Operation.DELETE, slot, 0, new byte[] {1}, 0, 1);
+        recNos.free(record);
+        slots.free(slot);
+        numActiveRecords = slots.getNumActive();
+        sync.modified();
     }
 
 
     /**
      * Creates space for a new record in the database, possibly reusing an
-     * existing, but deleted record.
+     * existing, but deleted record. All the fields are empty.
      *
      * @return the index of the new record
      * @throws IOException
      *             on I/O-errors
      */
     public int create() throws IOException {
+        return createRecord(format.createEmptyRecord());
+    }
+
+
+    /**
+     * Creates a new record in the database, possibly reusing an existing, but
+     * deleted record. The record is written with a single write.
+     *
+     * @param data
+     *            a <code>String[]</code> with the field-values
+     * @return the index of the new record
+     * @throws IllegalArgumentException
+     *             if the fields can't be stored in the database record
+     * @throws IOException
+     *             on I/O-errors
+     */
+    @Override
+    public int create(String[] data) throws IOException {
+        verifyFieldFormat(data);
+        return createRecord(format.encode(data));
+    }
 
-        final int position = getAvailableRecordPosition();
 
-        dbFile.seek(recordStart + ((long) recordLen * position));
-        dbFile.writeBoolean(false); // not deleted
-        dbFile.write(new byte[recordLen - RECORD_HEADER_SIZE]); // clear
+    private int createRecord(byte[] record) throws IOException {
 
-        numActiveRecords++;
+        final int slot = slots.allocate();
 
-        return position;
+        try {
+            if (slot >= numAllocated) {
+                preallocate();
+            }
+            modify(Operation.CREATE, slot, 0, record, 0, recordLen);
+        } catch (IOException e) {
+            slots.free(slot);
+            throw e;
+        }
+
+        final int recNo = recNos.allocate();
+        recordMap.map(recNo, slot);
+
+        if (recNo < (recNos.getNumSlots() - 1)) {
+            logger.fine("reusing record #" + recNo);
+        }
+        numActiveRecords = slots.getNumActive();
+        sync.modified();
+
+        return recNo;
+    }
+
+
+    /*
+     * Extends the file with a chunk of deleted records, so appending records
+     * doesn't change the file's length every time. The chunk isn't logged,
+     * after a crash it's simply a number of deleted records.
+     */
+    private void preallocate() throws IOException {
+
+        if (chunkSize <= 1) {
+            numAllocated++; // grows with each record
+            return;
+        }
+
+        final byte[] chunk = new byte[chunkSize * recordLen];
+        for (int i = 0; i < chunkSize; i++) {
+            chunk[i * recordLen] = 1; // deleted
+        }
+
+        storage.write(getSlotPosition(numAllocated), chunk, 0, chunk.length);
+        numAllocated += chunkSize;
+    }
+
+
+    /*
+     * Removes the preallocated records that haven't been used.
+     */
+    private void trimPreallocated() throws IOException {
+        if (numAllocated > slots.getNumSlots()) {
+            storage.setLength(getSlotPosition(slots.getNumSlots()));
+            storage.force();
+            numAllocated = slots.getNumSlots();
+        }
     }
 
 
@@ -270,21 +650,56 @@ final class DataFileAccess {
      *            index of the record to read
      * @return a <code>String[]</code> with the field-values
      * @throws IndexOutOfBoundsException
-     *             if the index is out of range (index < 0 || index >= size())
+     *             if the index is out of range
+     *             (index < 0 || index >= getNumRecords())
      * @throws IOException
      *             on I/O-errors
      */
+    @Override
     public String[] read(int record) throws IOException {
 
-        seekToContent(record);
+        // the entire record is fetched with a single read
+        final byte[] buffer = readBuffer.get();
+        storage.read(getPosition(record), buffer, 0, recordLen);
 
-        final String[] tmp = new String[fields.length];
+        return format.decode(buffer, 0);
+    }
 
-        for (int i = 0; i < fields.length; i++) {
-            tmp[i] = readString(dbFile, fields[i].getLength());
-        }
 
-        return tmp;
+    /**
+     * Visits every active record in the database. The file is read in large
+     * blocks, and the same <code>RecordView</code> is reused for all
+     * records.
+     *
+     * @param visitor
+     *            the <code>RecordVisitor</code> to call for each record
+     * @throws IOException
+     *             on I/O-errors
+     */
+    @Override
+    public void scan(RecordVisitor visitor) throws IOException {
+
+        final int numSlots = slots.getNumSlots();
+        final int recordsPerBlock = Math.max(1, Math.min(numSlots,
+                SCAN_BUFFER_SIZE / recordLen));
+        final byte[] block = new byte[recordsPerBlock * recordLen];
+        final ByteRecordView view = new ByteRecordView(format);
+
+        for (int first = 0; first < numSlots; first += recordsPerBlock) {
+            final int count = Math.min(recordsPerBlock, numSlots - first);
+            storage.read(getSlotPosition(first), block, 0, count * recordLen);
+
+            for (int i = 0; i < count; i++) {
+                final int slot = first + i;
+                if (slots.isDeleted(slot)) {
+                    continue;
+                }
+                view.reset(block, i * recordLen, recordMap.getRecord(slot));
+                if (!visitor.visit(view)) {
+                    return;
+                }
+            }
+        }
     }
 
 
@@ -296,80 +711,148 @@ final class DataFileAccess {
      * @param data
      *            a <code>String[]</code> with the field-values
      * @throws IndexOutOfBoundsException
-     *             if the index is out of range (index < 0 || index >= size())
+     *             if the index is out of range
+     *             (index < 0 || index >= getNumRecords())
      * @throws IllegalArgumentException
      *             if the fields can't be stored in the database record
      * @throws IOException
      *             on I/O-errors
      */
+    @Override
     public void write(int record, String[] data) throws IOException {
 
         verifyFieldFormat(data);
-        seekToContent(record);
 
-        for (int i = 0; i < data.length; i++) {
-            writeString(dbFile, data[i], fields[i].getLength());
-        }
+        modify(Operation.UPDATE, getSlot(record), RECORD_HEADER_SIZE,
+                format.encode(data), RECORD_HEADER_SIZE, recordLen
+                        - RECORD_HEADER_SIZE);
+        sync.modified();
     }
 
 
     /**
-     * Verifies that the field-values are valid / approved for storage.
+     * Performs one step of a compaction of the database-file: the last record
+     * in the file is moved into the first deleted slot, and deleted slots at
+     * the end of the file are removed. The record keeps its record-number.
+     * <br/>
+     * The record is written to its new slot before the old slot is marked as
+     * deleted, a crash between the two writes leaves a copy of the record.
      *
-     * @param data
-     *            a <code>String[]</code> with the field-values
-     * @throws IllegalArgumentException
-     *             if the fields can't be stored in the database
+     * @return <code>false</code> if there was nothing left to compact
+     * @throws IOException
+     *             on I/O-errors
      */
-    public void verifyFieldFormat(String[] data) {
-
-        if (data.length != this.fields.length) {
-            throw new IllegalArgumentException("invalid number of fields");
+    @Override
+    public boolean compact() throws IOException {
+
+        final int hole = slots.getFirstFree();
+        final int last = slots.getLastActive();
+        boolean modified = false;
+
+        if (hole < last) {
+            final byte[] buffer = readBuffer.get();
+            storage.read(getSlotPosition(last), buffer, 0, recordLen);
+            modify(Operation.CREATE, hole, 0, buffer, 0, recordLen);
+            modify(Operation.DELETE, last, 0, new byte[] {1}, 0, 1);
+
+            slots.allocate(); // the hole is always the first free slot
+            slots.free(last);
+            recordMap.map(recordMap.getRecord(last), hole);
+            modified = true;
         }
 
-        for (String f : data) {
-            if (null == f) {
-                throw new IllegalArgumentException(
-                        "field-values can't be null");
+        final int numSlots = slots.getNumSlots();
+        if (slots.shrink() < numSlots) {
+            if (null != log) {
+                checkpoint(); // the log may not refer to removed slots
             }
+            storage.setLength(getSlotPosition(slots.getNumSlots()));
+            numAllocated = slots.getNumSlots();
+            modified = true;
         }
+
+        if (modified) {
+            sync.modified();
+        }
+        return modified;
     }
 
 
     /*
-     * Finds the next available position for a record, possibly reusing the
-     * storage-slot of a deleted record.
+     * Writes a modification to a record, appending it to the write-ahead log
+     * first if one is used. A checkpoint is done if the log has grown too
+     * large.
      */
-    private int getAvailableRecordPosition() throws IOException {
+    private void modify(Operation operation, int record, int offset,
+            byte[] buffer, int bufferOffset, int length) throws IOException {
+
+        if (null != log) {
+            log.append(operation, record, offset, buffer, bufferOffset, length);
+        }
 
-        int position = size();
+        storage.write(recordStart + ((long) recordLen * record) + offset,
+                buffer, bufferOffset, length);
 
-        // check if an existing record can be reused
-        for (int i = 0; i < size(); i++) {
-            if (isDeleted(i)) {
-                logger.fine("reusing record #" + i);
-                position = i;
-                break;
-            }
+        if ((null != log) && (log.size() >= checkpointSize)) {
+            checkpoint();
         }
+    }
 
-        return position;
+
+    /*
+     * Forces the database-file to disk, after which the log's entries are no
+     * longer needed.
+     */
+    private void checkpoint() throws IOException {
+        storage.force();
+        log.truncate();
+    }
+
+
+    /**
+     * Verifies that the field-values are valid / approved for storage.
+     *
+     * @param data
+     *            a <code>String[]</code> with the field-values
+     * @throws IllegalArgumentException
+     *             if the fields can't be stored in the database
+     */
+    @Override
+    public void verifyFieldFormat(String[] data) {
+        format.verify(data);
+    }
+
+
+    /**
+     * Returns the field-values the way they will be stored, i.e. truncated,
+     * trimmed and formatted the same way as <code>read()</code> would return
+     * them.
+     *
+     * @param data
+     *            a <code>String[]</code> with the field-values
+     * @return the normalized field-values
+     * @throws IllegalArgumentException
+     *             if the fields can't be stored in the database
+     */
+    @Override
+    public String[] normalize(String[] data) {
+        format.verify(data);
+        return format.normalize(data);
     }
 
 
     /*
-     * Returns the total number of records in the database, included records
-     * that are deleted.
+     * Returns the file-position of a given record.
      */
-    private int getNumRecords() throws IOException {
-        return ((int) ((dbFile.length() - recordStart) / recordLen));
+    private long getPosition(int record) {
+        return getSlotPosition(getSlot(record));
     }
 
 
     /*
-     * Sets the file-pointer at the start of a given record.
+     * Returns the slot where a given record is stored.
      */
-    private void seek(int record) throws IOException {
+    private int getSlot(int record) {
 
         final int size = getNumRecords();
 
@@ -378,16 +861,11 @@ final class DataFileAccess {
                     + record + ", size=" + size);
         }
 
-        dbFile.seek(recordStart + ((long) recordLen * record));
+        return recordMap.getSlot(record);
     }
 
 
-    /*
-     * Sets the file-pointer at the start of a records content (skipping the
-     * header-data).
-     */
-    private void seekToContent(int record) throws IOException {
-        seek(record);
-        dbFile.seek(dbFile.getFilePointer() + RECORD_HEADER_SIZE);
+    private long getSlotPosition(int slot) {
+        return (recordStart + ((long) recordLen * slot));
     }
 }
@@ -0,0 +1,415 @@
+package suncertify.db;
+
+import java.util.Arrays;
+
+
+/**
+ * Tuning-options used when opening a database. An instance can be
+ * reused for several databases, the values are copied when the database is
+ * opened.
+ *
+ * @author Lars Hvile
+ * @see Data#Data(java.io.File, DataOptions)
+ */
+public final class DataOptions {
+
+    private StorageMode storageMode       = StorageMode.RANDOM_ACCESS;
+    private Durability  durability        = Durability.SYNCHRONOUS;
+    private long        groupCommitWindow = 1;
+    private boolean     writeAheadLog     = false;
+    private long        checkpointSize    = 4 * 1024 * 1024;
+    private long        cacheSize         = 1024 * 1024;
+    private boolean     cacheOffHeap      = false;
+    private long        preallocationSize = 64 * 1024;
+    private boolean     columnMirror      = false;
+    private long        segmentSize       = 4 * 1024 * 1024;
+    private String[]    prefixIndexes     = new String[0];
+    private String[]    bitmapIndexes     = new String[0];
+    private String[]    tokenIndexes      = new String[0];
+
+
+    /**
+     * Returns the way the database-file is accessed, defaults to
+     * <code>StorageMode.RANDOM_ACCESS</code>.
+     *
+     * @return a <code>StorageMode</code>
+     */
+    public StorageMode getStorageMode() {
+        return storageMode;
+    }
+
+
+    /**
+     * Sets the way the database-file is accessed.
+     *
+     * @param storageMode
+     *            a <code>StorageMode</code>
+     * @throws IllegalArgumentException
+     *             if <code>storageMode</code> is <code>null</code>
+     */
+    public void setStorageMode(StorageMode storageMode) {
+        if (null == storageMode) {
+            throw new IllegalArgumentException("storage-mode can't be null");
+        }
+        this.storageMode = storageMode;
+    }
+
+
+    /**
+     * Returns when modifications are forced to disk, defaults to
+     * <code>Durability.SYNCHRONOUS</code>.
+     *
+     * @return a <code>Durability</code>
+     */
+    public Durability getDurability() {
+        return durability;
+    }
+
+
+    /**
+     * Sets when modifications are forced to disk.
+     *
+     * @param durability
+     *            a <code>Durability</code>
+     * @throws IllegalArgumentException
+     *             if <code>durability</code> is <code>null</code>
+     */
+    public void setDurability(Durability durability) {
+        if (null == durability) {
+            throw new IllegalArgumentException("durability can't be null");
+        }
+        this.durability = durability;
+    }
+
+
+    /**
+     * Returns the number of milliseconds a group-commit waits for other
+     * writers before forcing the file, defaults to 1.
+     *
+     * @return the window in milliseconds
+     * @see Durability#GROUP_COMMIT
+     */
+    public long getGroupCommitWindow() {
+        return groupCommitWindow;
+    }
+
+
+    /**
+     * Sets the number of milliseconds a group-commit waits for other
+     * writers before forcing the file.
+     *
+     * @param millis
+     *            the window in milliseconds, 0 means no waiting
+     * @throws IllegalArgumentException
+     *             if <code>millis</code> is negative
+     * @see Durability#GROUP_COMMIT
+     */
+    public void setGroupCommitWindow(long millis) {
+        if (millis < 0) {
+            throw new IllegalArgumentException("invalid window: " + millis);
+        }
+        this.groupCommitWindow = millis;
+    }
+
+
+    /**
+     * Checks if modifications are written to a write-ahead log, defaults to
+     * <code>false</code>.
+     *
+     * @return <code>true</code> if a write-ahead log is used
+     */
+    public boolean isWriteAheadLog() {
+        return writeAheadLog;
+    }
+
+
+    /**
+     * Sets whether modifications are written to a write-ahead log. When
+     * enabled the <code>Durability</code> applies to the log, while the
+     * database-file itself is only forced at checkpoints.
+     *
+     * @param writeAheadLog
+     *            <code>true</code> to use a write-ahead log
+     */
+    public void setWriteAheadLog(boolean writeAheadLog) {
+        this.writeAheadLog = writeAheadLog;
+    }
+
+
+    /**
+     * Returns the size the write-ahead log may reach before a checkpoint is
+     * done, defaults to 4MB.
+     *
+     * @return the size in bytes
+     */
+    public long getCheckpointSize() {
+        return checkpointSize;
+    }
+
+
+    /**
+     * Sets the size the write-ahead log may reach before a checkpoint is
+     * done.
+     *
+     * @param bytes
+     *            the size in bytes
+     * @throws IllegalArgumentException
+     *             if <code>bytes</code> isn't positive
+     */
+    public void setCheckpointSize(long bytes) {
+        if (bytes <= 0) {
+            throw new IllegalArgumentException("invalid size: " + bytes);
+        }
+        this.checkpointSize = bytes;
+    }
+
+
+    /**
+     * Returns the max number of bytes used by the page-cache, defaults to
+     * 1MB.
+     *
+     * @return the size in bytes, 0 if the cache is disabled
+     */
+    public long getCacheSize() {
+        return cacheSize;
+    }
+
+
+    /**
+     * Sets the max number of bytes used by the page-cache. The cache is only
+     * used with <code>StorageMode.RANDOM_ACCESS</code>, a mapped file is
+     * already cached by the operating system.
+     *
+     * @param bytes
+     *            the size in bytes, 0 disables the cache
+     * @throws IllegalArgumentException
+     *             if <code>bytes</code> is negative
+     */
+    public void setCacheSize(long bytes) {
+        if (bytes < 0) {
+            throw new IllegalArgumentException("invalid size: " + bytes);
+        }
+        this.cacheSize = bytes;
+    }
+
+
+    /**
+     * Checks if the page-cache is kept outside of the java-heap, defaults to
+     * <code>false</code>.
+     *
+     * @return <code>true</code> if the cache is off-heap
+     */
+    public boolean isCacheOffHeap() {
+        return cacheOffHeap;
+    }
+
+
+    /**
+     * Sets whether the page-cache is kept in direct buffers outside of the
+     * java-heap. A large off-heap cache doesn't increase the pauses of the
+     * garbage-collector, but it's limited by the JVM's max direct memory
+     * (-XX:MaxDirectMemorySize) instead of the heap-size.
+     *
+     * @param cacheOffHeap
+     *            <code>true</code> to keep the cache off-heap
+     */
+    public void setCacheOffHeap(boolean cacheOffHeap) {
+        this.cacheOffHeap = cacheOffHeap;
+    }
+
+
+    /**
+     * Returns the number of bytes the database-file is extended with when a
+     * record is added at the end, defaults to 64KB.
+     *
+     * @return the size in bytes, 0 if the file isn't preallocated
+     */
+    public long getPreallocationSize() {
+        return preallocationSize;
+    }
+
+
+    /**
+     * Sets the number of bytes the database-file is extended with when a
+     * record is added at the end. The space is filled with deleted records,
+     * and the unused part is removed when the database is closed.
+     *
+     * @param bytes
+     *            the size in bytes, rounded down to whole records, 0 means
+     *            that the file grows by one record at a time
+     * @throws IllegalArgumentException
+     *             if <code>bytes</code> is negative
+     */
+    public void setPreallocationSize(long bytes) {
+        if (bytes < 0) {
+            throw new IllegalArgumentException("invalid size: " + bytes);
+        }
+        this.preallocationSize = bytes;
+    }
+
+
+    /**
+     * Checks if an in-memory columnar copy of the records is used for
+     * searches, defaults to <code>false</code>.
+     *
+     * @return <code>true</code> if a column-mirror is used
+     */
+    public boolean isColumnMirror() {
+        return columnMirror;
+    }
+
+
+    /**
+     * Sets whether an in-memory columnar copy of the records is used for
+     * searches. The copy is built when the database is opened and kept
+     * synchronized by every modification, which costs memory in exchange for
+     * much faster searches.
+     *
+     * @param columnMirror
+     *            <code>true</code> to use a column-mirror
+     */
+    public void setColumnMirror(boolean columnMirror) {
+        this.columnMirror = columnMirror;
+    }
+
+
+    /**
+     * Returns the size a segment may reach before a new one is started when
+     * using <code>StorageMode.LOG_STRUCTURED</code>, defaults to 4MB.
+     *
+     * @return the size in bytes
+     */
+    public long getSegmentSize() {
+        return segmentSize;
+    }
+
+
+    /**
+     * Sets the size a segment may reach before a new one is started when
+     * using <code>StorageMode.LOG_STRUCTURED</code>. Full segments are merged
+     * in the background.
+     *
+     * @param bytes
+     *            the size in bytes
+     * @throws IllegalArgumentException
+     *             if <code>bytes</code> isn't positive
+     */
+    public void setSegmentSize(long bytes) {
+        if (bytes <= 0) {
+            throw new IllegalArgumentException("invalid size: " + bytes);
+        }
+        this.segmentSize = bytes;
+    }
+
+
+    /**
+     * Returns the names of the fields with a prefix-index, defaults to none.
+     *
+     * @return the field-names
+     */
+    public String[] getPrefixIndexes() {
+        return prefixIndexes.clone();
+    }
+
+
+    /**
+     * Sets the names of the fields with an in-memory index of their values.
+     * Searches with a criteria for an indexed field only compare the records
+     * with a matching value, instead of scanning the database. The indexes are
+     * built when the database is opened and updated by every modification.
+     *
+     * @param fieldNames
+     *            the field-names, none to disable the indexes
+     * @throws IllegalArgumentException
+     *             if <code>fieldNames</code> contains <code>null</code>
+     */
+    public void setPrefixIndexes(String... fieldNames) {
+        for (String name : fieldNames) {
+            if (null == name) {
+                throw new IllegalArgumentException("invalid field-name: "
+                        + name);
+            }
+        }
+        this.prefixIndexes = fieldNames.clone();
+    }
+
+
+    /**
+     * Returns the names of the fields with a bitmap-index, defaults to none.
+     *
+     * @return the field-names
+     */
+    public String[] getBitmapIndexes() {
+        return bitmapIndexes.clone();
+    }
+
+
+    /**
+     * Sets the names of the fields with an in-memory bitmap of the records
+     * for each distinct value. Suited for fields with few distinct values,
+     * searches with criteria for several such fields are answered by
+     * combining the bitmaps, without reading any records. The indexes are
+     * built when the database is opened and updated by every modification.
+     *
+     * @param fieldNames
+     *            the field-names, none to disable the indexes
+     * @throws IllegalArgumentException
+     *             if <code>fieldNames</code> contains <code>null</code>
+     */
+    public void setBitmapIndexes(String... fieldNames) {
+        for (String name : fieldNames) {
+            if (null == name) {
+                throw new IllegalArgumentException("invalid field-name: "
+                        + name);
+            }
+        }
+        this.bitmapIndexes = fieldNames.clone();
+    }
+
+
+    /**
+     * Returns the names of the fields with a token-index, defaults to none.
+     *
+     * @return the field-names
+     */
+    public String[] getTokenIndexes() {
+        return tokenIndexes.clone();
+    }
+
+
+    /**
+     * Sets the names of the comma-separated fields with an in-memory index
+     * from each token to the records containing it. Searches with
+     * <code>findContaining()</code> on an indexed field don't read any
+     * records. The indexes are built when the database is opened and updated
+     * by every modification.
+     *
+     * @param fieldNames
+     *            the field-names, none to disable the indexes
+     * @throws IllegalArgumentException
+     *             if <code>fieldNames</code> contains <code>null</code>
+     * @see Data#findContaining(String[])
+     */
+    public void setTokenIndexes(String... fieldNames) {
+        for (String name : fieldNames) {
+            if (null == name) {
+                throw new IllegalArgumentException("invalid field-name: "
+                        + name);
+            }
+        }
+        this.tokenIndexes = fieldNames.clone();
+    }
+
+
+    @Override
+    public String toString() {
+        return ("storage-mode: " + storageMode + ", durability: "
+                + durability + ", write-ahead log: " + writeAheadLog
+                + ", cache-size: " + cacheSize
+                + (cacheOffHeap ? " (off-heap)" : "") + ", column-mirror: "
+                + columnMirror + ", prefix-indexes: "
+                + Arrays.toString(prefixIndexes) + ", bitmap-indexes: "
+                + Arrays.toString(bitmapIndexes) + ", token-indexes: "
+                + Arrays.toString(tokenIndexes));
+    }
+}
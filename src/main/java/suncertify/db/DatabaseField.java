@@ -39,6 +39,7 @@ public final class DatabaseField implements Serializable {
     private final String name;
     private final short  length;
     private final Type   type;
+    private final boolean key;
     
     
     /**
@@ -82,7 +83,17 @@ public final class DatabaseField implements Serializable {
     
     
     /**
-     * Class-constructor.
+     * Checks if the field is part of the records' unique key.
+     * 
+     * @return <code>true</code> if the field is a key-field
+     */
+    public boolean isKey() {
+        return key;
+    }
+    
+    
+    /**
+     * Class-constructor, for a field that isn't part of the key.
      * 
      * @param index the field's index
      * @param name the field's name
@@ -90,15 +101,32 @@ public final class DatabaseField implements Serializable {
      * @param type the field's type
      */
     public DatabaseField(int index, String name, short length, Type type) {
+        this(index, name, length, type, false);
+    }
+    
+    
+    /**
+     * Class-constructor.
+     * 
+     * @param index the field's index
+     * @param name the field's name
+     * @param length the field's max-length
+     * @param type the field's type
+     * @param key <code>true</code> if the field is part of the key
+     */
+    public DatabaseField(int index, String name, short length, Type type,
+            boolean key) {
         this.index = index;
         this.name = name;
         this.length = length;
         this.type = type;
+        this.key = key;
     }
 
     
     @Override
     public String toString() {
-        return (index + ":" + name + " (" + length + ", " + type + ")");
+        return (index + ":" + name + " (" + length + ", " + type
+                + (key ? ", key" : "") + ")");
     }
 }
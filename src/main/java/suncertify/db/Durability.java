@@ -0,0 +1,36 @@
+package suncertify.db;
+
+
+/**
+ * Defines when modifications of the database are forced to disk.
+ *
+ * @author Lars Hvile
+ * @see DataOptions#setDurability(Durability)
+ */
+public enum Durability {
+
+    /**
+     * Every write is synchronous, the file is opened in 'rws' mode.
+     */
+    SYNCHRONOUS,
+
+    /**
+     * The file is forced to disk once after each create/update/delete, rather
+     * than once per write.
+     */
+    FORCE,
+
+    /**
+     * Writers share the force of the file. A writer waits a short while for
+     * other writers to join, and a single force then makes all their
+     * modifications durable. A modification is still durable once the
+     * operation returns.
+     */
+    GROUP_COMMIT,
+
+    /**
+     * Modifications are left to the operating-system, and are written to disk
+     * at its convenience. Modifications may be lost if the machine crashes.
+     */
+    OS_BUFFERED
+}
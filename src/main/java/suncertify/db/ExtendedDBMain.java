@@ -24,4 +24,53 @@ public interface ExtendedDBMain extends DBMain {
      * to be loosely coupled to the data-model. 
      */
 
+    /**
+     * Visits every active record in the database, without creating a
+     * <code>String[]</code> for each record. The visitor must not modify
+     * the database.
+     *
+     * @param visitor
+     *            the <code>RecordVisitor</code> to call for each record
+     * @see RecordView
+     */
+    void scan(RecordVisitor visitor);
+
+
+    /**
+     * Looks up the record with a given key, without searching the database.
+     * The values are compared the way they're stored, i.e. trimmed and
+     * truncated to the fields' lengths.
+     *
+     * @param key
+     *            the values of the key-fields, in field-order (name and
+     *            location)
+     * @return the record-number
+     * @throws RecordNotFoundException
+     *             if no record has the key
+     * @throws IllegalArgumentException
+     *             if the number of values doesn't match the number of
+     *             key-fields
+     */
+    int findByKey(String... key) throws RecordNotFoundException;
+
+
+    /**
+     * Searches for records where fields contain given tokens. A field is
+     * treated as a comma-separated list of tokens, and matches if one of them
+     * equals the criteria, ignoring case and surrounding whitespace. E.g. the
+     * specialties "Drywall, Painting" contain the token "painting" but not
+     * "paint".
+     *
+     * @param tokens
+     *            the token for each field, <code>null</code> matches any
+     *            value
+     * @return the matching record-numbers, in ascending order
+     * @throws RecordNotFoundException
+     *             if no records were found
+     * @throws IllegalArgumentException
+     *             if the number of tokens doesn't match the number of
+     *             fields
+     */
+    int[] findContaining(String[] tokens) throws RecordNotFoundException;
+
 }
@@ -0,0 +1,236 @@
+package suncertify.db;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+
+/**
+ * The shared dictionary of dictionary-encoded fields, see
+ * <code>RecordFormat</code>. The records only contain a fixed-width code, and
+ * the code is resolved to a canonical <code>String</code> here. Code 0 is
+ * always the empty string, the codes of the other values are assigned in the
+ * order the values are added. <br/>
+ * <br/>
+ * The dictionary is stored in an append-only file next to the database-file,
+ * starting with a magic-value followed by the entries:
+ * <code>field (short), length (short), US-ASCII bytes</code>. A new value is
+ * forced to disk before its code is returned, so a record never refers to a
+ * value that isn't stored. A partial entry at the end of the file (a crash
+ * while appending) is therefore never referenced, and is truncated when the
+ * dictionary is opened. <br/>
+ * <br/>
+ * Values are resolved without locking, adding values is synchronized.
+ *
+ * @author Lars Hvile
+ */
+final class FieldDictionary {
+
+    /**
+     * Highest code that fits in a record.
+     */
+    static final int MAX_CODE = 0xffff;
+
+    private static final int MAGIC = 0x44494331;
+
+    private static final Charset CHARSET = Charset.forName("US-ASCII");
+
+    private final RandomAccessFile file;
+
+    // the code of each value / field, guarded by this
+    private final List<Map<String, Integer>> codes;
+
+    // the values of each field, indexed by code. Replaced on every change,
+    // never modified
+    private volatile String[][] values;
+
+
+    private FieldDictionary(RandomAccessFile file, int numFields) {
+        this.file = file;
+        this.codes = new ArrayList<Map<String, Integer>>(numFields);
+        this.values = new String[numFields][];
+
+        for (int i = 0; i < numFields; i++) {
+            final Map<String, Integer> map = new HashMap<String, Integer>();
+            map.put("", 0);
+            codes.add(map);
+            values[i] = new String[] {""};
+        }
+    }
+
+
+    /**
+     * Opens a dictionary, creating the file if it doesn't exist.
+     *
+     * @param dictionaryFile
+     *            the dictionary's file
+     * @param numFields
+     *            the number of fields / record
+     * @return the <code>FieldDictionary</code>
+     * @throws DatabaseException
+     *             if the file isn't recognized as a dictionary
+     * @throws IOException
+     *             on I/O-errors
+     */
+    static FieldDictionary open(File dictionaryFile, int numFields)
+            throws IOException {
+
+        final RandomAccessFile file = new RandomAccessFile(dictionaryFile,
+                "rw");
+
+        try {
+            final FieldDictionary dictionary = new FieldDictionary(file,
+                    numFields);
+            if (0 == file.length()) {
+                file.writeInt(MAGIC);
+                file.getFD().sync();
+            } else {
+                dictionary.load(numFields);
+            }
+            return dictionary;
+        } catch (IOException e) {
+            file.close();
+            throw e;
+        } catch (RuntimeException e) {
+            file.close();
+            throw e;
+        }
+    }
+
+
+    private void load(int numFields) throws IOException {
+
+        if ((file.length() < 4) || (MAGIC != file.readInt())) {
+            throw new DatabaseException("invalid dictionary-file");
+        }
+
+        final long length = file.length();
+        long position = file.getFilePointer();
+
+        while ((position + 4) <= length) {
+            final int field = file.readUnsignedShort();
+            final int size = file.readUnsignedShort();
+            if ((position + 4 + size) > length) {
+                break;
+            } else if (field >= numFields) {
+                throw new DatabaseException("invalid dictionary-entry for "
+                        + "field #" + field);
+            }
+
+            final byte[] tmp = new byte[size];
+            file.readFully(tmp);
+            put(field, new String(tmp, CHARSET));
+            position = file.getFilePointer();
+        }
+
+        if (position < length) {
+            file.setLength(position);
+        }
+    }
+
+
+    /**
+     * Resolves a code.
+     *
+     * @param field
+     *            the field's index
+     * @param code
+     *            the code
+     * @return the canonical value
+     * @throws DatabaseException
+     *             if the code is unknown
+     */
+    String get(int field, int code) {
+        final String[] tmp = values[field];
+        if (code >= tmp.length) {
+            throw new DatabaseException("unknown dictionary-code for field #"
+                    + field + ": " + code);
+        }
+        return tmp[code];
+    }
+
+
+    /**
+     * Returns the number of values of a field, including the empty value.
+     *
+     * @param field
+     *            the field's index
+     * @return the number of values
+     */
+    int size(int field) {
+        return values[field].length;
+    }
+
+
+    /**
+     * Returns the code of a value, adding it to the dictionary if it's new.
+     *
+     * @param field
+     *            the field's index
+     * @param value
+     *            the value, trimmed and truncated to the field's length
+     * @return the code
+     * @throws DatabaseException
+     *             if the field has no more free codes
+     * @throws IOException
+     *             on I/O-errors
+     */
+    synchronized int add(int field, String value) throws IOException {
+
+        final Integer code = codes.get(field).get(value);
+        if (null != code) {
+            return code;
+        } else if (values[field].length > MAX_CODE) {
+            throw new DatabaseException("the dictionary of field #" + field
+                    + " is full");
+        }
+
+        final byte[] tmp = value.getBytes(CHARSET);
+        final byte[] entry = new byte[4 + tmp.length];
+        entry[0] = (byte) (field >>> 8);
+        entry[1] = (byte) field;
+        entry[2] = (byte) (tmp.length >>> 8);
+        entry[3] = (byte) tmp.length;
+        System.arraycopy(tmp, 0, entry, 4, tmp.length);
+
+        file.seek(file.length());
+        file.write(entry);
+        file.getFD().sync();
+
+        return put(field, value);
+    }
+
+
+    /*
+     * Adds a value in memory, the value must be new.
+     */
+    private synchronized int put(int field, String value) {
+        final String[] current = values[field];
+        final String[] tmp = new String[current.length + 1];
+        System.arraycopy(current, 0, tmp, 0, current.length);
+        tmp[current.length] = value;
+
+        final String[][] copy = values.clone();
+        copy[field] = tmp;
+        codes.get(field).put(value, current.length);
+        values = copy;
+
+        return current.length;
+    }
+
+
+    /**
+     * Closes the dictionary's file.
+     *
+     * @throws IOException
+     *             on I/O-errors
+     */
+    void close() throws IOException {
+        file.close();
+    }
+}
@@ -0,0 +1,235 @@
+package suncertify.db;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+
+/**
+ * Converts a database-file to version 2 of the file-format, where the
+ * field-types and key-fields are stored in the header and
+ * <code>NUMBER</code>/<code>MONEY</code> fields are stored as binary
+ * integers, except the owner which is an identifier and stays text. Every
+ * record is copied, deleted ones included, so record-numbers are the same in
+ * the new file. Text-fields with few distinct values may be
+ * dictionary-encoded, see <code>RecordFormat</code>. <br/>
+ * <br/>
+ * The source must be a closed database, it's never modified.
+ *
+ * @author Lars Hvile
+ */
+public final class FileFormatMigration {
+
+    // private constructor, to prevent direct instantiation
+    private FileFormatMigration() {
+    }
+
+
+    /**
+     * Command-line entry-point.
+     *
+     * @param args
+     *            the source- and target-file, followed by the names of the
+     *            fields to dictionary-encode
+     * @throws IOException
+     *             on I/O-errors
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.err.println("usage: FileFormatMigration <source> <target> "
+                    + "[dictionary-field...]");
+            System.exit(1);
+        }
+        migrate(new File(args[0]), new File(args[1]), Arrays.copyOfRange(
+                args, 2, args.length));
+    }
+
+
+    /**
+     * Writes a version 2 copy of a database-file.
+     *
+     * @param source
+     *            the database-file to convert
+     * @param target
+     *            the new file, must not exist
+     * @param dictionaryFields
+     *            names of the text-fields to dictionary-encode
+     * @return the number of records copied, deleted ones included
+     * @throws DatabaseException
+     *             if the source isn't a valid database-file, contains values
+     *             that can't be converted, has a write-ahead log that
+     *             hasn't been recovered, or is dictionary-encoded without
+     *             its dictionary-file
+     * @throws IllegalArgumentException
+     *             if a dictionary-field doesn't exist, or isn't a text-field
+     * @throws IOException
+     *             on I/O-errors, or if the target exists
+     */
+    public static int migrate(File source, File target,
+            String... dictionaryFields) throws IOException {
+
+        final File dictionaryFile = new File(target.getPath()
+                + DataFileAccess.DICTIONARY_SUFFIX);
+
+        if (new File(source.getPath() + DataFileAccess.LOG_SUFFIX).length()
+                > 0) {
+            throw new DatabaseException("the write-ahead log must be "
+                    + "recovered before migrating: " + source);
+        } else if (target.exists() || dictionaryFile.exists()) {
+            throw new IOException("target exists: " + target);
+        }
+
+        final DataInputStream in = new DataInputStream(new BufferedInputStream(
+                new FileInputStream(source)));
+        FieldDictionary sourceDictionary = null;
+        try {
+            RecordFormat from = RecordFormat.read(in);
+            if (from.hasDictionary()) {
+                sourceDictionary = openSourceDictionary(source, from);
+                from = from.withDictionary(sourceDictionary);
+            }
+            RecordFormat to = new RecordFormat(2, from.getV2Fields(),
+                    getDictionaryFlags(from.getV2Fields(), dictionaryFields));
+
+            final FieldDictionary dictionary = (to.hasDictionary()
+                    ? FieldDictionary.open(dictionaryFile, to.getFieldCount())
+                    : null);
+            to = to.withDictionary(dictionary);
+
+            final DataOutputStream out = new DataOutputStream(
+                    new BufferedOutputStream(new FileOutputStream(target)));
+            try {
+                final int numRecords;
+                try {
+                    to.write(out);
+                    numRecords = copyRecords(in, from, out, to);
+                } finally {
+                    if (null != dictionary) {
+                        dictionary.close();
+                    }
+                }
+                out.close();
+                return numRecords;
+            } catch (IOException e) {
+                closeAfterFailure(out, target, dictionaryFile);
+                throw e;
+            } catch (RuntimeException e) {
+                closeAfterFailure(out, target, dictionaryFile);
+                throw e;
+            }
+        } finally {
+            try {
+                if (null != sourceDictionary) {
+                    sourceDictionary.close();
+                }
+            } finally {
+                in.close();
+            }
+        }
+    }
+
+
+    /*
+     * Opens the dictionary of a source that's already dictionary-encoded,
+     * the records can't be decoded without it.
+     */
+    private static FieldDictionary openSourceDictionary(File source,
+            RecordFormat from) throws IOException {
+
+        final File file = new File(source.getPath()
+                + DataFileAccess.DICTIONARY_SUFFIX);
+        if (!file.isFile()) {
+            throw new DatabaseException("the dictionary-file is missing: "
+                    + file);
+        }
+        return FieldDictionary.open(file, from.getFieldCount());
+    }
+
+
+    private static boolean[] getDictionaryFlags(DatabaseField[] fields,
+            String[] names) {
+
+        final boolean[] tmp = new boolean[fields.length];
+
+        for (String name : names) {
+            boolean found = false;
+            for (int i = 0; i < fields.length; i++) {
+                if (fields[i].getName().equals(name)) {
+                    tmp[i] = true;
+                    found = true;
+                }
+            }
+            if (!found) {
+                throw new IllegalArgumentException("unknown field: " + name);
+            }
+        }
+
+        return tmp;
+    }
+
+
+    private static int copyRecords(DataInputStream in, RecordFormat from,
+            DataOutputStream out, RecordFormat to) throws IOException {
+
+        final byte[] buffer = new byte[from.getRecordLength()];
+        int numRecords = 0;
+
+        while (readRecord(in, buffer)) {
+            final byte flag = buffer[0];
+            final byte[] record;
+
+            if (0 != flag) {
+                record = to.createEmptyRecord();
+            } else {
+                try {
+                    record = to.encode(from.decode(buffer, 0));
+                } catch (IllegalArgumentException e) {
+                    throw new DatabaseException("record #" + numRecords
+                            + " can't be converted: " + e.getMessage());
+                }
+            }
+
+            record[0] = flag;
+            out.write(record);
+            numRecords++;
+        }
+
+        return numRecords;
+    }
+
+
+    /*
+     * Reads the next record, a partial record at the end of the file is
+     * ignored, like DataFileAccess does.
+     */
+    private static boolean readRecord(DataInputStream in, byte[] buffer)
+            throws IOException {
+        try {
+            in.readFully(buffer);
+            return true;
+        } catch (EOFException e) {
+            return false;
+        }
+    }
+
+
+    private static void closeAfterFailure(DataOutputStream out, File target,
+            File dictionaryFile) throws IOException {
+        try {
+            out.close();
+        } finally {
+            for (File file : new File[] {target, dictionaryFile}) {
+                if (file.exists() && !file.delete()) {
+                    file.deleteOnExit();
+                }
+            }
+        }
+    }
+}
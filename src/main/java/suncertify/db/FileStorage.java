@@ -0,0 +1,98 @@
+package suncertify.db;
+
+import java.io.IOException;
+
+
+/**
+ * Low-level, position-based access to the contents of a database-file.
+ * Implementations decide how the bytes actually reach the disk, the file-format
+ * itself is handled by <code>DataFileAccess</code>. <br/>
+ * <br/>
+ * Reads never depend on a shared file-pointer, so any number of threads may
+ * read in parallel. Writes must not be performed concurrently with any other
+ * operation, proper synchronization of those is the client's responsibility.
+ *
+ * @author Lars Hvile
+ * @see StorageMode
+ */
+interface FileStorage {
+
+    /**
+     * Returns the current length of the file.
+     *
+     * @return the length in bytes
+     * @throws IOException
+     *             on I/O-errors
+     */
+    long length() throws IOException;
+
+
+    /**
+     * Reads exactly <code>length</code> bytes into a buffer.
+     *
+     * @param position
+     *            position of the first byte in the file
+     * @param buffer
+     *            the destination-buffer
+     * @param offset
+     *            offset of the first byte in <code>buffer</code>
+     * @param length
+     *            the number of bytes to read
+     * @throws IOException
+     *             on I/O-errors, or if the end of the file is reached before
+     *             all the bytes are read
+     */
+    void read(long position, byte[] buffer, int offset, int length)
+            throws IOException;
+
+
+    /**
+     * Writes <code>length</code> bytes from a buffer, the file is extended if
+     * required.
+     *
+     * @param position
+     *            position of the first byte in the file
+     * @param buffer
+     *            the source-buffer
+     * @param offset
+     *            offset of the first byte in <code>buffer</code>
+     * @param length
+     *            the number of bytes to write
+     * @throws IOException
+     *             on I/O-errors
+     */
+    void write(long position, byte[] buffer, int offset, int length)
+            throws IOException;
+
+
+    /**
+     * Truncates or extends the file.
+     *
+     * @param length
+     *            the new length
+     * @throws IOException
+     *             on I/O-errors
+     */
+    void setLength(long length) throws IOException;
+
+
+    /**
+     * Forces all modifications, including the file's length, to disk. May be
+     * called while other threads are reading.
+     *
+     * @throws IOException
+     *             on I/O-errors
+     */
+    void force() throws IOException;
+
+
+    /**
+     * Closes the file. Any attempts to use the storage after this operation
+     * will fail.
+     *
+     * @throws IOException
+     *             if an IO-error occurs while closing
+     */
+    void close() throws IOException;
+
+}
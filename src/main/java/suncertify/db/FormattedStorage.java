@@ -0,0 +1,20 @@
+package suncertify.db;
+
+
+/**
+ * A <code>StorageEngine</code> backed by a database-file of this package.
+ * <code>Data</code> uses it to write backups in the same version as the
+ * file, storage that doesn't implement this interface is backed up as
+ * version 2.
+ *
+ * @author Lars Hvile
+ */
+interface FormattedStorage {
+
+    /**
+     * Returns the version of the database-file's format.
+     *
+     * @return the version
+     */
+    int getFormatVersion();
+}
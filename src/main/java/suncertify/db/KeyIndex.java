@@ -0,0 +1,159 @@
+package suncertify.db;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+
+/**
+ * In-memory hash-index from the composite-key of each active record to its
+ * record-number, used by <code>Data</code> to enforce the key-constraint and
+ * to look up records by key without scanning the database. The keys are the
+ * values as they're stored, i.e. normalized. <br/>
+ * <br/>
+ * A file written by another program may contain duplicate keys, so every
+ * record with a key is kept, ordered by record-number. Deleting one of them
+ * doesn't hide the others. <br/>
+ * <br/>
+ * The index is built when the database is opened, and updated after every
+ * modification. Instances aren't thread-safe, <code>Data</code> guards it
+ * with its state-lock.
+ *
+ * @author Lars Hvile
+ */
+final class KeyIndex {
+
+    private static final int[] NONE = new int[0];
+
+    private final int[] keyIndexes;
+
+    // key -> record-numbers, ascending
+    private final Map<List<String>, int[]> recNos
+            = new HashMap<List<String>, int[]>();
+
+
+    /**
+     * Creates an empty index.
+     *
+     * @param keyIndexes
+     *            the indexes of the fields in the composite-key
+     */
+    KeyIndex(int[] keyIndexes) {
+        this.keyIndexes = keyIndexes.clone();
+    }
+
+
+    /**
+     * Returns the number of keys in the index.
+     *
+     * @return the number of keys
+     */
+    int size() {
+        return recNos.size();
+    }
+
+
+    /**
+     * Adds the key of a record. The record is added even if another record
+     * already has the key.
+     *
+     * @param recNo
+     *            the record's id
+     * @param data
+     *            the record's normalized values
+     * @return <code>false</code> if another record already has the key
+     */
+    boolean add(int recNo, String[] data) {
+        final List<String> key = getKey(data);
+        final int[] existing = get(key);
+        final int pos = Arrays.binarySearch(existing, recNo);
+
+        if (pos >= 0) {
+            return (1 == existing.length);
+        }
+
+        final int insert = -(pos + 1);
+        final int[] tmp = new int[existing.length + 1];
+        System.arraycopy(existing, 0, tmp, 0, insert);
+        tmp[insert] = recNo;
+        System.arraycopy(existing, insert, tmp, insert + 1,
+                existing.length - insert);
+        recNos.put(key, tmp);
+        return (0 == existing.length);
+    }
+
+
+    /**
+     * Removes the key of a record, if it's indexed for that record.
+     *
+     * @param recNo
+     *            the record's id
+     * @param data
+     *            the record's normalized values
+     */
+    void remove(int recNo, String[] data) {
+        final List<String> key = getKey(data);
+        final int[] existing = get(key);
+        final int pos = Arrays.binarySearch(existing, recNo);
+
+        if (pos < 0) {
+            return;
+        } else if (1 == existing.length) {
+            recNos.remove(key);
+            return;
+        }
+
+        final int[] tmp = new int[existing.length - 1];
+        System.arraycopy(existing, 0, tmp, 0, pos);
+        System.arraycopy(existing, pos + 1, tmp, pos, tmp.length - pos);
+        recNos.put(key, tmp);
+    }
+
+
+    /**
+     * Looks up the record with a given key, the one with the lowest
+     * record-number if there are duplicates.
+     *
+     * @param data
+     *            normalized values, only the key-fields are used
+     * @return the record's id, or -1 if there's no such record
+     */
+    int get(String[] data) {
+        return get(data, -1);
+    }
+
+
+    /**
+     * Looks up a record with a given key, other than a given record.
+     *
+     * @param data
+     *            normalized values, only the key-fields are used
+     * @param except
+     *            id of the record to ignore
+     * @return the record's id, or -1 if there's no such record
+     */
+    int get(String[] data, int except) {
+        for (int recNo : get(getKey(data))) {
+            if (recNo != except) {
+                return recNo;
+            }
+        }
+        return -1;
+    }
+
+
+    private int[] get(List<String> key) {
+        final int[] tmp = recNos.get(key);
+        return ((null == tmp) ? NONE : tmp);
+    }
+
+
+    private List<String> getKey(String[] data) {
+        final String[] key = new String[keyIndexes.length];
+        for (int i = 0; i < keyIndexes.length; i++) {
+            key[i] = data[keyIndexes[i]];
+        }
+        return Arrays.asList(key);
+    }
+}
@@ -0,0 +1,1191 @@
+package suncertify.db;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+
+
+/**
+ * <code>StorageEngine</code> that never writes to the database-file while the
+ * database is open. Every modification is appended to the current segment, a
+ * file named <code>&lt;db-file&gt;.seg&lt;id&gt;</code>, and an in-memory map
+ * points each record-number to its latest version: a record in the
+ * database-file or an entry in one of the segments. A delete appends a
+ * tombstone. Writes are sequential, instead of the random writes done by
+ * <code>DataFileAccess</code>. <br/>
+ * <br/>
+ * A segment is closed for writing once it reaches the configured size. A
+ * background thread merges the closed segments into a single one, keeping
+ * only the entries that are still the latest version of their record. The
+ * merged segment takes the id of the newest segment it replaces, so
+ * replaying the segments in id-order always ends with the latest version of
+ * each record. When the database is closed, the latest versions are written
+ * back to the database-file and the segments are removed. <br/>
+ * <br/>
+ * When opened, the segments left behind by a crash are replayed on top of
+ * the database-file. A torn entry at the end of a segment is truncated, since
+ * the modification never completed. Segment entries consist of the
+ * operation, the record-number, the record's bytes (put only) and a
+ * checksum. <br/>
+ * <br/>
+ * Thread-safety is the same as for <code>DataFileAccess</code>, the
+ * background merge is synchronized internally.
+ *
+ * @author Lars Hvile
+ */
+final class LogStructuredStore implements StorageEngine, FormattedStorage {
+
+    // suffix of the segments' file-names, followed by the id
+    private static final String SEGMENT_SUFFIX = ".seg";
+
+    // suffix of a segment that's being merged
+    private static final String MERGE_SUFFIX = ".merge";
+
+    // magic-value used to identify a segment-file
+    private static final int MAGIC = 0x4c534731;
+
+    // magic + record-length
+    private static final int SEGMENT_HEADER_SIZE = 8;
+
+    // operation + record
+    private static final int ENTRY_HEADER_SIZE = 5;
+
+    // crc32 of header + data
+    private static final int ENTRY_TRAILER_SIZE = 4;
+
+    private static final byte PUT       = 0;
+    private static final byte TOMBSTONE = 1;
+
+    // number of closed segments that triggers a background merge
+    private static final int MERGE_THRESHOLD = 4;
+
+    // a location is the segment's id in the high bits, and the position of
+    // the record's bytes in the low bits. Segment 0 is the database-file
+    private static final int  OFFSET_BITS = 40;
+    private static final long OFFSET_MASK = (1L << OFFSET_BITS) - 1;
+
+    // number of bytes read at a time while scanning
+    private static final int SCAN_BUFFER_SIZE = 64 * 1024;
+
+    private final Logger logger = Logger.getLogger(
+            LogStructuredStore.class.getName());
+
+    private final File            databaseFile;
+    private final RandomAccessFile dbFile;
+    private final FileStorage     base;         // the database-file
+    private final RecordFormat    format;
+    private final int             recordLen;
+    private final long            recordStart;
+    private final int             numBaseRecords;
+    private final boolean         synchronous;
+    private final long            segmentSize;
+    private final SyncCoordinator sync;
+
+    // guards the segments and the locations, a merge replaces segments while
+    // readers may be active
+    private final ReadWriteLock               segmentLock
+            = new ReentrantReadWriteLock();
+    private final SortedMap<Integer, Segment> segments
+            = new TreeMap<Integer, Segment>();
+    private volatile Segment                  active;
+    private long[]                            locations;
+    private final SlotAllocator               recNos;
+    private volatile int                      numActiveRecords;
+
+    // signals the merger, guards the flags below
+    private final Object mergeMonitor = new Object();
+    private final Thread merger;
+    private boolean      mergeRequested;
+    private boolean      closed;
+
+    // only one merge at a time, never acquired while holding the
+    // segment-lock
+    private final Object mergeLock = new Object();
+
+    // per-thread buffer used when reading records, since reads may run in
+    // parallel
+    private final ThreadLocal<byte[]> readBuffer = new ThreadLocal<byte[]>() {
+        @Override protected byte[] initialValue() {
+            return new byte[recordLen];
+        }
+    };
+
+
+    /**
+     * Factory-method that opens a database-file, replaying any segments left
+     * behind by a crash.
+     *
+     * @param databaseFile
+     *            a <code>File</code> used as the database -source.
+     * @param options
+     *            the <code>DataOptions</code> to use
+     * @return the <code>LogStructuredStore</code>
+     * @throws FileNotFoundException
+     *             if the file doesn't exist, or isn't writable
+     * @throws DatabaseException
+     *             if the file isn't recognized as a valid database-file
+     * @throws IOException
+     *             on I/O-errors
+     */
+    static LogStructuredStore create(File databaseFile, DataOptions options)
+            throws FileNotFoundException, IOException {
+
+        final RandomAccessFile dbFile = DataFileAccess.openDatabaseFile(
+                databaseFile, false);
+        RecordFormat format = null;
+
+        try {
+            format = DataFileAccess.readFormat(dbFile, databaseFile);
+            final long recordStart = dbFile.getFilePointer();
+            final FileStorage base = DataFileAccess.openStorage(dbFile,
+                    options, recordStart, format.getRecordLength());
+            final File summaryFile = new File(databaseFile.getPath()
+                    + DataFileAccess.SUMMARY_SUFFIX);
+
+            // the file is modified when the database is closed, and may
+            // still contain modifications from the other engine
+            RecordSummary.markDirty(summaryFile);
+            DataFileAccess.recover(databaseFile, format.getRecordLength(),
+                    base, recordStart, summaryFile);
+
+            return new LogStructuredStore(databaseFile, dbFile, base, format,
+                    recordStart, options);
+        } catch (IOException e) {
+            closeAfterFailure(dbFile, format);
+            throw e;
+        } catch (RuntimeException e) {
+            closeAfterFailure(dbFile, format);
+            throw e;
+        }
+    }
+
+
+    private static void closeAfterFailure(RandomAccessFile dbFile,
+            RecordFormat format) throws IOException {
+        try {
+            if ((null != format) && (null != format.getDictionary())) {
+                format.getDictionary().close();
+            }
+        } finally {
+            dbFile.close();
+        }
+    }
+
+
+    /**
+     * Checks if a database-file has segments, i.e. if it's been opened with
+     * this engine and not closed.
+     *
+     * @param databaseFile
+     *            the database-file
+     * @return <code>true</code> if there are segments
+     */
+    static boolean hasSegments(File databaseFile) {
+        return (0 != listSegments(databaseFile).length);
+    }
+
+
+    /*
+     * Private constructor for the factory-method.
+     */
+    private LogStructuredStore(File databaseFile, RandomAccessFile dbFile,
+            FileStorage base, RecordFormat format, long recordStart,
+            DataOptions options) throws IOException {
+
+        this.databaseFile = databaseFile;
+        this.dbFile = dbFile;
+        this.base = base;
+        this.format = format;
+        this.recordLen = format.getRecordLength();
+        this.recordStart = recordStart;
+        this.numBaseRecords = (int) ((base.length() - recordStart)
+                / recordLen);
+        this.synchronous = (Durability.SYNCHRONOUS == options
+                .getDurability());
+        this.segmentSize = options.getSegmentSize();
+        this.sync = new SyncCoordinator(new ActiveStorage(), options
+                .getDurability(), options.getGroupCommitWindow());
+        this.locations = new long[Math.max(64, numBaseRecords)];
+
+        final List<Segment> opened = new ArrayList<Segment>();
+        try {
+            long[] deleted = scanBase();
+            int numRecords = numBaseRecords;
+
+            for (File file : recoverMerges(listSegments(databaseFile))) {
+                final Segment segment = openSegment(file, false);
+                opened.add(segment);
+                segments.put(segment.id, segment);
+            }
+
+            for (Segment segment : segments.values()) {
+                final long[][] bitmap = new long[][] {deleted};
+                numRecords = replay(segment, bitmap, numRecords);
+                deleted = bitmap[0];
+            }
+
+            this.recNos = new SlotAllocator(deleted, numRecords);
+            this.numActiveRecords = recNos.getNumActive();
+            this.active = newSegment((segments.isEmpty() ? 1 : segments
+                    .lastKey() + 1));
+            opened.add(active);
+        } catch (IOException e) {
+            closeSegments(opened);
+            throw e;
+        } catch (RuntimeException e) {
+            closeSegments(opened);
+            throw e;
+        }
+
+        this.merger = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                mergeInBackground();
+            }
+        }, "segment-merger " + databaseFile.getName());
+        merger.setDaemon(true);
+        merger.start();
+
+        logger.info("database loaded, record-length: " + recordLen
+                + ", format: v" + format.getVersion() + ", segments: "
+                + segments.size() + ", fields: "
+                + Arrays.asList(format.getFields()));
+    }
+
+
+    /*
+     * Builds the deletion-bitmap of the records in the database-file, and
+     * points each record to it.
+     */
+    private long[] scanBase() throws IOException {
+
+        final long[] deleted = new long[(numBaseRecords + 63) / 64];
+        final int recordsPerBlock = Math.max(1, SCAN_BUFFER_SIZE / recordLen);
+        final byte[] block = new byte[recordsPerBlock * recordLen];
+
+        for (int first = 0; first < numBaseRecords;
+                first += recordsPerBlock) {
+            final int count = Math.min(recordsPerBlock, numBaseRecords
+                    - first);
+            base.read(getBasePosition(first), block, 0, count * recordLen);
+
+            for (int i = 0; i < count; i++) {
+                final int record = first + i;
+                locations[record] = getBasePosition(record);
+                if (0 != block[i * recordLen]) {
+                    deleted[record / 64] |= (1L << (record % 64));
+                }
+            }
+        }
+
+        return deleted;
+    }
+
+
+    /*
+     * Applies the entries of a segment, a torn entry at the end is
+     * truncated. Returns the new number of records.
+     */
+    private int replay(Segment segment, long[][] deleted, int numRecords)
+            throws IOException {
+
+        final byte[] entry = new byte[ENTRY_HEADER_SIZE + recordLen
+                + ENTRY_TRAILER_SIZE];
+        final long length = segment.storage.length();
+        long position = SEGMENT_HEADER_SIZE;
+        int count = numRecords;
+
+        while ((position + ENTRY_HEADER_SIZE) <= length) {
+            segment.storage.read(position, entry, 0, ENTRY_HEADER_SIZE);
+            final int size = getEntrySize(entry[0]);
+            if ((size < 0) || ((position + size) > length)) {
+                break;
+            }
+
+            segment.storage.read(position, entry, 0, size);
+            if (readInt(entry, size - ENTRY_TRAILER_SIZE) != checksum(entry,
+                    size - ENTRY_TRAILER_SIZE)) {
+                break;
+            }
+
+            final int record = readInt(entry, 1);
+            if (record >= count) {
+                count = record + 1;
+                ensureCapacity(count);
+                if (deleted[0].length < ((count + 63) / 64)) {
+                    deleted[0] = Arrays.copyOf(deleted[0], Math.max(
+                            (count + 63) / 64, deleted[0].length * 2));
+                }
+            }
+
+            setLocation(record, getLocation(segment.id, position
+                    + ENTRY_HEADER_SIZE));
+            segment.live++;
+            segment.total++;
+            if (TOMBSTONE == entry[0]) {
+                deleted[0][record / 64] |= (1L << (record % 64));
+            } else {
+                deleted[0][record / 64] &= ~(1L << (record % 64));
+            }
+            position += size;
+        }
+
+        // records between the last record in the file & the created ones
+        for (int record = numRecords; record < count; record++) {
+            if (0 == locations[record]) {
+                deleted[0][record / 64] |= (1L << (record % 64));
+            }
+        }
+
+        if (position < length) {
+            logger.warning("truncating torn entry in " + segment.file);
+            segment.storage.setLength(position);
+        }
+        segment.length = position;
+
+        return count;
+    }
+
+
+    /**
+     * Closes the database after writing the latest version of each modified
+     * record back to the database-file, and removes the segments.
+     *
+     * @throws IOException
+     *             if an IO-error occurs while closing
+     */
+    @Override
+    public void close() throws IOException {
+
+        synchronized (mergeMonitor) {
+            closed = true;
+            mergeMonitor.notifyAll();
+        }
+        final boolean interrupted = joinUninterruptibly(merger);
+
+        final List<Segment> all = new ArrayList<Segment>(segments.values());
+        try {
+            sync.flush();
+            writeBack();
+        } finally {
+            try {
+                closeSegments(all);
+                if (null != format.getDictionary()) {
+                    format.getDictionary().close();
+                }
+            } finally {
+                base.close();
+                // restored after the files are closed, an interrupted
+                // thread would close their channels
+                if (interrupted) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+
+        for (Segment segment : all) {
+            deleteFile(segment.file);
+        }
+    }
+
+
+    /*
+     * Writes every record that has a newer version in a segment to the
+     * database-file, which is then forced before the segments are removed.
+     */
+    private void writeBack() throws IOException {
+
+        final byte[] buffer = new byte[recordLen];
+        final byte[] empty = format.createEmptyRecord();
+        int numWritten = 0;
+
+        empty[0] = 1; // deleted
+
+        for (int record = 0; record < recNos.getNumSlots(); record++) {
+            final long location = locations[record];
+            if (0 == getSegmentId(location)) {
+                continue;
+            }
+
+            final long position = getBasePosition(record);
+            if (!recNos.isDeleted(record)) {
+                readLocation(location, buffer);
+                base.write(position, buffer, 0, recordLen);
+            } else if (record < numBaseRecords) {
+                base.write(position, empty, 0, 1);
+            } else {
+                base.write(position, empty, 0, recordLen);
+            }
+            numWritten++;
+        }
+
+        base.force();
+        logger.info("wrote " + numWritten + " record(s) back to "
+                + databaseFile);
+    }
+
+
+    @Override
+    public long getModificationSequence() {
+        return sync.getModifiedSequence();
+    }
+
+
+    @Override
+    public void awaitDurable(long sequence) throws IOException {
+        sync.awaitDurable(sequence);
+    }
+
+
+    @Override
+    public long getCacheHits() {
+        return ((base instanceof PageCache)
+                ? ((PageCache) base).getHits() : 0);
+    }
+
+
+    @Override
+    public long getCacheMisses() {
+        return ((base instanceof PageCache)
+                ? ((PageCache) base).getMisses() : 0);
+    }
+
+
+    @Override
+    public DatabaseField[] getFields() {
+        return format.getFields();
+    }
+
+
+    /**
+     * Returns the layout of the records in the file.
+     *
+     * @return the <code>RecordFormat</code>
+     */
+    RecordFormat getFormat() {
+        return format;
+    }
+
+
+    @Override
+    public int getFormatVersion() {
+        return format.getVersion();
+    }
+
+
+    @Override
+    public int size() {
+        return numActiveRecords;
+    }
+
+
+    @Override
+    public int getNumRecords() {
+        return recNos.getNumSlots();
+    }
+
+
+    @Override
+    public boolean isDeleted(int record) {
+        return recNos.isDeleted(record);
+    }
+
+
+    /**
+     * Returns the number of segments, including the one being written.
+     *
+     * @return the number of segments
+     */
+    int getNumSegments() {
+        segmentLock.readLock().lock();
+        try {
+            return segments.size();
+        } finally {
+            segmentLock.readLock().unlock();
+        }
+    }
+
+
+    @Override
+    public void delete(int record) throws IOException {
+        verifyIndex(record);
+        append(TOMBSTONE, record, null);
+        recNos.free(record);
+        numActiveRecords = recNos.getNumActive();
+        sync.modified();
+    }
+
+
+    @Override
+    public int create(String[] data) throws IOException {
+        verifyFieldFormat(data);
+
+        final byte[] record = format.encode(data);
+        final int recNo = recNos.allocate();
+
+        try {
+            append(PUT, recNo, record);
+        } catch (IOException e) {
+            recNos.free(recNo);
+            throw e;
+        }
+
+        numActiveRecords = recNos.getNumActive();
+        sync.modified();
+        return recNo;
+    }
+
+
+    @Override
+    public String[] read(int record) throws IOException {
+        verifyIndex(record);
+
+        final byte[] buffer = readBuffer.get();
+        segmentLock.readLock().lock();
+        try {
+            readLocation(locations[record], buffer);
+        } finally {
+            segmentLock.readLock().unlock();
+        }
+
+        return format.decode(buffer, 0);
+    }
+
+
+    /**
+     * Visits every active record in the database. The database-file is read
+     * in large blocks, records with a newer version are read from their
+     * segment.
+     *
+     * @param visitor
+     *            the <code>RecordVisitor</code> to call for each record
+     * @throws IOException
+     *             on I/O-errors
+     */
+    @Override
+    public void scan(RecordVisitor visitor) throws IOException {
+
+        final int numRecords = recNos.getNumSlots();
+        final int recordsPerBlock = Math.max(1, Math.min(numBaseRecords,
+                SCAN_BUFFER_SIZE / recordLen));
+        final byte[] block = new byte[recordsPerBlock * recordLen];
+        final byte[] buffer = new byte[recordLen];
+        final ByteRecordView view = new ByteRecordView(format);
+
+        segmentLock.readLock().lock();
+        try {
+            for (int first = 0; first < numRecords;
+                    first += recordsPerBlock) {
+                final int count = Math.min(recordsPerBlock, numRecords
+                        - first);
+                if (first < numBaseRecords) {
+                    base.read(getBasePosition(first), block, 0, Math.min(
+                            count, numBaseRecords - first) * recordLen);
+                }
+
+                for (int i = 0; i < count; i++) {
+                    final int record = first + i;
+                    if (recNos.isDeleted(record)) {
+                        continue;
+                    }
+                    if (0 == getSegmentId(locations[record])) {
+                        view.reset(block, i * recordLen, record);
+                    } else {
+                        readLocation(locations[record], buffer);
+                        view.reset(buffer, 0, record);
+                    }
+                    if (!visitor.visit(view)) {
+                        return;
+                    }
+                }
+            }
+        } finally {
+            segmentLock.readLock().unlock();
+        }
+    }
+
+
+    @Override
+    public void write(int record, String[] data) throws IOException {
+        verifyIndex(record);
+        verifyFieldFormat(data);
+        append(PUT, record, format.encode(data));
+        sync.modified();
+    }
+
+
+    /**
+     * Merges the segments that are no longer written, after closing the
+     * current segment if it contains anything. Outdated entries are removed.
+     *
+     * @return <code>false</code> if there was nothing left to merge
+     * @throws IOException
+     *             on I/O-errors
+     */
+    @Override
+    public boolean compact() throws IOException {
+
+        boolean rolledOver = false;
+        segmentLock.writeLock().lock();
+        try {
+            if (active.length > SEGMENT_HEADER_SIZE) {
+                rollOver();
+                rolledOver = true;
+            }
+        } finally {
+            segmentLock.writeLock().unlock();
+        }
+
+        return (merge(1) || rolledOver);
+    }
+
+
+    @Override
+    public void verifyFieldFormat(String[] data) {
+        format.verify(data);
+    }
+
+
+    @Override
+    public String[] normalize(String[] data) {
+        format.verify(data);
+        return format.normalize(data);
+    }
+
+
+    /*
+     * Appends an entry to the current segment and points the record to it,
+     * a new segment is started when the current one is full.
+     */
+    private void append(byte operation, int record, byte[] data)
+            throws IOException {
+
+        final int size = getEntrySize(operation);
+        final byte[] entry = new byte[size];
+        entry[0] = operation;
+        writeInt(entry, 1, record);
+        if (PUT == operation) {
+            System.arraycopy(data, 0, entry, ENTRY_HEADER_SIZE, recordLen);
+        }
+        writeInt(entry, size - ENTRY_TRAILER_SIZE, checksum(entry, size
+                - ENTRY_TRAILER_SIZE));
+
+        segmentLock.writeLock().lock();
+        try {
+            active.storage.write(active.length, entry, 0, size);
+            ensureCapacity(record + 1);
+            setLocation(record, getLocation(active.id, active.length
+                    + ENTRY_HEADER_SIZE));
+            active.length += size;
+            active.live++;
+            active.total++;
+
+            if (active.length >= segmentSize) {
+                rollOver();
+            }
+        } finally {
+            segmentLock.writeLock().unlock();
+        }
+    }
+
+
+    /*
+     * Closes the current segment for writing and starts a new one. The old
+     * segment is forced first, so forcing the new segment covers every
+     * modification. Must be called with the segment write-lock held.
+     */
+    private void rollOver() throws IOException {
+        active.storage.force();
+        active = newSegment(active.id + 1);
+
+        synchronized (mergeMonitor) {
+            mergeRequested = true;
+            mergeMonitor.notifyAll();
+        }
+    }
+
+
+    /*
+     * Points a record to a new location, the segment holding the old one
+     * loses a live entry.
+     */
+    private void setLocation(int record, long location) {
+        final Segment old = segments.get(getSegmentId(locations[record]));
+        if (null != old) {
+            old.live--;
+        }
+        locations[record] = location;
+    }
+
+
+    /*
+     * Background thread, merging the closed segments when there are enough
+     * of them.
+     */
+    private void mergeInBackground() {
+        while (true) {
+            synchronized (mergeMonitor) {
+                while (!mergeRequested && !closed) {
+                    try {
+                        mergeMonitor.wait();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+                if (closed) {
+                    return;
+                }
+                mergeRequested = false;
+            }
+
+            try {
+                merge(MERGE_THRESHOLD);
+            } catch (IOException e) {
+                logger.log(Level.WARNING, "unable to merge segments", e);
+            }
+        }
+    }
+
+
+    /*
+     * Merges all the closed segments into one, if there are at least
+     * 'minSegments' of them, or if a single one contains outdated entries.
+     * The new segment is written without holding the segment-lock, since
+     * closed segments never change. The locations are switched afterwards,
+     * except for records that were modified in the mean time.
+     */
+    private boolean merge(int minSegments) throws IOException {
+
+        synchronized (mergeLock) {
+            final List<Segment> victims = new ArrayList<Segment>();
+            final int[] records;
+            final long[] oldLocations;
+            int numEntries = 0;
+
+            segmentLock.readLock().lock();
+            try {
+                int numEntriesTotal = 0;
+                for (Segment segment : segments.values()) {
+                    if (segment != active) {
+                        victims.add(segment);
+                        numEntriesTotal += segment.live;
+                    }
+                }
+                if (victims.isEmpty() || (victims.size() < minSegments)
+                        || ((1 == victims.size()) && !victims.get(0)
+                                .hasOutdated())) {
+                    return false;
+                }
+
+                records = new int[numEntriesTotal];
+                oldLocations = new long[numEntriesTotal];
+                for (int record = 0; record < recNos.getNumSlots();
+                        record++) {
+                    final Segment segment = segments.get(getSegmentId(
+                            locations[record]));
+                    if ((null != segment) && (segment != active)) {
+                        records[numEntries] = record;
+                        oldLocations[numEntries++] = locations[record];
+                    }
+                }
+            } finally {
+                segmentLock.readLock().unlock();
+            }
+
+            final Segment newest = victims.get(victims.size() - 1);
+            final File mergeFile = new File(newest.file.getPath()
+                    + MERGE_SUFFIX);
+            final long[] newLocations = writeMerged(mergeFile, newest.id,
+                    victims, oldLocations, numEntries);
+
+            segmentLock.writeLock().lock();
+            try {
+                int live = 0;
+                for (int i = 0; i < numEntries; i++) {
+                    if (locations[records[i]] == oldLocations[i]) {
+                        locations[records[i]] = newLocations[i];
+                        live++;
+                    }
+                }
+
+                // replace the newest segment first, the others only contain
+                // older versions once the merged segment is in place
+                closeSegments(victims);
+                deleteFile(newest.file);
+                if (!mergeFile.renameTo(newest.file)) {
+                    throw new IOException("unable to rename " + mergeFile);
+                }
+                for (Segment segment : victims) {
+                    segments.remove(segment.id);
+                    if (segment != newest) {
+                        deleteFile(segment.file);
+                    }
+                }
+
+                final Segment merged = openSegment(newest.file, false);
+                merged.length = merged.storage.length();
+                merged.live = live;
+                merged.total = numEntries;
+                segments.put(merged.id, merged);
+            } finally {
+                segmentLock.writeLock().unlock();
+            }
+
+            logger.fine("merged " + victims.size() + " segment(s), "
+                    + numEntries + " live entries");
+            return true;
+        }
+    }
+
+
+    /*
+     * Writes the latest entries of the closed segments to a new file, and
+     * returns their new locations.
+     */
+    private long[] writeMerged(File mergeFile, int id, List<Segment> victims,
+            long[] oldLocations, int numEntries) throws IOException {
+
+        // the segment-map may change while merging, the victims won't
+        final Map<Integer, Segment> sources = new HashMap<Integer, Segment>();
+        for (Segment segment : victims) {
+            sources.put(segment.id, segment);
+        }
+
+        final long[] newLocations = new long[numEntries];
+        final RandomAccessFile raf = new RandomAccessFile(mergeFile, "rw");
+        final RandomAccessFileStorage storage = new RandomAccessFileStorage(
+                raf);
+        final byte[] entry = new byte[ENTRY_HEADER_SIZE + recordLen
+                + ENTRY_TRAILER_SIZE];
+
+        try {
+            raf.setLength(0);
+            writeHeader(storage);
+            long position = SEGMENT_HEADER_SIZE;
+
+            for (int i = 0; i < numEntries; i++) {
+                final Segment segment = sources.get(getSegmentId(
+                        oldLocations[i]));
+                final long start = getOffset(oldLocations[i])
+                        - ENTRY_HEADER_SIZE;
+                segment.storage.read(start, entry, 0, ENTRY_HEADER_SIZE);
+                final int size = getEntrySize(entry[0]);
+                segment.storage.read(start, entry, 0, size);
+
+                storage.write(position, entry, 0, size);
+                newLocations[i] = getLocation(id, position
+                        + ENTRY_HEADER_SIZE);
+                position += size;
+            }
+
+            storage.force();
+        } catch (IOException e) {
+            storage.close();
+            deleteFile(mergeFile);
+            throw e;
+        }
+
+        storage.close();
+        return newLocations;
+    }
+
+
+    /*
+     * Creates a new, empty segment.
+     */
+    private Segment newSegment(int id) throws IOException {
+        final Segment segment = openSegment(getSegmentFile(id), synchronous);
+        segment.storage.setLength(0);
+        writeHeader(segment.storage);
+        segment.length = SEGMENT_HEADER_SIZE;
+        segments.put(id, segment);
+        return segment;
+    }
+
+
+    private Segment openSegment(File file, boolean synchronous)
+            throws IOException {
+
+        final String name = file.getName();
+        final int id = Integer.parseInt(name.substring(name.lastIndexOf(
+                SEGMENT_SUFFIX) + SEGMENT_SUFFIX.length()));
+        final RandomAccessFileStorage storage = new RandomAccessFileStorage(
+                new RandomAccessFile(file, synchronous ? "rws" : "rw"));
+
+        if (storage.length() > 0) {
+            final byte[] header = new byte[SEGMENT_HEADER_SIZE];
+            if (storage.length() >= SEGMENT_HEADER_SIZE) {
+                storage.read(0, header, 0, SEGMENT_HEADER_SIZE);
+            }
+            if ((MAGIC != readInt(header, 0))
+                    || (recordLen != readInt(header, 4))) {
+                storage.close();
+                throw new DatabaseException("invalid segment-file: " + file);
+            }
+        }
+
+        return new Segment(id, file, storage);
+    }
+
+
+    private void writeHeader(FileStorage storage) throws IOException {
+        final byte[] header = new byte[SEGMENT_HEADER_SIZE];
+        writeInt(header, 0, MAGIC);
+        writeInt(header, 4, recordLen);
+        storage.write(0, header, 0, header.length);
+    }
+
+
+    /*
+     * Finishes merges interrupted by a crash: a merged file replaces its
+     * segment if that segment is gone, otherwise the merge never completed
+     * and the merged file is removed.
+     */
+    private static File[] recoverMerges(File[] files) {
+        final List<File> tmp = new ArrayList<File>();
+        for (File file : files) {
+            if (file.getName().endsWith(MERGE_SUFFIX)) {
+                final File segment = new File(file.getPath().substring(0,
+                        file.getPath().length() - MERGE_SUFFIX.length()));
+                if (segment.exists()) {
+                    deleteFile(file);
+                } else if (file.renameTo(segment)) {
+                    tmp.add(segment);
+                }
+            } else {
+                tmp.add(file);
+            }
+        }
+        return tmp.toArray(new File[tmp.size()]);
+    }
+
+
+    private static File[] listSegments(File databaseFile) {
+        final String prefix = databaseFile.getName() + SEGMENT_SUFFIX;
+        final File dir = databaseFile.getAbsoluteFile().getParentFile();
+        final File[] files = dir.listFiles(new FilenameFilter() {
+            @Override
+            public boolean accept(File dir, String name) {
+                return name.startsWith(prefix) && name.substring(
+                        prefix.length()).replace(MERGE_SUFFIX, "")
+                        .matches("[0-9]+");
+            }
+        });
+        return ((null == files) ? new File[0] : files);
+    }
+
+
+    private File getSegmentFile(int id) {
+        return new File(databaseFile.getPath() + SEGMENT_SUFFIX + id);
+    }
+
+
+    private void readLocation(long location, byte[] buffer)
+            throws IOException {
+        final int id = getSegmentId(location);
+        if (0 == id) {
+            base.read(getOffset(location), buffer, 0, recordLen);
+        } else {
+            segments.get(id).storage.read(getOffset(location), buffer, 0,
+                    recordLen);
+        }
+    }
+
+
+    private void ensureCapacity(int numRecords) {
+        if (numRecords > locations.length) {
+            locations = Arrays.copyOf(locations, Math.max(numRecords,
+                    locations.length * 2));
+        }
+    }
+
+
+    private void verifyIndex(int record) {
+        final int size = getNumRecords();
+        if ((record < 0) || (record >= size)) {
+            throw new IndexOutOfBoundsException("index out-of-bounds, "
+                    + record + ", size=" + size);
+        }
+    }
+
+
+    private long getBasePosition(int record) {
+        return (recordStart + ((long) recordLen * record));
+    }
+
+
+    private int getEntrySize(byte operation) {
+        switch (operation) {
+            case PUT:
+                return ENTRY_HEADER_SIZE + recordLen + ENTRY_TRAILER_SIZE;
+            case TOMBSTONE:
+                return ENTRY_HEADER_SIZE + ENTRY_TRAILER_SIZE;
+            default:
+                return -1;
+        }
+    }
+
+
+    private static long getLocation(int id, long offset) {
+        return (((long) id << OFFSET_BITS) | offset);
+    }
+
+
+    private static int getSegmentId(long location) {
+        return (int) (location >>> OFFSET_BITS);
+    }
+
+
+    private static long getOffset(long location) {
+        return (location & OFFSET_MASK);
+    }
+
+
+    private static int checksum(byte[] buffer, int length) {
+        final CRC32 crc = new CRC32();
+        crc.update(buffer, 0, length);
+        return (int) crc.getValue();
+    }
+
+
+    private static int readInt(byte[] buffer, int offset) {
+        return (((buffer[offset] & 0xff) << 24)
+                | ((buffer[offset + 1] & 0xff) << 16)
+                | ((buffer[offset + 2] & 0xff) << 8)
+                | (buffer[offset + 3] & 0xff));
+    }
+
+
+    private static void writeInt(byte[] buffer, int offset, int value) {
+        buffer[offset]     = (byte) (value >>> 24);
+        buffer[offset + 1] = (byte) (value >>> 16);
+        buffer[offset + 2] = (byte) (value >>> 8);
+        buffer[offset + 3] = (byte) value;
+    }
+
+
+    private static void closeSegments(List<Segment> segments)
+            throws IOException {
+        IOException failure = null;
+        for (Segment segment : segments) {
+            try {
+                segment.storage.close();
+            } catch (IOException e) {
+                failure = e;
+            }
+        }
+        if (null != failure) {
+            throw failure;
+        }
+    }
+
+
+    private static void deleteFile(File file) {
+        if (file.exists() && !file.delete()) {
+            file.deleteOnExit();
+        }
+    }
+
+
+    /*
+     * Returns true if the thread was interrupted, the caller must restore
+     * the interrupt-flag.
+     */
+    private static boolean joinUninterruptibly(Thread thread) {
+        boolean interrupted = false;
+        while (thread.isAlive()) {
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        return interrupted;
+    }
+
+
+    /*
+     * A segment-file, and the number of entries in it that are still the
+     * latest version of their record.
+     */
+    private static final class Segment {
+
+        final int                     id;
+        final File                    file;
+        final RandomAccessFileStorage storage;
+        long                          length;
+        int                           live;
+        int                           total;
+
+
+        Segment(int id, File file, RandomAccessFileStorage storage) {
+            this.id = id;
+            this.file = file;
+            this.storage = storage;
+        }
+
+
+        boolean hasOutdated() {
+            return (live < total);
+        }
+    }
+
+
+    /*
+     * The storage forced by the SyncCoordinator, always the current segment.
+     * Older segments are forced when they're closed for writing.
+     */
+    private final class ActiveStorage implements FileStorage {
+
+        @Override
+        public long length() throws IOException {
+            return active.storage.length();
+        }
+
+
+        @Override
+        public void read(long position, byte[] buffer, int offset,
+                int length) throws IOException {
+            active.storage.read(position, buffer, offset, length);
+        }
+
+
+        @Override
+        public void write(long position, byte[] buffer, int offset,
+                int length) throws IOException {
+            active.storage.write(position, buffer, offset, length);
+        }
+
+
+        @Override
+        public void setLength(long length) throws IOException {
+            active.storage.setLength(length);
+        }
+
+
+        @Override
+        public void force() throws IOException {
+            active.storage.force();
+        }
+
+
+        @Override
+        public void close() throws IOException {
+            active.storage.close();
+        }
+    }
+}
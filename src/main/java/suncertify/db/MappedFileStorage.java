@@ -0,0 +1,176 @@
+package suncertify.db;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+
+/**
+ * <code>FileStorage</code> that maps the database-file into memory. The file
+ * is mapped as a number of regions, since a single
+ * <code>MappedByteBuffer</code> can't address more than 2GB. The last region
+ * is re-mapped when the file grows. <br/>
+ * <br/>
+ * When created as synchronous, modified regions are forced to disk after each
+ * write, which gives the same guarantees as a file opened in 'rws' mode.
+ * Otherwise modifications are only forced by <code>force()</code>. <br/>
+ * <br/>
+ * NOTE: the mapping is released by the garbage-collector, not by
+ * <code>close()</code>.
+ *
+ * @author Lars Hvile
+ * @see StorageMode#MEMORY_MAPPED
+ */
+final class MappedFileStorage implements FileStorage {
+
+    // size of a mapped region, must be a power of two
+    private static final int REGION_SHIFT = 30;
+    private static final long REGION_SIZE = 1L << REGION_SHIFT;
+
+    private final RandomAccessFile file;
+    private final FileChannel      channel;
+    private final boolean          synchronous;
+    private volatile MappedByteBuffer[] regions;
+    private long                   length;
+
+
+    /**
+     * Class-constructor, maps the entire file.
+     *
+     * @param file
+     *            an open <code>RandomAccessFile</code>
+     * @param synchronous
+     *            <code>true</code> if each write should be forced to disk
+     * @throws IOException
+     *             on I/O-errors
+     */
+    MappedFileStorage(RandomAccessFile file, boolean synchronous)
+            throws IOException {
+        this.file = file;
+        this.channel = file.getChannel();
+        this.synchronous = synchronous;
+        this.regions = new MappedByteBuffer[0];
+        map(file.length());
+    }
+
+
+    /*
+     * Maps the file up to a given length, re-mapping the last region if it
+     * has grown. Regions before the last one are always full-sized, and are
+     * never re-mapped.
+     */
+    private void map(long newLength) throws IOException {
+
+        final int numRegions = (int) ((newLength + REGION_SIZE - 1)
+                >>> REGION_SHIFT);
+        final int firstRemapped = Math.max(0, regions.length - 1);
+        final MappedByteBuffer[] tmp = Arrays.copyOf(regions, numRegions);
+
+        for (int i = firstRemapped; i < numRegions; i++) {
+            final long start = ((long) i) << REGION_SHIFT;
+            tmp[i] = channel.map(FileChannel.MapMode.READ_WRITE, start, Math
+                    .min(REGION_SIZE, newLength - start));
+        }
+
+        regions = tmp;
+        length = newLength;
+    }
+
+
+    @Override
+    public long length() {
+        return length;
+    }
+
+
+    @Override
+    public void read(long position, byte[] buffer, int offset, int length)
+            throws IOException {
+
+        verifyRange(position, length);
+
+        int done = 0;
+        while (done < length) {
+            final ByteBuffer src = region(position + done).duplicate();
+            src.position(offset(position + done));
+
+            final int chunk = Math.min(length - done, src.remaining());
+            src.get(buffer, offset + done, chunk);
+            done += chunk;
+        }
+    }
+
+
+    @Override
+    public void write(long position, byte[] buffer, int offset, int length)
+            throws IOException {
+
+        if ((position + length) > this.length) {
+            file.setLength(position + length);
+            map(position + length);
+        }
+
+        int done = 0;
+        while (done < length) {
+            final MappedByteBuffer region = region(position + done);
+            final ByteBuffer dst = region.duplicate();
+            dst.position(offset(position + done));
+
+            final int chunk = Math.min(length - done, dst.remaining());
+            dst.put(buffer, offset + done, chunk);
+            if (synchronous) {
+                region.force();
+            }
+            done += chunk;
+        }
+    }
+
+
+    @Override
+    public void setLength(long newLength) throws IOException {
+        file.setLength(newLength);
+        if (newLength < length) {
+            regions = new MappedByteBuffer[0]; // the old regions are too long
+        }
+        map(newLength);
+    }
+
+
+    @Override
+    public void force() throws IOException {
+        for (MappedByteBuffer region : regions) {
+            region.force();
+        }
+        channel.force(true); // the file's length
+    }
+
+
+    @Override
+    public void close() throws IOException {
+        regions = new MappedByteBuffer[0];
+        length = 0;
+        file.close();
+    }
+
+
+    private MappedByteBuffer region(long position) {
+        return regions[(int) (position >>> REGION_SHIFT)];
+    }
+
+
+    private static int offset(long position) {
+        return (int) (position & (REGION_SIZE - 1));
+    }
+
+
+    private void verifyRange(long position, int count) throws EOFException {
+        if ((position < 0) || ((position + count) > length)) {
+            throw new EOFException("attempting to read beyond eof, position="
+                    + position + ", length=" + length);
+        }
+    }
+}
@@ -0,0 +1,398 @@
+package suncertify.db;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+
+/**
+ * <code>StorageEngine</code> that keeps every record in memory, without any
+ * file being open. The records are loaded from a database-file, and may be
+ * written back to a database-file with <code>snapshot()</code>. Nothing is
+ * written when the store is closed, so modifications that aren't snapshotted
+ * are lost. <br/>
+ * <br/>
+ * The records are stored in a single <code>byte[]</code>, in the same layout
+ * as the file, except that dictionary-encoded fields are stored as text.
+ * Usage:
+ *
+ * <pre>
+ * final MemoryStore store = MemoryStore.load(databaseFile);
+ * final Data db = new Data(store);
+ * ...
+ * store.snapshot(databaseFile);
+ * </pre>
+ *
+ * Thread-safety is the same as for any other <code>StorageEngine</code>,
+ * except that <code>snapshot()</code> may be called at any time.
+ *
+ * @author Lars Hvile
+ */
+public final class MemoryStore implements StorageEngine, FormattedStorage {
+
+    private static final int INITIAL_CAPACITY = 64;
+
+    private final RecordFormat  fileFormat;    // format of the source-file
+    private final RecordFormat  format;        // format of the records here
+    private final int           recordLen;
+    private final File          source;
+    private final SlotAllocator recNos;
+    private byte[]              records;
+    private volatile int        numActiveRecords;
+
+
+    /*
+     * Private constructor for the factory-method.
+     */
+    private MemoryStore(RecordFormat fileFormat, File source,
+            long[] deleted, byte[] records, int numRecords) {
+        this.fileFormat = fileFormat;
+        this.format = new RecordFormat(fileFormat.getVersion(), fileFormat
+                .getFields());
+        this.recordLen = format.getRecordLength();
+        this.source = source;
+        this.recNos = new SlotAllocator(deleted, numRecords);
+        this.records = records;
+        this.numActiveRecords = recNos.getNumActive();
+    }
+
+
+    /**
+     * Loads every record of a database-file into memory. The file is opened
+     * the same way as by <code>Data</code>, and closed before returning.
+     *
+     * @param databaseFile
+     *            the database-file to load
+     * @return the <code>MemoryStore</code>
+     * @throws FileNotFoundException
+     *             if the file doesn't exist, or isn't writable
+     * @throws DatabaseException
+     *             if the file isn't recognized as a valid database-file
+     * @throws IOException
+     *             on I/O-errors
+     */
+    public static MemoryStore load(File databaseFile)
+            throws FileNotFoundException, IOException {
+
+        final DataFileAccess access = DataFileAccess.create(databaseFile,
+                new DataOptions());
+
+        try {
+            final RecordFormat fileFormat = access.getFormat();
+            final RecordFormat format = new RecordFormat(fileFormat
+                    .getVersion(), fileFormat.getFields());
+            final int recordLen = format.getRecordLength();
+            final int numRecords = access.getNumRecords();
+            final long[] deleted = new long[(numRecords + 63) / 64];
+            final byte[] records = new byte[Math.max(INITIAL_CAPACITY,
+                    numRecords) * recordLen];
+
+            for (int record = 0; record < numRecords; record++) {
+                final byte[] tmp;
+                if (access.isDeleted(record)) {
+                    deleted[record / 64] |= (1L << (record % 64));
+                    tmp = format.createEmptyRecord();
+                    tmp[0] = 1;
+                } else {
+                    tmp = format.encode(access.read(record));
+                }
+                System.arraycopy(tmp, 0, records, record * recordLen,
+                        recordLen);
+            }
+
+            return new MemoryStore(fileFormat.withDictionary(null),
+                    databaseFile, deleted, records, numRecords);
+        } finally {
+            access.close();
+        }
+    }
+
+
+    /**
+     * Writes the records to a database-file, replacing the file if it
+     * exists. The file is written in the format of the file the records were
+     * loaded from, deleted records included, so the record-numbers are the
+     * same when the file is opened. The records are copied before writing,
+     * so the store may be modified while the snapshot is written.
+     *
+     * @param target
+     *            the database-file to write, must not be open
+     * @throws DatabaseException
+     *             if the target has a write-ahead log or segments that
+     *             haven't been recovered
+     * @throws IOException
+     *             on I/O-errors
+     */
+    public void snapshot(File target) throws IOException {
+
+        if ((new File(target.getPath() + DataFileAccess.LOG_SUFFIX).length()
+                > 0) || LogStructuredStore.hasSegments(target)) {
+            throw new DatabaseException("the database must be recovered "
+                    + "before it's replaced: " + target);
+        }
+
+        final byte[] copy;
+        final int numRecords;
+        synchronized (this) {
+            numRecords = recNos.getNumSlots();
+            copy = Arrays.copyOf(records, numRecords * recordLen);
+        }
+
+        final File tmpFile = new File(target.getPath() + ".tmp");
+        writeSnapshot(tmpFile, target, copy, numRecords);
+
+        // the summary of the old file doesn't describe the new one
+        RecordSummary.markDirty(new File(target.getPath()
+                + DataFileAccess.SUMMARY_SUFFIX));
+        // the rename replaces the target on most platforms, the target is
+        // only deleted first where it doesn't
+        if (!tmpFile.renameTo(target)
+                && (!target.delete() || !tmpFile.renameTo(target))) {
+            throw new IOException("unable to replace " + target);
+        }
+    }
+
+
+    private void writeSnapshot(File tmpFile, File target, byte[] copy,
+            int numRecords) throws IOException {
+
+        final FileOutputStream file = new FileOutputStream(tmpFile);
+        FieldDictionary dictionary = null;
+
+        try {
+            if (fileFormat.hasDictionary()) {
+                dictionary = FieldDictionary.open(new File(target.getPath()
+                        + DataFileAccess.DICTIONARY_SUFFIX), fileFormat
+                        .getFieldCount());
+            }
+
+            final RecordFormat to = fileFormat.withDictionary(dictionary);
+            final DataOutputStream out = new DataOutputStream(
+                    new BufferedOutputStream(file));
+            to.write(out);
+
+            for (int record = 0; record < numRecords; record++) {
+                final int offset = record * recordLen;
+                if (null == dictionary) {
+                    out.write(copy, offset, recordLen);
+                } else if (0 != copy[offset]) {
+                    final byte[] tmp = to.createEmptyRecord();
+                    tmp[0] = copy[offset];
+                    out.write(tmp);
+                } else {
+                    out.write(to.encode(format.decode(copy, offset)));
+                }
+            }
+
+            out.flush();
+            file.getFD().sync();
+        } catch (IOException e) {
+            closeAfterFailure(file, tmpFile);
+            throw e;
+        } catch (RuntimeException e) {
+            closeAfterFailure(file, tmpFile);
+            throw e;
+        } finally {
+            if (null != dictionary) {
+                dictionary.close();
+            }
+        }
+
+        file.close();
+    }
+
+
+    private static void closeAfterFailure(FileOutputStream file,
+            File tmpFile) throws IOException {
+        try {
+            file.close();
+        } finally {
+            if (tmpFile.exists() && !tmpFile.delete()) {
+                tmpFile.deleteOnExit();
+            }
+        }
+    }
+
+
+    /**
+     * Does nothing, the records are simply discarded.
+     */
+    @Override
+    public void close() {
+    }
+
+
+    /**
+     * Always 0, modifications are never persisted.
+     *
+     * @return 0
+     */
+    @Override
+    public long getModificationSequence() {
+        return 0;
+    }
+
+
+    /**
+     * Returns immediately, modifications are never persisted.
+     *
+     * @param sequence
+     *            ignored
+     */
+    @Override
+    public void awaitDurable(long sequence) {
+    }
+
+
+    @Override
+    public long getCacheHits() {
+        return 0;
+    }
+
+
+    @Override
+    public long getCacheMisses() {
+        return 0;
+    }
+
+
+    @Override
+    public DatabaseField[] getFields() {
+        return format.getFields();
+    }
+
+
+    /**
+     * Returns the layout of the records in the file they were loaded from.
+     *
+     * @return the <code>RecordFormat</code>
+     */
+    RecordFormat getFormat() {
+        return fileFormat;
+    }
+
+
+    @Override
+    public int getFormatVersion() {
+        return fileFormat.getVersion();
+    }
+
+
+    @Override
+    public int size() {
+        return numActiveRecords;
+    }
+
+
+    @Override
+    public int getNumRecords() {
+        return recNos.getNumSlots();
+    }
+
+
+    @Override
+    public boolean isDeleted(int record) {
+        return recNos.isDeleted(record);
+    }
+
+
+    @Override
+    public synchronized void delete(int record) {
+        verifyIndex(record);
+        records[record * recordLen] = 1;
+        recNos.free(record);
+        numActiveRecords = recNos.getNumActive();
+    }
+
+
+    @Override
+    public synchronized int create(String[] data) throws IOException {
+        verifyFieldFormat(data);
+        final byte[] tmp = format.encode(data);
+        final int recNo = recNos.allocate();
+
+        if (((recNo + 1) * recordLen) > records.length) {
+            records = Arrays.copyOf(records, records.length * 2);
+        }
+        System.arraycopy(tmp, 0, records, recNo * recordLen, recordLen);
+        numActiveRecords = recNos.getNumActive();
+
+        return recNo;
+    }
+
+
+    @Override
+    public String[] read(int record) {
+        verifyIndex(record);
+        return format.decode(records, record * recordLen);
+    }
+
+
+    @Override
+    public void scan(RecordVisitor visitor) {
+        final ByteRecordView view = new ByteRecordView(format);
+        final int numRecords = recNos.getNumSlots();
+
+        for (int record = 0; record < numRecords; record++) {
+            if (!recNos.isDeleted(record)) {
+                view.reset(records, record * recordLen, record);
+                if (!visitor.visit(view)) {
+                    return;
+                }
+            }
+        }
+    }
+
+
+    @Override
+    public synchronized void write(int record, String[] data)
+            throws IOException {
+        verifyIndex(record);
+        verifyFieldFormat(data);
+        final byte[] tmp = format.encode(data);
+        System.arraycopy(tmp, 0, records, record * recordLen, recordLen);
+    }
+
+
+    /**
+     * Does nothing, deleted records are reused by <code>create()</code>.
+     *
+     * @return <code>false</code>
+     */
+    @Override
+    public boolean compact() {
+        return false;
+    }
+
+
+    @Override
+    public void verifyFieldFormat(String[] data) {
+        format.verify(data);
+    }
+
+
+    @Override
+    public String[] normalize(String[] data) {
+        format.verify(data);
+        return format.normalize(data);
+    }
+
+
+    private void verifyIndex(int record) {
+        final int size = getNumRecords();
+        if ((record < 0) || (record >= size)) {
+            throw new IndexOutOfBoundsException("index out-of-bounds, "
+                    + record + ", size=" + size);
+        }
+    }
+
+
+    @Override
+    public String toString() {
+        return ("MemoryStore, loaded from " + source);
+    }
+}
@@ -0,0 +1,442 @@
+package suncertify.db;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+
+/**
+ * <code>FileStorage</code> decorator that keeps a bounded number of pages of
+ * the underlying storage in memory. A page holds a fixed number of records,
+ * and pages are evicted using the CLOCK (second-chance) algorithm: a page
+ * that has been hit since the clock-hand passed it last is skipped once. New
+ * pages start without the second chance, so a full scan doesn't push the hot
+ * records out of the cache. <br/>
+ * <br/>
+ * Writes go through to the underlying storage, and update the pages that are
+ * cached. Like any <code>FileStorage</code> reads may run in parallel, pages
+ * missing from the cache are loaded outside of the cache's monitor. <br/>
+ * <br/>
+ * The pages are either kept in <code>byte[]</code>s on the heap, or in large
+ * direct <code>ByteBuffer</code>s (slabs) outside of it. A large off-heap cache
+ * doesn't add to the work of the garbage-collector, the slabs are a handful of
+ * objects no matter how many pages they hold.
+ *
+ * @author Lars Hvile
+ */
+final class PageCache implements FileStorage {
+
+    private final FileStorage storage;
+    private final long        base;          // position of the first page
+    private final int         pageSize;
+    private final int         maxFrames;
+
+    private final Frames      frames;
+    private final int[]       framePages;    // page in each frame
+    private final int[]       frameLengths;  // valid bytes in each frame
+    private final boolean[]   referenced;
+    private int[]             pageFrames = new int[0]; // -1 if not cached
+    private int               numFrames;
+    private int               hand;
+    private long              hits;
+    private long              misses;
+
+    // per-thread buffer used when loading pages
+    private final ThreadLocal<byte[]> loadBuffer = new ThreadLocal<byte[]>() {
+        @Override protected byte[] initialValue() {
+            return new byte[pageSize];
+        }
+    };
+
+
+    /**
+     * Class-constructor.
+     *
+     * @param storage
+     *            the underlying <code>FileStorage</code>
+     * @param base
+     *            position of the first page, anything before it isn't cached
+     * @param pageSize
+     *            number of bytes / page
+     * @param budget
+     *            max number of bytes used by the cached pages, at least one
+     *            page is always cached
+     */
+    PageCache(FileStorage storage, long base, int pageSize, long budget) {
+        this(storage, base, pageSize, budget, false);
+    }
+
+
+    /**
+     * Class-constructor.
+     *
+     * @param storage
+     *            the underlying <code>FileStorage</code>
+     * @param base
+     *            position of the first page, anything before it isn't cached
+     * @param pageSize
+     *            number of bytes / page
+     * @param budget
+     *            max number of bytes used by the cached pages, at least one
+     *            page is always cached
+     * @param offHeap
+     *            <code>true</code> to keep the pages in direct
+     *            <code>ByteBuffer</code>s
+     */
+    PageCache(FileStorage storage, long base, int pageSize, long budget,
+            boolean offHeap) {
+        this.storage = storage;
+        this.base = base;
+        this.pageSize = pageSize;
+        this.maxFrames = (int) Math.max(1, Math.min(Integer.MAX_VALUE,
+                budget / pageSize));
+        this.frames = (offHeap ? new DirectFrames(pageSize, maxFrames)
+                : new HeapFrames(pageSize, maxFrames));
+        this.framePages = new int[maxFrames];
+        this.frameLengths = new int[maxFrames];
+        this.referenced = new boolean[maxFrames];
+    }
+
+
+    /**
+     * Returns the number of reads served from the cache.
+     *
+     * @return the number of hits
+     */
+    synchronized long getHits() {
+        return hits;
+    }
+
+
+    /**
+     * Returns the number of reads that had to load a page.
+     *
+     * @return the number of misses
+     */
+    synchronized long getMisses() {
+        return misses;
+    }
+
+
+    @Override
+    public long length() throws IOException {
+        return storage.length();
+    }
+
+
+    @Override
+    public void read(long position, byte[] buffer, int offset, int length)
+            throws IOException {
+
+        if (position < base) {
+            storage.read(position, buffer, offset, length);
+            return;
+        }
+
+        int done = 0;
+        while (done < length) {
+            final long rel    = position + done - base;
+            final int  page   = (int) (rel / pageSize);
+            final int  inPage = (int) (rel % pageSize);
+            final int  count  = Math.min(length - done, pageSize - inPage);
+
+            readPage(page, inPage, buffer, offset + done, count);
+            done += count;
+        }
+    }
+
+
+    private void readPage(int page, int inPage, byte[] buffer, int offset,
+            int length) throws IOException {
+
+        synchronized (this) {
+            final int frame = getFrame(page);
+            if ((-1 != frame) && ((inPage + length) <= frameLengths[frame])) {
+                frames.get(frame, inPage, buffer, offset, length);
+                referenced[frame] = true;
+                hits++;
+                return;
+            }
+            misses++;
+        }
+
+        final byte[] tmp = loadBuffer.get();
+        final long pageStart = base + ((long) page * pageSize);
+        final int pageLen = (int) Math.max(0, Math.min(pageSize, storage
+                .length() - pageStart));
+
+        if ((inPage + length) > pageLen) {
+            throw new EOFException("attempting to read beyond eof, "
+                    + "position=" + (pageStart + inPage));
+        }
+
+        storage.read(pageStart, tmp, 0, pageLen);
+        System.arraycopy(tmp, inPage, buffer, offset, length);
+
+        synchronized (this) {
+            install(page, tmp, pageLen);
+        }
+    }
+
+
+    @Override
+    public void write(long position, byte[] buffer, int offset, int length)
+            throws IOException {
+
+        storage.write(position, buffer, offset, length);
+
+        synchronized (this) {
+            for (int done = Math.max(0, (int) (base - position));
+                    done < length;) {
+                final long rel    = position + done - base;
+                final int  page   = (int) (rel / pageSize);
+                final int  inPage = (int) (rel % pageSize);
+                final int  count  = Math.min(length - done, pageSize - inPage);
+
+                update(page, inPage, buffer, offset + done, count);
+                done += count;
+            }
+        }
+    }
+
+
+    /*
+     * Applies a write to a cached page, a write that would leave a gap in
+     * the page simply drops it from the cache.
+     */
+    private void update(int page, int inPage, byte[] buffer, int offset,
+            int length) {
+
+        final int frame = getFrame(page);
+        if (-1 == frame) {
+            return;
+        } else if (inPage > frameLengths[frame]) {
+            pageFrames[page] = -1;
+            framePages[frame] = -1;
+            frameLengths[frame] = 0;
+        } else {
+            frames.put(frame, inPage, buffer, offset, length);
+            frameLengths[frame] = Math.max(frameLengths[frame], inPage
+                    + length);
+        }
+    }
+
+
+    @Override
+    public void setLength(long length) throws IOException {
+
+        storage.setLength(length);
+
+        synchronized (this) {
+            for (int frame = 0; frame < numFrames; frame++) {
+                if (-1 == framePages[frame]) {
+                    continue;
+                }
+                final long pageStart = base + ((long) framePages[frame]
+                        * pageSize);
+                final long valid = Math.max(0, length - pageStart);
+                if (valid < frameLengths[frame]) {
+                    frameLengths[frame] = (int) valid;
+                }
+            }
+        }
+    }
+
+
+    @Override
+    public void force() throws IOException {
+        storage.force();
+    }
+
+
+    @Override
+    public void close() throws IOException {
+        synchronized (this) {
+            frames.release();
+            pageFrames = new int[0];
+            numFrames = 0;
+        }
+        storage.close();
+    }
+
+
+    private int getFrame(int page) {
+        return ((page < pageFrames.length) ? pageFrames[page] : -1);
+    }
+
+
+    /*
+     * Puts a loaded page into the cache, another thread may have loaded the
+     * same page in the mean time.
+     */
+    private void install(int page, byte[] content, int length) {
+
+        int frame = getFrame(page);
+
+        if (-1 == frame) {
+            frame = nextVictim();
+            if (-1 != framePages[frame]) {
+                pageFrames[framePages[frame]] = -1;
+            }
+
+            if (page >= pageFrames.length) {
+                final int oldLength = pageFrames.length;
+                pageFrames = Arrays.copyOf(pageFrames, Math.max(page + 1,
+                        oldLength * 2));
+                Arrays.fill(pageFrames, oldLength, pageFrames.length, -1);
+            }
+
+            pageFrames[page] = frame;
+            framePages[frame] = page;
+            referenced[frame] = false;
+        }
+
+        frames.put(frame, 0, content, 0, length);
+        frameLengths[frame] = length;
+    }
+
+
+    /*
+     * Returns the frame to use for a new page. Frames are allocated until the
+     * budget is reached, after that the clock-hand selects the first frame
+     * that hasn't been referenced since the last time it was passed.
+     */
+    private int nextVictim() {
+
+        if (numFrames < maxFrames) {
+            frames.allocate(numFrames);
+            framePages[numFrames] = -1;
+            return numFrames++;
+        }
+
+        while (referenced[hand]) {
+            referenced[hand] = false;
+            hand = (hand + 1) % maxFrames;
+        }
+
+        final int victim = hand;
+        hand = (hand + 1) % maxFrames;
+        return victim;
+    }
+
+
+    /*
+     * Storage of the frames' contents, only accessed while holding the
+     * cache's monitor.
+     */
+    private interface Frames {
+
+        void allocate(int frame);
+
+        void get(int frame, int inPage, byte[] buffer, int offset,
+                int length);
+
+        void put(int frame, int inPage, byte[] buffer, int offset,
+                int length);
+
+        void release();
+    }
+
+
+    /*
+     * A byte[] per frame.
+     */
+    private static final class HeapFrames implements Frames {
+
+        private final int      pageSize;
+        private final byte[][] frames;
+
+
+        HeapFrames(int pageSize, int maxFrames) {
+            this.pageSize = pageSize;
+            this.frames = new byte[maxFrames][];
+        }
+
+
+        @Override
+        public void allocate(int frame) {
+            frames[frame] = new byte[pageSize];
+        }
+
+
+        @Override
+        public void get(int frame, int inPage, byte[] buffer, int offset,
+                int length) {
+            System.arraycopy(frames[frame], inPage, buffer, offset, length);
+        }
+
+
+        @Override
+        public void put(int frame, int inPage, byte[] buffer, int offset,
+                int length) {
+            System.arraycopy(buffer, offset, frames[frame], inPage, length);
+        }
+
+
+        @Override
+        public void release() {
+            Arrays.fill(frames, null);
+        }
+    }
+
+
+    /*
+     * Frames packed into direct ByteBuffers of about SLAB_SIZE bytes, which
+     * are allocated as the frames are needed.
+     */
+    private static final class DirectFrames implements Frames {
+
+        private static final int SLAB_SIZE = 1024 * 1024;
+
+        private final int          pageSize;
+        private final int          maxFrames;
+        private final int          framesPerSlab;
+        private final ByteBuffer[] slabs;
+
+
+        DirectFrames(int pageSize, int maxFrames) {
+            this.pageSize = pageSize;
+            this.maxFrames = maxFrames;
+            this.framesPerSlab = Math.max(1, SLAB_SIZE / pageSize);
+            this.slabs = new ByteBuffer[(maxFrames + framesPerSlab - 1)
+                    / framesPerSlab];
+        }
+
+
+        @Override
+        public void allocate(int frame) {
+            final int slab = frame / framesPerSlab;
+            if (null == slabs[slab]) {
+                // the last slab only holds the remaining frames
+                final int numFrames = Math.min(framesPerSlab, maxFrames
+                        - (slab * framesPerSlab));
+                slabs[slab] = ByteBuffer.allocateDirect(numFrames * pageSize);
+            }
+        }
+
+
+        @Override
+        public void get(int frame, int inPage, byte[] buffer, int offset,
+                int length) {
+            final ByteBuffer slab = slabs[frame / framesPerSlab];
+            slab.position(((frame % framesPerSlab) * pageSize) + inPage);
+            slab.get(buffer, offset, length);
+        }
+
+
+        @Override
+        public void put(int frame, int inPage, byte[] buffer, int offset,
+                int length) {
+            final ByteBuffer slab = slabs[frame / framesPerSlab];
+            slab.position(((frame % framesPerSlab) * pageSize) + inPage);
+            slab.put(buffer, offset, length);
+        }
+
+
+        @Override
+        public void release() {
+            Arrays.fill(slabs, null);
+        }
+    }
+}
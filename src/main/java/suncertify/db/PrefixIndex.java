@@ -0,0 +1,220 @@
+package suncertify.db;
+
+import java.util.Arrays;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+
+/**
+ * In-memory index of a field's values, used by <code>Data</code> to answer
+ * case-insensitive prefix-criteria without scanning the database. The
+ * lower-cased values are kept in sorted order, each with a posting-list of
+ * the records having that value, so the values starting with a prefix are a
+ * single range found by binary search. <br/>
+ * <br/>
+ * Values are lower-cased the same way as
+ * <code>RecordView.startsWithIgnoreCase()</code> compares them. Prefixes
+ * with characters outside the 7-bit range are still compared against the
+ * records, see <code>isSupported()</code>. <br/>
+ * <br/>
+ * The index is built when the database is opened, and updated after every
+ * modification. Instances aren't thread-safe, <code>Data</code> guards it
+ * with its state-lock.
+ *
+ * @author Lars Hvile
+ */
+final class PrefixIndex {
+
+    private static final int[] EMPTY = new int[0];
+
+    // lower-cased value -> sorted record-ids
+    private final TreeMap<String, int[]> postings
+            = new TreeMap<String, int[]>();
+
+
+    /**
+     * Checks if a prefix can be answered by the index.
+     *
+     * @param prefix
+     *            the prefix
+     * @return <code>true</code> if <code>find()</code> can be used
+     */
+    static boolean isSupported(String prefix) {
+        for (int i = 0; i < prefix.length(); i++) {
+            if (prefix.charAt(i) >= 0x80) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+
+    /**
+     * Checks if a value starts with a prefix, ignoring case. Same result as
+     * <code>RecordView.startsWithIgnoreCase()</code>.
+     *
+     * @param value
+     *            the value
+     * @param prefix
+     *            the prefix
+     * @return <code>true</code> if the value starts with the prefix
+     */
+    static boolean startsWithIgnoreCase(String value, String prefix) {
+        if (value.length() < prefix.length()) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length(); i++) {
+            final char c = value.charAt(i);
+            final char p = prefix.charAt(i);
+            if ((c != p) && (Character.toLowerCase(c)
+                    != Character.toLowerCase(p))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+
+    /**
+     * Returns the number of distinct values.
+     *
+     * @return the number of values
+     */
+    int getNumValues() {
+        return postings.size();
+    }
+
+
+    /**
+     * Adds a record's value.
+     *
+     * @param recNo
+     *            the record's id
+     * @param value
+     *            the record's value, as returned by <code>read()</code>
+     */
+    void add(int recNo, String value) {
+        final String key = toKey(value);
+        final int[] current = postings.get(key);
+
+        if (null == current) {
+            postings.put(key, new int[] {recNo});
+            return;
+        }
+
+        final int pos = Arrays.binarySearch(current, recNo);
+        if (pos < 0) {
+            final int insert = -(pos + 1);
+            final int[] tmp = new int[current.length + 1];
+            System.arraycopy(current, 0, tmp, 0, insert);
+            tmp[insert] = recNo;
+            System.arraycopy(current, insert, tmp, insert + 1,
+                    current.length - insert);
+            postings.put(key, tmp);
+        }
+    }
+
+
+    /**
+     * Removes a record's value.
+     *
+     * @param recNo
+     *            the record's id
+     * @param value
+     *            the record's value, as returned by <code>read()</code>
+     */
+    void remove(int recNo, String value) {
+        final String key = toKey(value);
+        final int[] current = postings.get(key);
+        final int pos = ((null == current) ? -1 : Arrays.binarySearch(
+                current, recNo));
+
+        if (pos < 0) {
+            return;
+        } else if (1 == current.length) {
+            postings.remove(key);
+            return;
+        }
+
+        final int[] tmp = new int[current.length - 1];
+        System.arraycopy(current, 0, tmp, 0, pos);
+        System.arraycopy(current, pos + 1, tmp, pos, tmp.length - pos);
+        postings.put(key, tmp);
+    }
+
+
+    /**
+     * Finds the records with a value starting with a prefix, ignoring case.
+     *
+     * @param prefix
+     *            the prefix, must be supported
+     * @return the matching record-ids, in ascending order
+     */
+    int[] find(String prefix) {
+        final SortedMap<String, int[]> range = getRange(prefix);
+
+        if (range.isEmpty()) {
+            return EMPTY;
+        } else if (1 == range.size()) {
+            return range.values().iterator().next().clone();
+        }
+
+        int count = 0;
+        for (int[] recNos : range.values()) {
+            count += recNos.length;
+        }
+
+        final int[] tmp = new int[count];
+        int pos = 0;
+        for (int[] recNos : range.values()) {
+            System.arraycopy(recNos, 0, tmp, pos, recNos.length);
+            pos += recNos.length;
+        }
+        Arrays.sort(tmp);
+        return tmp;
+    }
+
+
+    /**
+     * Counts the records with a value starting with a prefix, without
+     * collecting them.
+     *
+     * @param prefix
+     *            the prefix, must be supported
+     * @return the number of matching records
+     */
+    int count(String prefix) {
+        int count = 0;
+        for (int[] recNos : getRange(prefix).values()) {
+            count += recNos.length;
+        }
+        return count;
+    }
+
+
+    /*
+     * The values starting with a prefix, every character that may follow
+     * the prefix sorts below Character.MAX_VALUE.
+     */
+    private SortedMap<String, int[]> getRange(String prefix) {
+        final String key = toKey(prefix);
+        return postings.subMap(key, key + Character.MAX_VALUE);
+    }
+
+
+    /**
+     * Lower-cases a value one character at a time, the same way as
+     * <code>startsWithIgnoreCase()</code> compares them.
+     *
+     * @param value
+     *            the value
+     * @return the lower-cased value
+     */
+    static String toKey(String value) {
+        final char[] tmp = value.toCharArray();
+        for (int i = 0; i < tmp.length; i++) {
+            tmp[i] = Character.toLowerCase(tmp[i]);
+        }
+        return new String(tmp);
+    }
+}
@@ -0,0 +1,323 @@
+package suncertify.db;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+
+/**
+ * The way <code>Data</code> answers a set of search-criteria, chosen by
+ * comparing the estimated cost of the available access-paths. <br/>
+ * <br/>
+ * The indexes count the records matching a criteria without collecting them,
+ * which gives the selectivity of each indexed criteria. The most selective
+ * index drives the search, and the others are intersected in order of
+ * selectivity as long as that's cheaper than reading the remaining candidates
+ * and comparing them. Criteria which aren't answered by an index (residual
+ * criteria) are compared against the candidates read from the storage. If
+ * the indexes don't narrow the search enough, every record is scanned
+ * instead. <br/>
+ * <br/>
+ * Costs are relative, one unit being the cost of visiting a single entry in
+ * an in-memory index.
+ *
+ * @author Lars Hvile
+ */
+final class QueryPlan {
+
+    /**
+     * The ways records are found.
+     */
+    enum Access {
+        /** every record is compared */
+        SCAN("scan"),
+        /** the column-mirror is scanned */
+        MIRROR_SCAN("column-mirror scan"),
+        /** a bitmap-index */
+        BITMAP_INDEX("bitmap-index"),
+        /** a prefix-index */
+        PREFIX_INDEX("prefix-index");
+
+        private final String description;
+
+        private Access(String description) {
+            this.description = description;
+        }
+    }
+
+    // relative cost per record
+    static final int INDEX_COST  = 1;  // visiting an index-entry
+    static final int MIRROR_COST = 2;  // comparing a record in the mirror
+    static final int SCAN_COST   = 8;  // comparing a record in the storage
+    static final int READ_COST   = 32; // reading a single record by id
+
+    private final List<Step>      steps;
+    private final String[]        residual;
+    private final DatabaseField[] fields;
+    private final int             numRecords;
+    private final long            cost;
+    private final int             estimate;
+
+
+    private QueryPlan(List<Step> steps, String[] residual,
+            DatabaseField[] fields, int numRecords, long cost, int estimate) {
+        this.steps = steps;
+        this.residual = residual;
+        this.fields = fields;
+        this.numRecords = numRecords;
+        this.cost = cost;
+        this.estimate = estimate;
+    }
+
+
+    /**
+     * Chooses the cheapest plan for a set of criteria.
+     *
+     * @param criteria
+     *            the criteria, <code>null</code> matches any value
+     * @param fields
+     *            the database's fields
+     * @param numRecords
+     *            the number of records, deleted ones included
+     * @param prefixIndexes
+     *            the prefix-index of each field, <code>null</code> if the
+     *            field isn't indexed
+     * @param bitmapIndexes
+     *            the bitmap-index of each field, <code>null</code> if the
+     *            field isn't indexed
+     * @param mirror
+     *            <code>true</code> if the column-mirror can answer the
+     *            criteria
+     * @return the plan
+     */
+    static QueryPlan create(String[] criteria, DatabaseField[] fields,
+            int numRecords, PrefixIndex[] prefixIndexes,
+            BitmapIndex[] bitmapIndexes, boolean mirror) {
+
+        final Step scan = new Step((mirror ? Access.MIRROR_SCAN
+                : Access.SCAN), -1, numRecords);
+        final long scanCost = (long) numRecords
+                * (mirror ? MIRROR_COST : SCAN_COST);
+
+        final List<Step> paths = getIndexPaths(criteria, prefixIndexes,
+                bitmapIndexes);
+        if (paths.isEmpty()) {
+            return new QueryPlan(Collections.singletonList(scan), criteria,
+                    fields, numRecords, scanCost, numRecords);
+        }
+
+        final List<Step> steps = new ArrayList<Step>();
+        final String[] residual = criteria.clone();
+        long cost = 0;
+        int candidates = numRecords;
+
+        for (Step path : paths) {
+            // skipping an index costs a read of each remaining candidate
+            if (steps.isEmpty() || ((long) path.estimate * INDEX_COST
+                    < (long) candidates * READ_COST)) {
+                cost += (long) path.estimate * INDEX_COST;
+                candidates = combine(candidates, path.estimate, numRecords);
+                residual[path.field] = null;
+                steps.add(path);
+            }
+        }
+
+        if (!isEmpty(residual)) {
+            cost += (long) candidates * READ_COST;
+        }
+
+        if (scanCost < cost) {
+            return new QueryPlan(Collections.singletonList(scan), criteria,
+                    fields, numRecords, scanCost, candidates);
+        }
+        return new QueryPlan(steps, residual, fields, numRecords, cost,
+                candidates);
+    }
+
+
+    /*
+     * The indexes which can answer a criteria, the most selective first. A
+     * bitmap-index is preferred if a field has both kinds.
+     */
+    private static List<Step> getIndexPaths(String[] criteria,
+            PrefixIndex[] prefixIndexes, BitmapIndex[] bitmapIndexes) {
+
+        final List<Step> paths = new ArrayList<Step>();
+        for (int i = 0; i < criteria.length; i++) {
+            if ((null == criteria[i])
+                    || !PrefixIndex.isSupported(criteria[i])) {
+                continue;
+            } else if (null != bitmapIndexes[i]) {
+                paths.add(new Step(Access.BITMAP_INDEX, i,
+                        bitmapIndexes[i].count(criteria[i])));
+            } else if (null != prefixIndexes[i]) {
+                paths.add(new Step(Access.PREFIX_INDEX, i,
+                        prefixIndexes[i].count(criteria[i])));
+            }
+        }
+
+        Collections.sort(paths, new Comparator<Step>() {
+            @Override
+            public int compare(Step a, Step b) {
+                return ((a.estimate < b.estimate) ? -1
+                        : ((a.estimate == b.estimate) ? 0 : 1));
+            }
+        });
+        return paths;
+    }
+
+
+    /*
+     * Estimates the size of an intersection, assuming the criteria are
+     * independent.
+     */
+    private static int combine(int candidates, int matches, int numRecords) {
+        if (0 == numRecords) {
+            return 0;
+        }
+        return (int) (((long) candidates * matches + numRecords - 1)
+                / numRecords);
+    }
+
+
+    /**
+     * Checks if a set of criteria is empty, i.e. every value is
+     * <code>null</code>.
+     *
+     * @param criteria
+     *            the criteria
+     * @return <code>true</code> if the criteria are empty
+     */
+    static boolean isEmpty(String[] criteria) {
+        for (String value : criteria) {
+            if (null != value) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+
+    /**
+     * Returns the way the first step finds records.
+     *
+     * @return the access-path
+     */
+    Access getAccess() {
+        return steps.get(0).access;
+    }
+
+
+    /**
+     * Returns the number of steps, an index-plan has one step per index.
+     *
+     * @return the number of steps
+     */
+    int getNumSteps() {
+        return steps.size();
+    }
+
+
+    /**
+     * Returns the way a step finds records.
+     *
+     * @param step
+     *            the step's index
+     * @return the access-path
+     */
+    Access getAccess(int step) {
+        return steps.get(step).access;
+    }
+
+
+    /**
+     * Returns the field whose index a step uses.
+     *
+     * @param step
+     *            the step's index
+     * @return the field's index, -1 for scans
+     */
+    int getField(int step) {
+        return steps.get(step).field;
+    }
+
+
+    /**
+     * Returns the criteria which are compared against the records, i.e. the
+     * ones not answered by an index.
+     *
+     * @return the residual criteria, <code>null</code> matches any value
+     */
+    String[] getResidual() {
+        return residual.clone();
+    }
+
+
+    /**
+     * Returns the estimated cost of the plan.
+     *
+     * @return the cost, in relative units
+     */
+    long getCost() {
+        return cost;
+    }
+
+
+    /**
+     * Returns the estimated number of matching records.
+     *
+     * @return the estimated number of records
+     */
+    int getEstimate() {
+        return estimate;
+    }
+
+
+    @Override
+    public String toString() {
+        final StringBuilder sb = new StringBuilder();
+
+        for (Step step : steps) {
+            sb.append((sb.length() > 0) ? " -> intersect " : "");
+            sb.append(step.access.description);
+            if (-1 == step.field) {
+                sb.append(" of ").append(numRecords).append(" record(s)");
+            } else {
+                sb.append(" on ").append(fields[step.field].getName())
+                        .append(" (").append(step.estimate)
+                        .append(" match(es))");
+            }
+        }
+
+        if (!isEmpty(residual)) {
+            sb.append(" -> compare");
+            for (int i = 0; i < residual.length; i++) {
+                if (null != residual[i]) {
+                    sb.append(' ').append(fields[i].getName());
+                }
+            }
+        }
+
+        return sb.append(", estimated ").append(estimate)
+                .append(" record(s) at cost ").append(cost).toString();
+    }
+
+
+    /*
+     * A single access-path, with the estimated number of records it finds.
+     */
+    private static final class Step {
+
+        final Access access;
+        final int    field;
+        final int    estimate;
+
+
+        Step(Access access, int field, int estimate) {
+            this.access = access;
+            this.field = field;
+            this.estimate = estimate;
+        }
+    }
+}
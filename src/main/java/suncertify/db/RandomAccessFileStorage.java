@@ -0,0 +1,84 @@
+package suncertify.db;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+
+/**
+ * <code>FileStorage</code> implemented on top of a
+ * <code>RandomAccessFile</code>. Reads use positional reads on the file's
+ * channel, they never touch the shared file-pointer and can therefore run in
+ * parallel. Writes use the file-pointer.
+ *
+ * @author Lars Hvile
+ * @see StorageMode#RANDOM_ACCESS
+ */
+final class RandomAccessFileStorage implements FileStorage {
+
+    private final RandomAccessFile file;
+    private final FileChannel      channel;
+
+
+    /**
+     * Class-constructor.
+     *
+     * @param file
+     *            an open <code>RandomAccessFile</code>
+     */
+    RandomAccessFileStorage(RandomAccessFile file) {
+        this.file = file;
+        this.channel = file.getChannel();
+    }
+
+
+    @Override
+    public long length() throws IOException {
+        return file.length();
+    }
+
+
+    @Override
+    public void read(long position, byte[] buffer, int offset, int length)
+            throws IOException {
+
+        final ByteBuffer dst = ByteBuffer.wrap(buffer, offset, length);
+
+        while (dst.hasRemaining()) {
+            final int count = channel.read(dst, position + dst.position()
+                    - offset);
+            if (count < 0) {
+                throw new EOFException("attempting to read beyond eof, "
+                        + "position=" + position);
+            }
+        }
+    }
+
+
+    @Override
+    public void write(long position, byte[] buffer, int offset, int length)
+            throws IOException {
+        file.seek(position);
+        file.write(buffer, offset, length);
+    }
+
+
+    @Override
+    public void setLength(long length) throws IOException {
+        file.setLength(length);
+    }
+
+
+    @Override
+    public void force() throws IOException {
+        channel.force(true);
+    }
+
+
+    @Override
+    public void close() throws IOException {
+        file.close();
+    }
+}
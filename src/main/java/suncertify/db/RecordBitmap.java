@@ -0,0 +1,429 @@
+package suncertify.db;
+
+import java.util.Arrays;
+
+
+/**
+ * Compressed set of record-ids, used by <code>BitmapIndex</code>. The ids
+ * are split into chunks of 65536 by their upper 16 bits, and each chunk is
+ * stored in the form that takes the least memory (as in roaring bitmaps): a
+ * sorted array of the lower 16 bits while the chunk has at most 4096 ids, a
+ * plain bitmap of 8kB otherwise. <br/>
+ * <br/>
+ * <code>and()</code> and <code>or()</code> combine two sets chunk by chunk,
+ * and return a new set. Instances aren't thread-safe.
+ *
+ * @author Lars Hvile
+ */
+final class RecordBitmap {
+
+    // the largest number of ids in an array-chunk
+    private static final int ARRAY_LIMIT = 4096;
+
+    // number of longs in a bitmap-chunk
+    private static final int BITMAP_WORDS = 1024;
+
+    private char[]  keys   = new char[0];  // upper 16 bits, ascending
+    private Chunk[] chunks = new Chunk[0];
+    private int     size;
+
+
+    /**
+     * Returns the number of ids in the set.
+     *
+     * @return the number of ids
+     */
+    int size() {
+        return size;
+    }
+
+
+    /**
+     * Checks if the set is empty.
+     *
+     * @return <code>true</code> if the set has no ids
+     */
+    boolean isEmpty() {
+        return (0 == size);
+    }
+
+
+    /**
+     * Adds an id to the set.
+     *
+     * @param recNo
+     *            the id, must not be negative
+     * @return <code>false</code> if the id is already in the set
+     */
+    boolean add(int recNo) {
+        final char key = (char) (recNo >>> 16);
+        int pos = Arrays.binarySearch(keys, key);
+
+        if (pos < 0) {
+            pos = -(pos + 1);
+            insertChunk(pos, key, new Chunk());
+        }
+
+        if (!chunks[pos].add((char) recNo)) {
+            return false;
+        }
+        size++;
+        return true;
+    }
+
+
+    /**
+     * Removes an id from the set.
+     *
+     * @param recNo
+     *            the id
+     * @return <code>false</code> if the id isn't in the set
+     */
+    boolean remove(int recNo) {
+        final int pos = Arrays.binarySearch(keys, (char) (recNo >>> 16));
+
+        if ((pos < 0) || !chunks[pos].remove((char) recNo)) {
+            return false;
+        }
+
+        size--;
+        if (0 == chunks[pos].cardinality) {
+            removeChunk(pos);
+        }
+        return true;
+    }
+
+
+    /**
+     * Checks if an id is in the set.
+     *
+     * @param recNo
+     *            the id
+     * @return <code>true</code> if the set contains the id
+     */
+    boolean contains(int recNo) {
+        final int pos = Arrays.binarySearch(keys, (char) (recNo >>> 16));
+        return ((pos >= 0) && chunks[pos].contains((char) recNo));
+    }
+
+
+    /**
+     * Returns the intersection of this set and another one.
+     *
+     * @param other
+     *            the other set
+     * @return a new set
+     */
+    RecordBitmap and(RecordBitmap other) {
+        final RecordBitmap result = new RecordBitmap();
+        int i = 0;
+        int j = 0;
+
+        while ((i < keys.length) && (j < other.keys.length)) {
+            if (keys[i] < other.keys[j]) {
+                i++;
+            } else if (keys[i] > other.keys[j]) {
+                j++;
+            } else {
+                final Chunk chunk = Chunk.and(chunks[i], other.chunks[j]);
+                if (chunk.cardinality > 0) {
+                    result.appendChunk(keys[i], chunk);
+                }
+                i++;
+                j++;
+            }
+        }
+        return result;
+    }
+
+
+    /**
+     * Returns the union of this set and another one.
+     *
+     * @param other
+     *            the other set
+     * @return a new set
+     */
+    RecordBitmap or(RecordBitmap other) {
+        final RecordBitmap result = new RecordBitmap();
+        int i = 0;
+        int j = 0;
+
+        while ((i < keys.length) || (j < other.keys.length)) {
+            if ((j == other.keys.length)
+                    || ((i < keys.length) && (keys[i] < other.keys[j]))) {
+                result.appendChunk(keys[i], chunks[i].copy());
+                i++;
+            } else if ((i == keys.length) || (keys[i] > other.keys[j])) {
+                result.appendChunk(other.keys[j], other.chunks[j].copy());
+                j++;
+            } else {
+                result.appendChunk(keys[i],
+                        Chunk.or(chunks[i], other.chunks[j]));
+                i++;
+                j++;
+            }
+        }
+        return result;
+    }
+
+
+    /**
+     * Returns the ids in the set.
+     *
+     * @return the ids, in ascending order
+     */
+    int[] toArray() {
+        final int[] tmp = new int[size];
+        int pos = 0;
+        for (int i = 0; i < keys.length; i++) {
+            pos = chunks[i].copyTo(keys[i] << 16, tmp, pos);
+        }
+        return tmp;
+    }
+
+
+    private void insertChunk(int pos, char key, Chunk chunk) {
+        final char[] newKeys = new char[keys.length + 1];
+        final Chunk[] newChunks = new Chunk[chunks.length + 1];
+        System.arraycopy(keys, 0, newKeys, 0, pos);
+        System.arraycopy(chunks, 0, newChunks, 0, pos);
+        newKeys[pos] = key;
+        newChunks[pos] = chunk;
+        System.arraycopy(keys, pos, newKeys, pos + 1, keys.length - pos);
+        System.arraycopy(chunks, pos, newChunks, pos + 1, chunks.length - pos);
+        keys = newKeys;
+        chunks = newChunks;
+    }
+
+
+    private void removeChunk(int pos) {
+        final char[] newKeys = new char[keys.length - 1];
+        final Chunk[] newChunks = new Chunk[chunks.length - 1];
+        System.arraycopy(keys, 0, newKeys, 0, pos);
+        System.arraycopy(chunks, 0, newChunks, 0, pos);
+        System.arraycopy(keys, pos + 1, newKeys, pos, newKeys.length - pos);
+        System.arraycopy(chunks, pos + 1, newChunks, pos,
+                newChunks.length - pos);
+        keys = newKeys;
+        chunks = newChunks;
+    }
+
+
+    /*
+     * Adds a chunk after the existing ones, used while building the result
+     * of and() & or().
+     */
+    private void appendChunk(char key, Chunk chunk) {
+        insertChunk(keys.length, key, chunk);
+        size += chunk.cardinality;
+    }
+
+
+    /*
+     * The lower 16 bits of the ids sharing the same upper 16 bits. Either
+     * values or bits is used, depending on the cardinality.
+     */
+    private static final class Chunk {
+
+        private char[] values = new char[4]; // ascending, null if bitmap
+        private long[] bits;                 // null if array
+        private int    cardinality;
+
+
+        boolean contains(char value) {
+            if (null != bits) {
+                return (0 != (bits[value >>> 6] & (1L << value)));
+            }
+            return (Arrays.binarySearch(values, 0, cardinality, value) >= 0);
+        }
+
+
+        boolean add(char value) {
+            if (null != bits) {
+                final long mask = 1L << value;
+                if (0 != (bits[value >>> 6] & mask)) {
+                    return false;
+                }
+                bits[value >>> 6] |= mask;
+                cardinality++;
+                return true;
+            }
+
+            int pos = Arrays.binarySearch(values, 0, cardinality, value);
+            if (pos >= 0) {
+                return false;
+            } else if (cardinality == ARRAY_LIMIT) {
+                toBitmap();
+                return add(value);
+            }
+
+            pos = -(pos + 1);
+            if (cardinality == values.length) {
+                values = Arrays.copyOf(values,
+                        Math.min(Math.max(4, cardinality * 2), ARRAY_LIMIT));
+            }
+            System.arraycopy(values, pos, values, pos + 1, cardinality - pos);
+            values[pos] = value;
+            cardinality++;
+            return true;
+        }
+
+
+        boolean remove(char value) {
+            if (null != bits) {
+                final long mask = 1L << value;
+                if (0 == (bits[value >>> 6] & mask)) {
+                    return false;
+                }
+                bits[value >>> 6] &= ~mask;
+                if (--cardinality == ARRAY_LIMIT) {
+                    toArray();
+                }
+                return true;
+            }
+
+            final int pos = Arrays.binarySearch(values, 0, cardinality, value);
+            if (pos < 0) {
+                return false;
+            }
+            System.arraycopy(values, pos + 1, values, pos,
+                    cardinality - pos - 1);
+            cardinality--;
+            return true;
+        }
+
+
+        Chunk copy() {
+            final Chunk tmp = new Chunk();
+            tmp.values = ((null == values) ? null : values.clone());
+            tmp.bits = ((null == bits) ? null : bits.clone());
+            tmp.cardinality = cardinality;
+            return tmp;
+        }
+
+
+        /*
+         * Copies the ids to an array, returns the position after the last
+         * one.
+         */
+        int copyTo(int high, int[] target, int pos) {
+            if (null == bits) {
+                for (int i = 0; i < cardinality; i++) {
+                    target[pos++] = high | values[i];
+                }
+                return pos;
+            }
+
+            for (int i = 0; i < BITMAP_WORDS; i++) {
+                long word = bits[i];
+                while (0 != word) {
+                    final int bit = Long.numberOfTrailingZeros(word);
+                    target[pos++] = high | (i << 6) | bit;
+                    word &= (word - 1);
+                }
+            }
+            return pos;
+        }
+
+
+        static Chunk and(Chunk a, Chunk b) {
+            final Chunk tmp = new Chunk();
+
+            if ((null != a.bits) && (null != b.bits)) {
+                tmp.values = null;
+                tmp.bits = new long[BITMAP_WORDS];
+                for (int i = 0; i < BITMAP_WORDS; i++) {
+                    tmp.bits[i] = a.bits[i] & b.bits[i];
+                    tmp.cardinality += Long.bitCount(tmp.bits[i]);
+                }
+                if (tmp.cardinality <= ARRAY_LIMIT) {
+                    tmp.toArray();
+                }
+                return tmp;
+            }
+
+            // iterate the array, which has at most ARRAY_LIMIT values
+            final Chunk array = ((null == a.bits) ? a : b);
+            final Chunk other = ((array == a) ? b : a);
+            tmp.values = new char[array.cardinality];
+            for (int i = 0; i < array.cardinality; i++) {
+                if (other.contains(array.values[i])) {
+                    tmp.values[tmp.cardinality++] = array.values[i];
+                }
+            }
+            return tmp;
+        }
+
+
+        static Chunk or(Chunk a, Chunk b) {
+            final Chunk tmp;
+
+            if ((null == a.bits) && (null == b.bits)
+                    && (a.cardinality + b.cardinality <= ARRAY_LIMIT)) {
+                tmp = new Chunk();
+                tmp.values = new char[a.cardinality + b.cardinality];
+                int i = 0;
+                int j = 0;
+                while ((i < a.cardinality) || (j < b.cardinality)) {
+                    if ((j == b.cardinality) || ((i < a.cardinality)
+                            && (a.values[i] < b.values[j]))) {
+                        tmp.values[tmp.cardinality++] = a.values[i++];
+                    } else if ((i == a.cardinality)
+                            || (a.values[i] > b.values[j])) {
+                        tmp.values[tmp.cardinality++] = b.values[j++];
+                    } else {
+                        tmp.values[tmp.cardinality++] = a.values[i++];
+                        j++;
+                    }
+                }
+                return tmp;
+            }
+
+            tmp = a.copy();
+            if (null == tmp.bits) {
+                tmp.toBitmap();
+            }
+            if (null != b.bits) {
+                tmp.cardinality = 0;
+                for (int i = 0; i < BITMAP_WORDS; i++) {
+                    tmp.bits[i] |= b.bits[i];
+                    tmp.cardinality += Long.bitCount(tmp.bits[i]);
+                }
+            } else {
+                for (int i = 0; i < b.cardinality; i++) {
+                    tmp.add(b.values[i]);
+                }
+            }
+            if (tmp.cardinality <= ARRAY_LIMIT) {
+                tmp.toArray();
+            }
+            return tmp;
+        }
+
+
+        private void toBitmap() {
+            bits = new long[BITMAP_WORDS];
+            for (int i = 0; i < cardinality; i++) {
+                bits[values[i] >>> 6] |= (1L << values[i]);
+            }
+            values = null;
+        }
+
+
+        private void toArray() {
+            final char[] tmp = new char[cardinality];
+            int pos = 0;
+            for (int i = 0; i < BITMAP_WORDS; i++) {
+                long word = bits[i];
+                while (0 != word) {
+                    tmp[pos++] = (char) ((i << 6)
+                            | Long.numberOfTrailingZeros(word));
+                    word &= (word - 1);
+                }
+            }
+            values = tmp;
+            bits = null;
+        }
+    }
+}
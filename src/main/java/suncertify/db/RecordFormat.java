@@ -0,0 +1,813 @@
+package suncertify.db;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+
+/**
+ * Describes the layout of the records in a database-file, and converts
+ * between the stored bytes and the field-values. Two versions of the
+ * file-format are supported: <br/>
+ * <br/>
+ * Version 1 (magic-value 513) stores every field as space-padded US-ASCII
+ * text. The header only contains the field-names and -lengths, so the
+ * field-types and the key-fields are derived from the field-indexes/-names.
+ * <br/>
+ * <br/>
+ * Version 2 (magic-value 514) adds the type of each field and a key-flag to
+ * the header. <code>NUMBER</code> and <code>MONEY</code> fields are stored as
+ * 4-byte binary integers, <code>MONEY</code> in cents, while the field's
+ * length is the max length of its text-form. Empty values are stored as
+ * <code>EMPTY</code>. <br/>
+ * <br/>
+ * Text-fields in version 2 may also be dictionary-encoded, the record then
+ * contains a 2-byte code which is resolved by the <code>FieldDictionary</code>.
+ * This suits fields with few distinct values, the records are smaller and
+ * every read of a value returns the same <code>String</code>. <br/>
+ * <br/>
+ * Instances are immutable, but the dictionary grows as new values are
+ * encoded.
+ *
+ * @author Lars Hvile
+ */
+final class RecordFormat {
+
+    /**
+     * Magic-value of version 1 of the file-format.
+     */
+    static final int MAGIC_V1 = 513;
+
+    /**
+     * Magic-value of version 2 of the file-format.
+     */
+    static final int MAGIC_V2 = 514;
+
+    /**
+     * Number of bytes in the record-header.
+     */
+    static final int RECORD_HEADER_SIZE = 1;
+
+    /**
+     * Binary value of an empty <code>NUMBER</code> or <code>MONEY</code>
+     * field.
+     */
+    static final int EMPTY = Integer.MIN_VALUE;
+
+    // number of bytes in a binary field
+    private static final int BINARY_SIZE = 4;
+
+    // number of bytes in a dictionary-code
+    private static final int CODE_SIZE = 2;
+
+    // max number of characters in the text-form of a binary field
+    static final int MAX_BINARY_TEXT = 16;
+
+    // flags in the header
+    private static final int FLAG_KEY        = 1;
+    private static final int FLAG_DICTIONARY = 2;
+
+    // hardcoded field-indexes/-names of version 1 files, which don't contain
+    // this information
+    private static final int    V1_FIELD_SIZE     = 3;
+    private static final int    V1_FIELD_RATE     = 4;
+    private static final int    V1_FIELD_OWNER    = 5;
+    private static final String V1_FIELD_NAME     = "name";
+    private static final String V1_FIELD_LOCATION = "location";
+
+    // charset of strings in the database
+    private static final Charset CHARSET = Charset.forName("US-ASCII");
+
+    private final int             version;
+    private final DatabaseField[] fields;
+    private final int[]           offsets;  // offset of each field in the
+                                            // record, header incl.
+    private final int[]           widths;   // number of bytes / field
+    private final boolean[]       binary;
+    private final boolean[]       dictionary;
+    private final int             recordLen;
+    private final FieldDictionary values;   // null until attached
+
+
+    /**
+     * Creates a format for a set of fields.
+     *
+     * @param version
+     *            the file-format's version, 1 or 2
+     * @param fields
+     *            the field-definitions
+     * @throws IllegalArgumentException
+     *             if the version is unknown
+     */
+    RecordFormat(int version, DatabaseField[] fields) {
+        this(version, fields, new boolean[fields.length]);
+    }
+
+
+    /**
+     * Creates a format for a set of fields, where some of the text-fields are
+     * dictionary-encoded. A <code>FieldDictionary</code> must be attached
+     * before records are encoded/decoded.
+     *
+     * @param version
+     *            the file-format's version, 1 or 2
+     * @param fields
+     *            the field-definitions
+     * @param dictionary
+     *            <code>true</code> for each field that's dictionary-encoded
+     * @throws IllegalArgumentException
+     *             if the version is unknown, or a field can't be
+     *             dictionary-encoded
+     */
+    RecordFormat(int version, DatabaseField[] fields, boolean[] dictionary) {
+
+        if ((1 != version) && (2 != version)) {
+            throw new IllegalArgumentException("unknown version: " + version);
+        }
+
+        this.version = version;
+        this.fields = Arrays.copyOf(fields, fields.length);
+        this.offsets = new int[fields.length];
+        this.widths = new int[fields.length];
+        this.binary = new boolean[fields.length];
+        this.dictionary = Arrays.copyOf(dictionary, fields.length);
+        this.values = null;
+
+        int offset = RECORD_HEADER_SIZE;
+        for (int i = 0; i < fields.length; i++) {
+            if (this.dictionary[i] && ((2 != version)
+                    || (DatabaseField.Type.TEXT != fields[i].getType()))) {
+                throw new IllegalArgumentException(
+                        "can't dictionary-encode field: " + fields[i]);
+            }
+            binary[i] = ((2 == version)
+                    && (DatabaseField.Type.TEXT != fields[i].getType()));
+            widths[i] = (binary[i] ? BINARY_SIZE
+                    : (this.dictionary[i] ? CODE_SIZE : fields[i].getLength()));
+            offsets[i] = offset;
+            offset += widths[i];
+        }
+
+        this.recordLen = offset;
+    }
+
+
+    /*
+     * Copy-constructor, attaching a dictionary.
+     */
+    private RecordFormat(RecordFormat format, FieldDictionary values) {
+        this.version = format.version;
+        this.fields = format.fields;
+        this.offsets = format.offsets;
+        this.widths = format.widths;
+        this.binary = format.binary;
+        this.dictionary = format.dictionary;
+        this.recordLen = format.recordLen;
+        this.values = values;
+    }
+
+
+    /**
+     * Returns a copy of this format which uses the given dictionary for the
+     * dictionary-encoded fields.
+     *
+     * @param values
+     *            the <code>FieldDictionary</code>
+     * @return the new <code>RecordFormat</code>
+     */
+    RecordFormat withDictionary(FieldDictionary values) {
+        return new RecordFormat(this, values);
+    }
+
+
+    /**
+     * Reads the header of a database-file.
+     *
+     * @param in
+     *            a <code>DataInput</code> positioned at the start of the file
+     * @return the file's <code>RecordFormat</code>
+     * @throws DatabaseException
+     *             if the file isn't recognized as a valid database-file
+     * @throws IOException
+     *             on I/O-errors
+     */
+    static RecordFormat read(DataInput in) throws IOException {
+
+        final int magic = in.readInt();
+        final int version;
+
+        if (MAGIC_V1 == magic) {
+            version = 1;
+        } else if (MAGIC_V2 == magic) {
+            version = 2;
+        } else {
+            throw (new DatabaseException("unknown file-type"));
+        }
+
+        final int dataLen = in.readInt();
+        final DatabaseField[] fields = new DatabaseField[in.readShort()];
+        final boolean[] dictionary = new boolean[fields.length];
+
+        for (int i = 0; i < fields.length; i++) {
+            final String name = readString(in, in.readShort());
+            final short length = in.readShort();
+
+            if (1 == version) {
+                fields[i] = new DatabaseField(i, name, length, getV1Type(i),
+                        V1_FIELD_NAME.equals(name)
+                                || V1_FIELD_LOCATION.equals(name));
+            } else {
+                final int type = in.readByte();
+                final int flags = in.readByte();
+                if ((type < 0) || (type >= DatabaseField.Type.values()
+                        .length)) {
+                    throw new DatabaseException("unknown field-type: " + type);
+                }
+                fields[i] = new DatabaseField(i, name, length,
+                        DatabaseField.Type.values()[type],
+                        0 != (flags & FLAG_KEY));
+                dictionary[i] = (0 != (flags & FLAG_DICTIONARY));
+            }
+        }
+
+        final RecordFormat format;
+        try {
+            format = new RecordFormat(version, fields, dictionary);
+        } catch (IllegalArgumentException e) {
+            throw new DatabaseException(e.getMessage());
+        }
+        if ((format.recordLen - RECORD_HEADER_SIZE) != dataLen) {
+            throw new DatabaseException("invalid record-length: " + dataLen);
+        }
+
+        return format;
+    }
+
+
+    /*
+     * Returns a field's type based on it's index, version 1 files don't
+     * contain this information.
+     */
+    private static DatabaseField.Type getV1Type(int index) {
+        switch (index) {
+            case V1_FIELD_SIZE:
+            case V1_FIELD_OWNER:
+                return DatabaseField.Type.NUMBER;
+            case V1_FIELD_RATE:
+                return DatabaseField.Type.MONEY;
+            default:
+                return DatabaseField.Type.TEXT;
+        }
+    }
+
+
+    private static String readString(DataInput in, int length)
+            throws IOException {
+        final byte[] tmp = new byte[length];
+        in.readFully(tmp);
+        return AsciiCodec.decode(tmp, 0, length);
+    }
+
+
+    /**
+     * Writes the file-header.
+     *
+     * @param out
+     *            the <code>DataOutput</code> to write to
+     * @throws IOException
+     *             on I/O-errors
+     */
+    void write(DataOutput out) throws IOException {
+
+        out.writeInt((1 == version) ? MAGIC_V1 : MAGIC_V2);
+        out.writeInt(recordLen - RECORD_HEADER_SIZE);
+        out.writeShort(fields.length);
+
+        for (int i = 0; i < fields.length; i++) {
+            final byte[] name = fields[i].getName().getBytes(CHARSET);
+            out.writeShort(name.length);
+            out.write(name);
+            out.writeShort(fields[i].getLength());
+            if (2 == version) {
+                out.writeByte(fields[i].getType().ordinal());
+                out.writeByte((fields[i].isKey() ? FLAG_KEY : 0)
+                        | (dictionary[i] ? FLAG_DICTIONARY : 0));
+            }
+        }
+    }
+
+
+    /**
+     * Returns the file-format's version.
+     *
+     * @return 1 or 2
+     */
+    int getVersion() {
+        return version;
+    }
+
+
+    /**
+     * Returns the number of bytes / record, header included.
+     *
+     * @return the record-length
+     */
+    int getRecordLength() {
+        return recordLen;
+    }
+
+
+    /**
+     * Returns the field-definitions.
+     *
+     * @return a <code>DatabaseField[]</code>
+     */
+    DatabaseField[] getFields() {
+        return Arrays.copyOf(fields, fields.length);
+    }
+
+
+    /**
+     * Returns the field-definitions to use when the records are converted to
+     * version 2. The owner of a version 1 file is an 8-digit customer-id,
+     * not a quantity, so it stays a text-field and keeps its leading zeros.
+     * The fields of a version 2 file are returned unchanged.
+     *
+     * @return a <code>DatabaseField[]</code>
+     */
+    DatabaseField[] getV2Fields() {
+        final DatabaseField[] tmp = getFields();
+        if ((1 == version) && (tmp.length > V1_FIELD_OWNER)) {
+            final DatabaseField owner = tmp[V1_FIELD_OWNER];
+            tmp[V1_FIELD_OWNER] = new DatabaseField(owner.getIndex(),
+                    owner.getName(), owner.getLength(),
+                    DatabaseField.Type.TEXT, owner.isKey());
+        }
+        return tmp;
+    }
+
+
+    /**
+     * Returns the type of a field.
+     *
+     * @param field
+     *            the field's index
+     * @return the field's type
+     */
+    DatabaseField.Type getType(int field) {
+        return fields[field].getType();
+    }
+
+
+    /**
+     * Returns the number of fields / record.
+     *
+     * @return the number of fields
+     */
+    int getFieldCount() {
+        return fields.length;
+    }
+
+
+    /**
+     * Returns the offset of a field in the record, header included.
+     *
+     * @param field
+     *            the field's index
+     * @return the offset
+     */
+    int getOffset(int field) {
+        return offsets[field];
+    }
+
+
+    /**
+     * Returns the number of bytes used to store a field.
+     *
+     * @param field
+     *            the field's index
+     * @return the number of bytes
+     */
+    int getWidth(int field) {
+        return widths[field];
+    }
+
+
+    /**
+     * Checks if a field is stored as a binary integer.
+     *
+     * @param field
+     *            the field's index
+     * @return <code>true</code> if the field is binary
+     */
+    boolean isBinary(int field) {
+        return binary[field];
+    }
+
+
+    /**
+     * Checks if a field is dictionary-encoded.
+     *
+     * @param field
+     *            the field's index
+     * @return <code>true</code> if the field is dictionary-encoded
+     */
+    boolean isDictionary(int field) {
+        return dictionary[field];
+    }
+
+
+    /**
+     * Returns the attached dictionary.
+     *
+     * @return the <code>FieldDictionary</code>, <code>null</code> if none is
+     *         attached
+     */
+    FieldDictionary getDictionary() {
+        return values;
+    }
+
+
+    /**
+     * Checks if any of the fields are dictionary-encoded, i.e. if a
+     * <code>FieldDictionary</code> is required.
+     *
+     * @return <code>true</code> if a dictionary is required
+     */
+    boolean hasDictionary() {
+        for (boolean tmp : dictionary) {
+            if (tmp) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+
+    /**
+     * Verifies that the field-values are valid / approved for storage.
+     *
+     * @param data
+     *            a <code>String[]</code> with the field-values
+     * @throws IllegalArgumentException
+     *             if the fields can't be stored in the database
+     */
+    void verify(String[] data) {
+
+        if (data.length != fields.length) {
+            throw new IllegalArgumentException("invalid number of fields");
+        }
+
+        for (int i = 0; i < data.length; i++) {
+            if (null == data[i]) {
+                throw new IllegalArgumentException(
+                        "field-values can't be null");
+            } else if (binary[i]) {
+                parse(fields[i], data[i]);
+            }
+        }
+    }
+
+
+    /**
+     * Encodes an entire record, header included. Text-fields are
+     * truncated/padded to the correct length.
+     *
+     * @param data
+     *            a <code>String[]</code> with the field-values
+     * @return the record's bytes
+     * @throws IllegalArgumentException
+     *             if the fields can't be stored in the database
+     * @throws IOException
+     *             if a new value can't be added to the dictionary
+     */
+    byte[] encode(String[] data) throws IOException {
+        final byte[] buffer = new byte[recordLen]; // not deleted
+        for (int i = 0; i < data.length; i++) {
+            if (binary[i]) {
+                putInt(buffer, offsets[i], parse(fields[i], data[i]));
+            } else if (dictionary[i]) {
+                final int code = values.add(i, normalizeText(i, data[i]));
+                buffer[offsets[i]] = (byte) (code >>> 8);
+                buffer[offsets[i] + 1] = (byte) code;
+            } else {
+                final byte[] field = data[i].getBytes(CHARSET);
+                System.arraycopy(field, 0, buffer, offsets[i], Math.min(
+                        field.length, widths[i]));
+            }
+        }
+        return buffer;
+    }
+
+
+    /**
+     * Creates a record where all the fields are empty.
+     *
+     * @return the record's bytes
+     */
+    byte[] createEmptyRecord() {
+        final byte[] buffer = new byte[recordLen];
+        for (int i = 0; i < fields.length; i++) {
+            if (binary[i]) {
+                putInt(buffer, offsets[i], EMPTY);
+            }
+        }
+        return buffer;
+    }
+
+
+    /**
+     * Decodes a field.
+     *
+     * @param buffer
+     *            a <code>byte[]</code> containing the record
+     * @param record
+     *            offset of the record's first byte in the buffer
+     * @param field
+     *            the field's index
+     * @return the field's value, whitespace/padding removed
+     */
+    String decode(byte[] buffer, int record, int field) {
+        if (binary[field]) {
+            final char[] tmp = new char[MAX_BINARY_TEXT];
+            return new String(tmp, 0, format(fields[field].getType(), getInt(
+                    buffer, record, field), tmp));
+        } else if (dictionary[field]) {
+            return values.get(field, getCode(buffer, record, field));
+        }
+        return AsciiCodec.decode(buffer, record + offsets[field],
+                widths[field]);
+    }
+
+
+    /**
+     * Decodes all the fields in a record.
+     *
+     * @param buffer
+     *            a <code>byte[]</code> containing the record
+     * @param record
+     *            offset of the record's first byte in the buffer
+     * @return a <code>String[]</code> with the field-values
+     */
+    String[] decode(byte[] buffer, int record) {
+        final String[] tmp = new String[fields.length];
+        for (int i = 0; i < tmp.length; i++) {
+            tmp[i] = decode(buffer, record, i);
+        }
+        return tmp;
+    }
+
+
+    /**
+     * Returns the value of a <code>NUMBER</code> or <code>MONEY</code>
+     * field as an integer, <code>MONEY</code> in cents. Text-fields in
+     * version 1 files are parsed.
+     *
+     * @param buffer
+     *            a <code>byte[]</code> containing the record
+     * @param record
+     *            offset of the record's first byte in the buffer
+     * @param field
+     *            the field's index
+     * @return the value, <code>EMPTY</code> if the field is empty
+     * @throws NumberFormatException
+     *             if the field isn't numeric, or contains an invalid value
+     */
+    int getInt(byte[] buffer, int record, int field) {
+
+        final int offset = record + offsets[field];
+
+        if (binary[field]) {
+            return (((buffer[offset] & 0xff) << 24)
+                    | ((buffer[offset + 1] & 0xff) << 16)
+                    | ((buffer[offset + 2] & 0xff) << 8)
+                    | (buffer[offset + 3] & 0xff));
+        } else if (DatabaseField.Type.TEXT == fields[field].getType()) {
+            throw new NumberFormatException("not a numeric field: "
+                    + fields[field]);
+        }
+
+        return parse(fields[field].getType(), buffer, offset, widths[field]);
+    }
+
+
+    /**
+     * Parses a value in the text-form of a <code>NUMBER</code> or
+     * <code>MONEY</code> field, the same way as when it's stored.
+     *
+     * @param field
+     *            the field's index
+     * @param value
+     *            the value's bytes
+     * @return the value, <code>EMPTY</code> if the value is empty
+     * @throws NumberFormatException
+     *             if the field isn't numeric, or the value is invalid
+     */
+    int parseInt(int field, byte[] value) {
+        if (DatabaseField.Type.TEXT == fields[field].getType()) {
+            throw new NumberFormatException("not a numeric field: "
+                    + fields[field]);
+        }
+        return parse(fields[field].getType(), value, 0, value.length);
+    }
+
+
+    /**
+     * Returns the dictionary-code of a dictionary-encoded field.
+     *
+     * @param buffer
+     *            a <code>byte[]</code> containing the record
+     * @param record
+     *            offset of the record's first byte in the buffer
+     * @param field
+     *            the field's index
+     * @return the code
+     */
+    int getCode(byte[] buffer, int record, int field) {
+        final int offset = record + offsets[field];
+        return (((buffer[offset] & 0xff) << 8) | (buffer[offset + 1] & 0xff));
+    }
+
+
+    /**
+     * Resolves a dictionary-code.
+     *
+     * @param field
+     *            the field's index
+     * @param code
+     *            the code, see <code>getCode()</code>
+     * @return the canonical value
+     */
+    String getDictionaryValue(int field, int code) {
+        return values.get(field, code);
+    }
+
+
+    /**
+     * Returns the field-values the way they would be returned after being
+     * stored, i.e. truncated, trimmed and formatted. Nothing is added to the
+     * dictionary.
+     *
+     * @param data
+     *            a <code>String[]</code> with the field-values
+     * @return the normalized field-values
+     * @throws IllegalArgumentException
+     *             if the fields can't be stored in the database
+     */
+    String[] normalize(String[] data) {
+        final String[] tmp = new String[data.length];
+        final char[] chars = new char[MAX_BINARY_TEXT];
+        for (int i = 0; i < data.length; i++) {
+            if (binary[i]) {
+                tmp[i] = new String(chars, 0, format(fields[i].getType(),
+                        parse(fields[i], data[i]), chars));
+            } else {
+                tmp[i] = normalizeText(i, data[i]);
+            }
+        }
+        return tmp;
+    }
+
+
+    /*
+     * Truncates a text-value to the field's length, and trims it.
+     */
+    private String normalizeText(int field, String value) {
+        final byte[] tmp = value.getBytes(CHARSET);
+        return AsciiCodec.decode(tmp, 0, Math.min(tmp.length, fields[field]
+                .getLength()));
+    }
+
+
+    private static void putInt(byte[] buffer, int offset, int value) {
+        buffer[offset]     = (byte) (value >>> 24);
+        buffer[offset + 1] = (byte) (value >>> 16);
+        buffer[offset + 2] = (byte) (value >>> 8);
+        buffer[offset + 3] = (byte) value;
+    }
+
+
+    private static int parse(DatabaseField field, String value) {
+        final byte[] tmp = value.getBytes(CHARSET);
+        try {
+            return parse(field.getType(), tmp, 0, tmp.length);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("invalid value for "
+                    + field.getName() + ": " + value, e);
+        }
+    }
+
+
+    /*
+     * Parses the text-form of a NUMBER or MONEY value, without creating any
+     * objects. Money is an optional '$', and up to two decimals.
+     */
+    private static int parse(DatabaseField.Type type, byte[] buffer,
+            int offset, int length) {
+
+        final int end = AsciiCodec.trimmedEnd(buffer, AsciiCodec
+                .trimmedStart(buffer, offset, length), offset + length);
+        int pos = AsciiCodec.trimmedStart(buffer, offset, length);
+
+        if (pos == end) {
+            return EMPTY;
+        }
+
+        final boolean negative = ('-' == buffer[pos]);
+        if (negative) {
+            pos++;
+        }
+        if ((DatabaseField.Type.MONEY == type) && (pos < end)
+                && ('$' == buffer[pos])) {
+            pos++;
+        }
+
+        long value = 0;
+        int numDigits = 0;
+        int numDecimals = -1; // no decimal-point
+
+        for (; pos < end; pos++) {
+            final byte b = buffer[pos];
+            if (('.' == b) && (DatabaseField.Type.MONEY == type)
+                    && (-1 == numDecimals)) {
+                numDecimals = 0;
+            } else if ((b >= '0') && (b <= '9') && (numDecimals < 2)) {
+                value = (value * 10) + (b - '0');
+                numDigits++;
+                if (-1 != numDecimals) {
+                    numDecimals++;
+                }
+                if (value > Integer.MAX_VALUE) {
+                    throw new NumberFormatException("value too large");
+                }
+            } else {
+                throw new NumberFormatException("invalid character: "
+                        + (char) b);
+            }
+        }
+
+        if (0 == numDigits) {
+            throw new NumberFormatException("no digits");
+        }
+
+        if (DatabaseField.Type.MONEY == type) {
+            for (int i = Math.max(0, numDecimals); i < 2; i++) {
+                value *= 10;
+            }
+            if (value > Integer.MAX_VALUE) {
+                throw new NumberFormatException("value too large");
+            }
+        }
+
+        return (int) (negative ? -value : value);
+    }
+
+
+    /**
+     * Formats a binary value as text, without creating any objects.
+     *
+     * @param type
+     *            the field's type, <code>NUMBER</code> or <code>MONEY</code>
+     * @param value
+     *            the value
+     * @param dst
+     *            the destination, at least <code>MAX_BINARY_TEXT</code>
+     *            characters
+     * @return the number of characters written
+     */
+    static int format(DatabaseField.Type type, int value, char[] dst) {
+
+        if (EMPTY == value) {
+            return 0;
+        }
+
+        final boolean money = (DatabaseField.Type.MONEY == type);
+        long abs = Math.abs((long) value);
+
+        // digits are written backwards from the end of dst
+        int pos = dst.length;
+        if (money) {
+            dst[--pos] = (char) ('0' + (abs % 10));
+            abs /= 10;
+            dst[--pos] = (char) ('0' + (abs % 10));
+            abs /= 10;
+            dst[--pos] = '.';
+        }
+        do {
+            dst[--pos] = (char) ('0' + (abs % 10));
+            abs /= 10;
+        } while (abs > 0);
+        if (money) {
+            dst[--pos] = '$';
+        }
+        if (value < 0) {
+            dst[--pos] = '-';
+        }
+
+        final int length = dst.length - pos;
+        System.arraycopy(dst, pos, dst, 0, length);
+        return length;
+    }
+}
@@ -0,0 +1,87 @@
+package suncertify.db;
+
+import java.util.Arrays;
+
+
+/**
+ * Maps record-numbers to the slots in the database-file where the records
+ * are stored. Records are stored in the slot with the same index until the
+ * file is compacted, so no memory is used until the first record is moved.
+ * The mapping only lives as long as the database is open. <br/>
+ * <br/>
+ * This class is not thread-safe, but reading methods may be called in parallel
+ * as long as no modifying method runs at the same time.
+ *
+ * @author Lars Hvile
+ */
+final class RecordMap {
+
+    private int[] toSlot   = null; // null while records aren't moved
+    private int[] toRecord = null;
+
+
+    /**
+     * Returns the slot where a record is stored.
+     *
+     * @param record
+     *            the record-number
+     * @return the slot's index
+     */
+    int getSlot(int record) {
+        return (((null == toSlot) || (record >= toSlot.length))
+                ? record : toSlot[record]);
+    }
+
+
+    /**
+     * Returns the record stored in a slot.
+     *
+     * @param slot
+     *            the slot's index
+     * @return the record-number
+     */
+    int getRecord(int slot) {
+        return (((null == toRecord) || (slot >= toRecord.length))
+                ? slot : toRecord[slot]);
+    }
+
+
+    /**
+     * Registers the slot where a record is stored.
+     *
+     * @param record
+     *            the record-number
+     * @param slot
+     *            the slot's index
+     */
+    void map(int record, int slot) {
+        if ((null == toSlot) && (record == slot)) {
+            return;
+        }
+
+        toSlot = grow(toSlot, record);
+        toRecord = grow(toRecord, slot);
+        toSlot[record] = slot;
+        toRecord[slot] = record;
+    }
+
+
+    /*
+     * Makes sure an index is within the array, new entries map to the same
+     * index.
+     */
+    private static int[] grow(int[] array, int index) {
+        final int oldLength = ((null == array) ? 0 : array.length);
+        if (index < oldLength) {
+            return array;
+        }
+
+        final int[] tmp = ((null == array)
+                ? new int[Math.max(64, index + 1)]
+                : Arrays.copyOf(array, Math.max(index + 1, oldLength * 2)));
+        for (int i = oldLength; i < tmp.length; i++) {
+            tmp[i] = i;
+        }
+        return tmp;
+    }
+}
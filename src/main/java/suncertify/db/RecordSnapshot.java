@@ -0,0 +1,122 @@
+package suncertify.db;
+
+import java.util.HashMap;
+import java.util.Map;
+
+
+/**
+ * The state of the records at a point in time, used by <code>Data</code> to
+ * write a consistent backup while the database is modified. Nothing is
+ * copied up front: the records are read from the storage while the backup is
+ * written, and a record is only preserved here if it's modified before it's
+ * been copied (copy-on-write). Records created after the snapshot was taken
+ * aren't part of it. <br/>
+ * <br/>
+ * Instances aren't thread-safe, <code>Data</code> guards them with its
+ * state-lock.
+ *
+ * @author Lars Hvile
+ */
+final class RecordSnapshot {
+
+    // pre-image of records that were deleted when the snapshot was taken
+    private static final String[] DELETED = new String[0];
+
+    private final int                    numRecords;
+    private int                          numCopied;
+    private final Map<Integer, String[]> preImages
+            = new HashMap<Integer, String[]>();
+
+
+    /**
+     * Creates a snapshot.
+     *
+     * @param numRecords
+     *            the number of records when the snapshot is taken, deleted
+     *            ones included
+     */
+    RecordSnapshot(int numRecords) {
+        this.numRecords = numRecords;
+    }
+
+
+    /**
+     * Returns the number of records in the snapshot, deleted ones included.
+     *
+     * @return the number of records
+     */
+    int getNumRecords() {
+        return numRecords;
+    }
+
+
+    /**
+     * Checks if a record must be preserved before it's modified, i.e. if it's
+     * part of the snapshot, hasn't been copied yet and hasn't been preserved
+     * already.
+     *
+     * @param recNo
+     *            the record's id
+     * @return <code>true</code> if <code>preserve()</code> should be called
+     */
+    boolean needsPreImage(int recNo) {
+        return ((recNo >= numCopied) && (recNo < numRecords)
+                && !preImages.containsKey(recNo));
+    }
+
+
+    /**
+     * Preserves a record's state before it's modified, only the first call
+     * for each record has any effect.
+     *
+     * @param recNo
+     *            the record's id
+     * @param values
+     *            the record's values, <code>null</code> if it's deleted
+     */
+    void preserve(int recNo, String[] values) {
+        if (needsPreImage(recNo)) {
+            preImages.put(recNo, ((null == values) ? DELETED : values));
+        }
+    }
+
+
+    /**
+     * Checks if a record has been preserved.
+     *
+     * @param recNo
+     *            the record's id
+     * @return <code>true</code> if <code>getPreImage()</code> holds the
+     *         record's state
+     */
+    boolean isPreserved(int recNo) {
+        return preImages.containsKey(recNo);
+    }
+
+
+    /**
+     * Returns a record's preserved state.
+     *
+     * @param recNo
+     *            the record's id
+     * @return the record's values, <code>null</code> if it was deleted
+     */
+    String[] getPreImage(int recNo) {
+        final String[] values = preImages.get(recNo);
+        return ((DELETED == values) ? null : values);
+    }
+
+
+    /**
+     * Registers that a record has been copied, records are copied in
+     * ascending order. The record's preserved state is no longer needed, and
+     * it doesn't have to be preserved again.
+     *
+     * @param recNo
+     *            the record's id
+     */
+    void copied(int recNo) {
+        preImages.remove(recNo);
+        numCopied = recNo + 1;
+    }
+}
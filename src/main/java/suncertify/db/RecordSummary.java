@@ -0,0 +1,219 @@
+package suncertify.db;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+
+
+/**
+ * Static helpers that persist the record-summary of a database-file in a
+ * small sidecar-file, allowing the database to be opened without scanning
+ * every record. The summary holds the deletion-bitmap (which also gives the
+ * active count and the free slots) and a clean-shutdown marker. <br/>
+ * <br/>
+ * The summary is marked as dirty before the database is modified, and is
+ * only marked as clean again after the database has been closed properly. A
+ * summary that is dirty, damaged or doesn't match the database-file is
+ * ignored, and the caller falls back to scanning the file. <br/>
+ * <br/>
+ * Deletes don't change the length of the database-file, so a replaced or
+ * restored copy often has the same length. The summary therefore also holds
+ * a stamp of the file: its modification-time and a checksum of its first and
+ * last blocks.
+ *
+ * @author Lars Hvile
+ */
+final class RecordSummary {
+
+    // magic-value used to identify a summary-file
+    private static final int MAGIC = 0x53554d32;
+
+    // magic + clean-flag
+    private static final int MARKER_SIZE = 5;
+
+    // marker + record-length + db-length + modified + sample + slots + words
+    private static final int HEADER_SIZE = MARKER_SIZE + 4 + 8 + 8 + 4 + 4
+            + 4;
+
+    // number of bytes at each end of the database-file in the sample
+    private static final int SAMPLE_SIZE = 64 * 1024;
+
+    // crc32 of everything before it
+    private static final int TRAILER_SIZE = 4;
+
+    private static final Logger logger = Logger.getLogger(
+            RecordSummary.class.getName());
+
+
+    /*
+     * Private constructor, prevents instantiation.
+     */
+    private RecordSummary() {
+    }
+
+
+    /**
+     * Loads the record-summary of a database-file.
+     *
+     * @param file
+     *            the summary-file
+     * @param recordLen
+     *            number of bytes / record in the database
+     * @param databaseFile
+     *            the database-file
+     * @return a <code>SlotAllocator</code> based on the summary, or
+     *         <code>null</code> if the summary can't be trusted
+     * @throws IOException
+     *             on I/O-errors
+     */
+    static SlotAllocator load(File file, int recordLen, File databaseFile)
+            throws IOException {
+
+        if (!file.isFile() || (file.length() < (HEADER_SIZE + TRAILER_SIZE))
+                || (file.length() > Integer.MAX_VALUE)) {
+            return null;
+        }
+
+        final byte[] content = new byte[(int) file.length()];
+        final RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            raf.readFully(content);
+        } finally {
+            raf.close();
+        }
+
+        final ByteBuffer tmp = ByteBuffer.wrap(content);
+        final int magic     = tmp.getInt();
+        final boolean clean = (0 != tmp.get());
+        final int len       = tmp.getInt();
+        final long length   = tmp.getLong();
+        final long modified = tmp.getLong();
+        final int sample    = tmp.getInt();
+        final int numSlots  = tmp.getInt();
+        final int numWords  = tmp.getInt();
+
+        if ((MAGIC != magic) || !clean || (recordLen != len)
+                || (databaseFile.length() != length)
+                || (databaseFile.lastModified() != modified)
+                || (numSlots < 0) || (numWords < 0)
+                || (content.length != (HEADER_SIZE + (8L * numWords)
+                        + TRAILER_SIZE))) {
+            logger.info("record-summary is missing or out of date");
+            return null;
+        }
+
+        final long[] deleted = new long[numWords];
+        for (int i = 0; i < numWords; i++) {
+            deleted[i] = tmp.getLong();
+        }
+
+        if (checksum(content, tmp.position()) != tmp.getInt()) {
+            logger.info("record-summary is damaged");
+            return null;
+        } else if (sample(databaseFile) != sample) {
+            logger.info("database-file has been replaced");
+            return null;
+        }
+
+        return new SlotAllocator(deleted, numSlots);
+    }
+
+
+    /**
+     * Marks the summary as dirty, must be done before the database is
+     * modified.
+     *
+     * @param file
+     *            the summary-file
+     * @throws IOException
+     *             on I/O-errors
+     */
+    static void markDirty(File file) throws IOException {
+        final ByteBuffer tmp = ByteBuffer.allocate(MARKER_SIZE);
+        tmp.putInt(MAGIC).put((byte) 0);
+        write(file, tmp.array());
+    }
+
+
+    /**
+     * Saves the record-summary and marks it as clean, must be done after the
+     * database-file has been forced to disk.
+     *
+     * @param file
+     *            the summary-file
+     * @param recordLen
+     *            number of bytes / record in the database
+     * @param databaseFile
+     *            the database-file, which must not be modified afterwards
+     * @param slots
+     *            the database's <code>SlotAllocator</code>
+     * @throws IOException
+     *             on I/O-errors
+     */
+    static void save(File file, int recordLen, File databaseFile,
+            SlotAllocator slots) throws IOException {
+
+        final long[] deleted = slots.getDeletionBitmap();
+        final ByteBuffer tmp = ByteBuffer.allocate(HEADER_SIZE
+                + (8 * deleted.length) + TRAILER_SIZE);
+
+        tmp.putInt(MAGIC).put((byte) 1);
+        tmp.putInt(recordLen);
+        tmp.putLong(databaseFile.length());
+        tmp.putLong(databaseFile.lastModified());
+        tmp.putInt(sample(databaseFile));
+        tmp.putInt(slots.getNumSlots());
+        tmp.putInt(deleted.length);
+        for (long word : deleted) {
+            tmp.putLong(word);
+        }
+        tmp.putInt(checksum(tmp.array(), tmp.position()));
+
+        write(file, tmp.array());
+    }
+
+
+    private static void write(File file, byte[] content) throws IOException {
+        final RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            raf.setLength(0);
+            raf.write(content);
+            raf.getChannel().force(true);
+        } finally {
+            raf.close();
+        }
+    }
+
+
+    /*
+     * Checksum of the first and last blocks of the database-file, which
+     * covers the header and the most recently appended records.
+     */
+    private static int sample(File databaseFile) throws IOException {
+        final CRC32 crc = new CRC32();
+        final RandomAccessFile raf = new RandomAccessFile(databaseFile, "r");
+        try {
+            final long length = raf.length();
+            final byte[] block = new byte[(int) Math.min(SAMPLE_SIZE,
+                    length)];
+            raf.readFully(block);
+            crc.update(block);
+            raf.seek(length - block.length);
+            raf.readFully(block);
+            crc.update(block);
+        } finally {
+            raf.close();
+        }
+        return (int) crc.getValue();
+    }
+
+
+    private static int checksum(byte[] buffer, int length) {
+        final CRC32 crc = new CRC32();
+        crc.update(buffer, 0, length);
+        return (int) crc.getValue();
+    }
+}
@@ -0,0 +1,133 @@
+package suncertify.db;
+
+
+/**
+ * Read-only view of a single record, used when scanning the database without
+ * materializing every record as a <code>String[]</code>. The fields are
+ * accessed directly in the record's bytes, with the same trimming as
+ * <code>DBMain.read()</code>. <br/>
+ * <br/>
+ * NOTE: a view is only valid during the call to
+ * <code>RecordVisitor.visit()</code>, the same instance is reused for every
+ * record and must not be kept.
+ *
+ * @author Lars Hvile
+ * @see RecordVisitor
+ * @see ExtendedDBMain#scan(RecordVisitor)
+ */
+public interface RecordView {
+
+    /**
+     * Returns the record's id.
+     *
+     * @return the record-number
+     */
+    int getRecNo();
+
+
+    /**
+     * Returns the number of fields in the record.
+     *
+     * @return the number of fields
+     */
+    int getFieldCount();
+
+
+    /**
+     * Returns the length of a field's value, whitespace/padding excluded.
+     *
+     * @param field
+     *            the field's index
+     * @return the number of characters in the value
+     */
+    int length(int field);
+
+
+    /**
+     * Returns a single character of a field's value.
+     *
+     * @param field
+     *            the field's index
+     * @param index
+     *            index of the character, <code>0 .. length(field) - 1</code>
+     * @return the character
+     * @throws IndexOutOfBoundsException
+     *             if the index is out of range
+     */
+    char charAt(int field, int index);
+
+
+    /**
+     * Compares a field's value to a sequence of bytes, in the same way as
+     * comparing two unsigned byte-strings. <code>NUMBER</code> and
+     * <code>MONEY</code> fields are compared by their value, see
+     * <code>getInt()</code>, unless either of them isn't a valid number.
+     *
+     * @param field
+     *            the field's index
+     * @param value
+     *            the bytes to compare with
+     * @return a negative value, zero or a positive value if the field's value
+     *         is less than, equal to or greater than <code>value</code>
+     */
+    int compareTo(int field, byte[] value);
+
+
+    /**
+     * Checks if a field's value equals a sequence of characters.
+     *
+     * @param field
+     *            the field's index
+     * @param value
+     *            the characters to compare with
+     * @return <code>true</code> if the value is equal
+     */
+    boolean contentEquals(int field, CharSequence value);
+
+
+    /**
+     * Checks if a field's value starts with a prefix, ignoring case.
+     *
+     * @param field
+     *            the field's index
+     * @param prefix
+     *            the prefix
+     * @return <code>true</code> if the value starts with the prefix
+     */
+    boolean startsWithIgnoreCase(int field, CharSequence prefix);
+
+
+    /**
+     * Returns the value of a <code>NUMBER</code> or <code>MONEY</code> field
+     * as an integer, <code>MONEY</code> in cents. Comparing these values is
+     * cheaper than comparing their text.
+     *
+     * @param field
+     *            the field's index
+     * @return the value, <code>Integer.MIN_VALUE</code> if the field is
+     *         empty
+     * @throws NumberFormatException
+     *             if the field isn't numeric, or contains an invalid value
+     */
+    int getInt(int field);
+
+
+    /**
+     * Returns a field's value as a <code>String</code>. A new instance is
+     * created for each call.
+     *
+     * @param field
+     *            the field's index
+     * @return the value
+     */
+    String getString(int field);
+
+
+    /**
+     * Returns all field-values, equal to the result of
+     * <code>DBMain.read()</code>.
+     *
+     * @return a <code>String[]</code> with the field-values
+     */
+    String[] toArray();
+}
@@ -0,0 +1,22 @@
+package suncertify.db;
+
+
+/**
+ * Callback used when scanning the records in a database.
+ *
+ * @author Lars Hvile
+ * @see ExtendedDBMain#scan(RecordVisitor)
+ */
+public interface RecordVisitor {
+
+    /**
+     * Visits an active record.
+     *
+     * @param record
+     *            a <code>RecordView</code> of the record, only valid during
+     *            this call
+     * @return <code>true</code> to continue the scan, <code>false</code> to
+     *         stop it
+     */
+    boolean visit(RecordView record);
+}
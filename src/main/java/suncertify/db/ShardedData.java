@@ -0,0 +1,604 @@
+package suncertify.db;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Logger;
+
+
+/**
+ * <code>ExtendedDBMain</code> spread over several database-files (shards),
+ * each one opened by its own <code>Data</code>. A shard has its own file,
+ * storage and locks, so writers to different shards never wait for each
+ * other, and the files may be placed on different disks. <br/>
+ * <br/>
+ * A record is stored in the shard given by the hash of its key (name and
+ * location), so key-constraints are still enforced by a single
+ * <code>Data</code>. The record-numbers used by clients encode the shard:
+ * <code>recNo = localRecNo * numShards + shard</code>. <code>find()</code>
+ * searches the shards in parallel. <br/>
+ * <br/>
+ * The shards must be created by <code>split()</code>, and always be opened
+ * in the same order. This class is thread-safe.
+ *
+ * @author Lars Hvile
+ */
+public final class ShardedData implements ExtendedDBMain {
+
+    private final Logger logger = Logger.getLogger(
+            ShardedData.class.getName());
+
+    private final Data[]          shards;
+    private final int[]           keyIndexes;  // fields in the composite-key
+    private final ExecutorService searchers;
+
+
+    /**
+     * Opens the shards, using the default options.
+     *
+     * @param shardFiles
+     *            the shards' database-files, in the order they were created
+     * @throws FileNotFoundException
+     *             if a file doesn't exist, or isn't writable
+     * @throws DatabaseException
+     *             if a file isn't recognized as a valid database-file, or
+     *             the shards' fields are different
+     * @throws IOException
+     *             on I/O-errors
+     */
+    public ShardedData(File[] shardFiles) throws FileNotFoundException,
+            IOException {
+        this(shardFiles, new DataOptions());
+    }
+
+
+    /**
+     * Opens the shards.
+     *
+     * @param shardFiles
+     *            the shards' database-files, in the order they were created
+     * @param options
+     *            the <code>DataOptions</code> used for every shard
+     * @throws IllegalArgumentException
+     *             if there are no shards
+     * @throws FileNotFoundException
+     *             if a file doesn't exist, or isn't writable
+     * @throws DatabaseException
+     *             if a file isn't recognized as a valid database-file, or
+     *             the shards' fields are different
+     * @throws IOException
+     *             on I/O-errors
+     */
+    public ShardedData(File[] shardFiles, DataOptions options)
+            throws FileNotFoundException, IOException {
+
+        if (0 == shardFiles.length) {
+            throw new IllegalArgumentException("no shards");
+        }
+
+        this.shards = new Data[shardFiles.length];
+        try {
+            for (int i = 0; i < shards.length; i++) {
+                shards[i] = new Data(shardFiles[i], options);
+                if (!isSameFields(shards[0].getFields(), shards[i]
+                        .getFields())) {
+                    throw new DatabaseException("the fields of "
+                            + shardFiles[i] + " are different");
+                }
+            }
+        } catch (IOException e) {
+            closeShards();
+            throw e;
+        } catch (RuntimeException e) {
+            closeShards();
+            throw e;
+        }
+
+        this.keyIndexes = Data.getKeyIndexes(shards[0].getFields());
+        this.searchers = Executors.newFixedThreadPool(shards.length,
+                new SearchThreadFactory());
+
+        logger.info("opened " + shards.length + " shard(s), "
+                + Arrays.asList(shardFiles));
+    }
+
+
+    /**
+     * Distributes the active records of a database-file over new
+     * database-files, which can be opened as shards. The source must be a
+     * closed database, it's never modified. The shards use the same version
+     * of the file-format as the source, but no fields are
+     * dictionary-encoded.
+     *
+     * @param source
+     *            the database-file to split
+     * @param targets
+     *            the shards' database-files, none of them may exist
+     * @return the number of records copied
+     * @throws IllegalArgumentException
+     *             if there are no targets
+     * @throws DatabaseException
+     *             if the source isn't a valid database-file
+     * @throws IOException
+     *             on I/O-errors, or if a target exists
+     */
+    public static int split(File source, File[] targets) throws IOException {
+
+        if (0 == targets.length) {
+            throw new IllegalArgumentException("no shards");
+        }
+        for (File target : targets) {
+            if (target.exists()) {
+                throw new IOException("target exists: " + target);
+            }
+        }
+
+        final DataFileAccess access = DataFileAccess.create(source,
+                new DataOptions());
+        final List<DataOutputStream> out = new ArrayList<DataOutputStream>();
+
+        try {
+            final RecordFormat format = new RecordFormat(access.getFormat()
+                    .getVersion(), access.getFields());
+            final int[] keyIndexes = Data.getKeyIndexes(access.getFields());
+            int numRecords = 0;
+
+            for (File target : targets) {
+                out.add(new DataOutputStream(new BufferedOutputStream(
+                        new FileOutputStream(target))));
+                format.write(out.get(out.size() - 1));
+            }
+
+            for (int record = 0; record < access.getNumRecords(); record++) {
+                if (!access.isDeleted(record)) {
+                    final String[] data = access.read(record);
+                    out.get(getShard(data, keyIndexes, targets.length))
+                            .write(format.encode(data));
+                    numRecords++;
+                }
+            }
+
+            for (DataOutputStream stream : out) {
+                stream.close();
+            }
+            return numRecords;
+        } catch (IOException e) {
+            closeAfterFailure(out, targets);
+            throw e;
+        } catch (RuntimeException e) {
+            closeAfterFailure(out, targets);
+            throw e;
+        } finally {
+            access.close();
+        }
+    }
+
+
+    private static void closeAfterFailure(List<DataOutputStream> out,
+            File[] targets) {
+        for (DataOutputStream stream : out) {
+            try {
+                stream.close();
+            } catch (IOException e) {}
+        }
+        for (File target : targets) {
+            if (target.exists() && !target.delete()) {
+                target.deleteOnExit();
+            }
+        }
+    }
+
+
+    /**
+     * Closes every shard, and stops the search-threads.
+     *
+     * @throws IOException
+     *             if an IO-error occurs while closing
+     */
+    public void close() throws IOException {
+        searchers.shutdown();
+        closeShards();
+    }
+
+
+    private void closeShards() throws IOException {
+        IOException failure = null;
+        for (Data shard : shards) {
+            if (null != shard) {
+                try {
+                    shard.close();
+                } catch (IOException e) {
+                    failure = e;
+                }
+            }
+        }
+        if (null != failure) {
+            throw failure;
+        }
+    }
+
+
+    /**
+     * Returns the number of shards.
+     *
+     * @return the number of shards
+     */
+    public int getNumShards() {
+        return shards.length;
+    }
+
+
+    /**
+     * Returns the number of active (not deleted) records in all the shards.
+     *
+     * @return the number of active records
+     */
+    public int size() {
+        int size = 0;
+        for (Data shard : shards) {
+            size += shard.size();
+        }
+        return size;
+    }
+
+
+    @Override
+    public String toString() {
+        return ("ShardedData, shards: " + shards.length + ", numRecords: "
+                + size());
+    }
+
+
+    @Override
+    public DatabaseField[] getFields() {
+        return shards[0].getFields();
+    }
+
+
+    @Override
+    public String[] read(int recNo) throws RecordNotFoundException {
+        return getShard(recNo).read(getLocalRecNo(recNo));
+    }
+
+
+    /**
+     * Updates a record. The key can't be changed so that the record belongs
+     * in another shard.
+     *
+     * @throws IllegalArgumentException
+     *             if the new key belongs in another shard
+     */
+    @Override
+    public void update(int recNo, String[] data)
+            throws RecordNotFoundException {
+        final Data shard = getShard(recNo);
+        if (shards[getShard(shard.normalize(data), keyIndexes,
+                shards.length)] != shard) {
+            throw new IllegalArgumentException("the key can't be changed to "
+                    + "one that belongs in another shard");
+        }
+        shard.update(getLocalRecNo(recNo), data);
+    }
+
+
+    @Override
+    public void delete(int recNo) throws RecordNotFoundException {
+        getShard(recNo).delete(getLocalRecNo(recNo));
+    }
+
+
+    @Override
+    public int[] find(String[] criteria) throws RecordNotFoundException {
+        return search(criteria, false);
+    }
+
+
+    @Override
+    public int[] findContaining(String[] tokens)
+            throws RecordNotFoundException {
+        return search(tokens, true);
+    }
+
+
+    /*
+     * Searches the shards in parallel, using find() or findContaining().
+     */
+    private int[] search(final String[] criteria, final boolean tokens)
+            throws RecordNotFoundException {
+
+        final List<Future<int[]>> results = new ArrayList<Future<int[]>>();
+        for (final Data shard : shards) {
+            results.add(searchers.submit(new Callable<int[]>() {
+                @Override public int[] call() {
+                    try {
+                        return (tokens ? shard.findContaining(criteria)
+                                : shard.find(criteria));
+                    } catch (RecordNotFoundException e) {
+                        return new int[0];
+                    }
+                }
+            }));
+        }
+
+        final int[][] matches = new int[shards.length][];
+        int numMatches = 0;
+        for (int i = 0; i < shards.length; i++) {
+            matches[i] = getResult(results.get(i));
+            numMatches += matches[i].length;
+        }
+
+        if (0 == numMatches) {
+            throw new RecordNotFoundException();
+        }
+
+        final int[] tmp = new int[numMatches];
+        for (int i = 0, j = 0; i < shards.length; i++) {
+            for (int localRecNo : matches[i]) {
+                tmp[j++] = getRecNo(i, localRecNo);
+            }
+        }
+        Arrays.sort(tmp);
+        return tmp;
+    }
+
+
+    /*
+     * Waits for a shard's search, rethrowing unchecked exceptions from the
+     * search-thread.
+     */
+    private static int[] getResult(Future<int[]> result) {
+        try {
+            return result.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new DatabaseException(e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            } else if (e.getCause() instanceof Error) {
+                throw (Error) e.getCause();
+            }
+            throw new DatabaseException(e.getCause());
+        }
+    }
+
+
+    @Override
+    public int findByKey(String... key) throws RecordNotFoundException {
+
+        if (key.length != keyIndexes.length) {
+            throw new IllegalArgumentException("invalid number of key-fields");
+        }
+
+        final String[] data = new String[getFields().length];
+        Arrays.fill(data, "");
+        for (int i = 0; i < keyIndexes.length; i++) {
+            data[keyIndexes[i]] = key[i];
+        }
+
+        final int shard = getShard(shards[0].normalize(data), keyIndexes,
+                shards.length);
+        return getRecNo(shard, shards[shard].findByKey(key));
+    }
+
+
+    @Override
+    public int create(String[] data) throws DuplicateKeyException {
+        final int shard = getShard(shards[0].normalize(data), keyIndexes,
+                shards.length);
+        return getRecNo(shard, shards[shard].create(data));
+    }
+
+
+    @Override
+    public void lock(int recNo) throws RecordNotFoundException {
+        getShard(recNo).lock(getLocalRecNo(recNo));
+    }
+
+
+    @Override
+    public void unlock(int recNo) throws RecordNotFoundException {
+        getShard(recNo).unlock(getLocalRecNo(recNo));
+    }
+
+
+    @Override
+    public boolean isLocked(int recNo) throws RecordNotFoundException {
+        return getShard(recNo).isLocked(getLocalRecNo(recNo));
+    }
+
+
+    /**
+     * Visits every active record in one shard at a time. The record-numbers
+     * of the visited records are the ones used by this class.
+     */
+    @Override
+    public void scan(RecordVisitor visitor) {
+        final ShardVisitor shardVisitor = new ShardVisitor(visitor);
+        for (int i = 0; (i < shards.length) && !shardVisitor.stopped; i++) {
+            shardVisitor.shard = i;
+            shards[i].scan(shardVisitor);
+        }
+    }
+
+
+    private Data getShard(int recNo) throws RecordNotFoundException {
+        if (recNo < 0) {
+            throw new RecordNotFoundException("record #" + recNo
+                    + " doesn't exist");
+        }
+        return shards[recNo % shards.length];
+    }
+
+
+    private int getLocalRecNo(int recNo) {
+        return (recNo / shards.length);
+    }
+
+
+    private int getRecNo(int shard, int localRecNo) {
+        final long recNo = ((long) localRecNo * shards.length) + shard;
+        if (recNo > Integer.MAX_VALUE) {
+            throw new DatabaseException("record-number out of range, shard "
+                    + shard + ", record #" + localRecNo);
+        }
+        return (int) recNo;
+    }
+
+
+    /*
+     * Returns the shard of a record, based on its normalized key. The hash
+     * must never change, since it decides where the existing records are
+     * stored.
+     */
+    private static int getShard(String[] data, int[] keyIndexes,
+            int numShards) {
+        final StringBuilder key = new StringBuilder();
+        for (int index : keyIndexes) {
+            key.append((0 == key.length()) ? "" : "_").append(data[index]);
+        }
+        return ((key.toString().hashCode() & Integer.MAX_VALUE) % numShards);
+    }
+
+
+    private static boolean isSameFields(DatabaseField[] a,
+            DatabaseField[] b) {
+        if (a.length != b.length) {
+            return false;
+        }
+        for (int i = 0; i < a.length; i++) {
+            if (!a[i].getName().equals(b[i].getName())
+                    || (a[i].getLength() != b[i].getLength())
+                    || (a[i].getType() != b[i].getType())
+                    || (a[i].isKey() != b[i].isKey())) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+
+    /*
+     * Passes the records of a shard on to a visitor, with the record-numbers
+     * used by this class.
+     */
+    private final class ShardVisitor implements RecordVisitor {
+
+        private final RecordVisitor visitor;
+        private final ShardView     view = new ShardView();
+        int                         shard;
+        boolean                     stopped;
+
+
+        ShardVisitor(RecordVisitor visitor) {
+            this.visitor = visitor;
+        }
+
+
+        @Override
+        public boolean visit(RecordView record) {
+            view.record = record;
+            view.recNo = getRecNo(shard, record.getRecNo());
+            stopped = !visitor.visit(view);
+            return !stopped;
+        }
+    }
+
+
+    /*
+     * A record-view with a global record-number.
+     */
+    private static final class ShardView implements RecordView {
+
+        RecordView record;
+        int        recNo;
+
+
+        @Override
+        public int getRecNo() {
+            return recNo;
+        }
+
+
+        @Override
+        public int getFieldCount() {
+            return record.getFieldCount();
+        }
+
+
+        @Override
+        public int length(int field) {
+            return record.length(field);
+        }
+
+
+        @Override
+        public char charAt(int field, int index) {
+            return record.charAt(field, index);
+        }
+
+
+        @Override
+        public int compareTo(int field, byte[] value) {
+            return record.compareTo(field, value);
+        }
+
+
+        @Override
+        public boolean contentEquals(int field, CharSequence value) {
+            return record.contentEquals(field, value);
+        }
+
+
+        @Override
+        public boolean startsWithIgnoreCase(int field, CharSequence prefix) {
+            return record.startsWithIgnoreCase(field, prefix);
+        }
+
+
+        @Override
+        public int getInt(int field) {
+            return record.getInt(field);
+        }
+
+
+        @Override
+        public String getString(int field) {
+            return record.getString(field);
+        }
+
+
+        @Override
+        public String[] toArray() {
+            return record.toArray();
+        }
+    }
+
+
+    private static final class SearchThreadFactory implements ThreadFactory {
+
+        private final AtomicInteger counter = new AtomicInteger();
+
+
+        @Override
+        public Thread newThread(Runnable r) {
+            final Thread thread = new Thread(r, "shard-search-"
+                    + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
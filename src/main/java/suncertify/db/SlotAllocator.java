@@ -0,0 +1,220 @@
+package suncertify.db;
+
+import java.util.Arrays;
+
+
+/**
+ * Keeps track of which record-slots that are in use, using an in-memory
+ * deletion-bitmap. Checking if a record is deleted is a constant-time
+ * operation, and the lowest deleted slot is found by searching the bitmap a
+ * word at a time from a hint. None of the operations require any I/O. <br/>
+ * <br/>
+ * The state is built once when the database is opened, and must be kept in
+ * step with the file by calling <code>allocate()</code> and
+ * <code>free()</code>. <br/>
+ * <br/>
+ * This class is not thread-safe, but reading methods may be called in parallel
+ * as long as no modifying method runs at the same time.
+ *
+ * @author Lars Hvile
+ */
+final class SlotAllocator {
+
+    private static final int BITS_PER_WORD = 64;
+    private static final int MIN_CAPACITY  = 64;
+
+    private long[] deleted;   // one bit / slot, set if the slot is free
+    private int    firstFree; // no free slots in the words before this one
+    private int    numFree;
+    private int    numSlots;
+
+
+    /**
+     * Class-constructor.
+     *
+     * @param deleted
+     *            the deletion-bitmap, bit <code>n</code> of word
+     *            <code>n / 64</code> is set if slot <code>n</code> is deleted
+     * @param numSlots
+     *            the total number of slots, including deleted ones
+     */
+    SlotAllocator(long[] deleted, int numSlots) {
+
+        this.numSlots = numSlots;
+        this.deleted  = Arrays.copyOf(deleted, Math.max(wordCount(numSlots),
+                wordCount(MIN_CAPACITY)));
+
+        // bits beyond the last slot must be clear
+        if (0 != (numSlots % BITS_PER_WORD)) {
+            this.deleted[numSlots / BITS_PER_WORD] &= (mask(numSlots) - 1);
+        }
+        Arrays.fill(this.deleted, wordCount(numSlots), this.deleted.length,
+                0L);
+
+        for (int word = 0; word < wordCount(numSlots); word++) {
+            numFree += Long.bitCount(this.deleted[word]);
+        }
+    }
+
+
+    /**
+     * Returns the total number of slots, including deleted ones.
+     *
+     * @return the number of slots
+     */
+    int getNumSlots() {
+        return numSlots;
+    }
+
+
+    /**
+     * Returns the number of slots in use.
+     *
+     * @return the number of active slots
+     */
+    int getNumActive() {
+        return (numSlots - numFree);
+    }
+
+
+    /**
+     * Returns a copy of the deletion-bitmap, in the format expected by the
+     * constructor.
+     *
+     * @return the deletion-bitmap
+     */
+    long[] getDeletionBitmap() {
+        return Arrays.copyOf(deleted, wordCount(numSlots));
+    }
+
+
+    /**
+     * Checks if a slot is deleted.
+     *
+     * @param slot
+     *            index of the slot
+     * @return <code>true</code> if the slot is deleted
+     * @throws IndexOutOfBoundsException
+     *             if the index is out of range
+     *             (slot < 0 || slot >= getNumSlots())
+     */
+    boolean isDeleted(int slot) {
+        verifyIndex(slot);
+        return (0 != (deleted[slot / BITS_PER_WORD] & mask(slot)));
+    }
+
+
+    /**
+     * Returns the lowest deleted slot.
+     *
+     * @return the index of the slot, <code>getNumSlots()</code> if no slot is
+     *         deleted
+     */
+    int getFirstFree() {
+        if (0 == numFree) {
+            return numSlots;
+        }
+
+        while (0 == deleted[firstFree]) {
+            firstFree++;
+        }
+
+        return ((firstFree * BITS_PER_WORD)
+                + Long.numberOfTrailingZeros(deleted[firstFree]));
+    }
+
+
+    /**
+     * Returns the highest slot in use.
+     *
+     * @return the index of the slot, -1 if all slots are deleted
+     */
+    int getLastActive() {
+        for (int slot = numSlots - 1; slot >= 0; slot--) {
+            if (!isDeleted(slot)) {
+                return slot;
+            }
+        }
+        return -1;
+    }
+
+
+    /**
+     * Allocates a slot for a new record, reusing the lowest deleted slot if
+     * possible.
+     *
+     * @return the index of the slot, equal to the old value of
+     *         <code>getNumSlots()</code> if a new slot was added
+     */
+    int allocate() {
+        final int slot = getFirstFree();
+
+        if (slot < numSlots) {
+            deleted[slot / BITS_PER_WORD] &= ~mask(slot);
+            numFree--;
+        } else {
+            numSlots++;
+            if (wordCount(numSlots) > deleted.length) {
+                deleted = Arrays.copyOf(deleted, deleted.length * 2);
+            }
+        }
+
+        return slot;
+    }
+
+
+    /**
+     * Removes the deleted slots at the end, if any.
+     *
+     * @return the new number of slots
+     */
+    int shrink() {
+        while ((numSlots > 0) && isDeleted(numSlots - 1)) {
+            numSlots--;
+            deleted[numSlots / BITS_PER_WORD] &= ~mask(numSlots);
+            numFree--;
+        }
+        firstFree = Math.min(firstFree, wordCount(numSlots));
+        return numSlots;
+    }
+
+
+    /**
+     * Marks a slot as deleted, making it available for reuse.
+     *
+     * @param slot
+     *            index of the slot
+     * @throws IndexOutOfBoundsException
+     *             if the index is out of range
+     *             (slot < 0 || slot >= getNumSlots())
+     * @throws IllegalStateException
+     *             if the slot is already deleted
+     */
+    void free(int slot) {
+        if (isDeleted(slot)) {
+            throw new IllegalStateException("slot #" + slot
+                    + " is already deleted");
+        }
+        deleted[slot / BITS_PER_WORD] |= mask(slot);
+        numFree++;
+        firstFree = Math.min(firstFree, slot / BITS_PER_WORD);
+    }
+
+
+    private void verifyIndex(int slot) {
+        if ((slot < 0) || (slot >= numSlots)) {
+            throw new IndexOutOfBoundsException("index out-of-bounds, "
+                    + slot + ", size=" + numSlots);
+        }
+    }
+
+
+    private static long mask(int slot) {
+        return (1L << (slot % BITS_PER_WORD));
+    }
+
+
+    private static int wordCount(int numSlots) {
+        return ((numSlots + BITS_PER_WORD - 1) / BITS_PER_WORD);
+    }
+}
@@ -0,0 +1,228 @@
+package suncertify.db;
+
+import java.io.IOException;
+
+
+/**
+ * The storage beneath <code>Data</code>: the records' layout, and the basic
+ * operations on single records. <code>Data</code> takes care of the
+ * higher-level functionality like locking, searching and key-constraints.
+ * <br/>
+ * <br/>
+ * <code>Data</code> normally selects the engine by the
+ * <code>StorageMode</code>, other engines are passed to
+ * <code>Data(StorageEngine)</code>. The engine is then owned by
+ * <code>Data</code>, and closed when <code>Data</code> is closed.
+ * <br/>
+ * <br/>
+ * Implementations aren't thread-safe for writers, proper synchronization is
+ * the client's responsibility. Reading methods (<code>read</code>,
+ * <code>scan</code>, <code>isDeleted</code>, <code>size</code> and
+ * <code>getFields</code>) may however be called by any number of threads in
+ * parallel, as long as no modifying method runs at the same time.
+ *
+ * @author Lars Hvile
+ * @see MemoryStore
+ */
+public interface StorageEngine {
+
+    /**
+     * Closes the storage after use. Any attempts to use the storage after
+     * this operation will fail.
+     *
+     * @throws IOException
+     *             if an IO-error occurs while closing
+     */
+    void close() throws IOException;
+
+
+    /**
+     * Returns the sequence-number of the latest modification, to be passed to
+     * <code>awaitDurable()</code>. Should be called by the writer before it
+     * releases its lock.
+     *
+     * @return the sequence-number
+     */
+    long getModificationSequence();
+
+
+    /**
+     * Blocks until a modification, and all modifications before it, are
+     * durable. Should be called after the writer has released its lock, so
+     * concurrent writers can share a group-commit. <br/>
+     * NOTE: this method can safely be called without any synchronization.
+     *
+     * @param sequence
+     *            the modification's sequence-number
+     * @throws IOException
+     *             on I/O-errors
+     */
+    void awaitDurable(long sequence) throws IOException;
+
+
+    /**
+     * Returns the number of reads served by a cache.
+     *
+     * @return the number of cache-hits, 0 if no cache is used
+     */
+    long getCacheHits();
+
+
+    /**
+     * Returns the number of reads that missed the cache.
+     *
+     * @return the number of cache-misses, 0 if no cache is used
+     */
+    long getCacheMisses();
+
+
+    /**
+     * Returns the database's field-definitions. <br/>
+     * NOTE: this method can safely be called without any synchronization.
+     *
+     * @return a <code>DatabaseField[]</code>
+     */
+    DatabaseField[] getFields();
+
+
+    /**
+     * Returns the number of active records in the database. <br/>
+     * NOTE: this method can safely be called without any synchronization.
+     *
+     * @return the number of records
+     */
+    int size();
+
+
+    /**
+     * Returns the total number of records in the database, including records
+     * that are deleted. Valid record-indexes are in the range
+     * <code>0 .. getNumRecords() - 1</code>.
+     *
+     * @return the number of records, including deleted ones
+     */
+    int getNumRecords();
+
+
+    /**
+     * Checks if a record is deleted.
+     *
+     * @param record
+     *            index of the record to check
+     * @return <code>true</code> if the record is deleted
+     * @throws IndexOutOfBoundsException
+     *             if the index is out of range
+     *             (index < 0 || index >= getNumRecords())
+     */
+    boolean isDeleted(int record);
+
+
+    /**
+     * Deletes a record.
+     *
+     * @param record
+     *            index of the record to delete
+     * @throws IndexOutOfBoundsException
+     *             if the index is out of range
+     *             (index < 0 || index >= getNumRecords())
+     * @throws IOException
+     *             on I/O-errors
+     */
+    void delete(int record) throws IOException;
+
+
+    /**
+     * Creates a new record in the database, possibly reusing an existing, but
+     * deleted record.
+     *
+     * @param data
+     *            a <code>String[]</code> with the field-values
+     * @return the index of the new record
+     * @throws IllegalArgumentException
+     *             if the fields can't be stored in the database
+     * @throws IOException
+     *             on I/O-errors
+     */
+    int create(String[] data) throws IOException;
+
+
+    /**
+     * Reads a record's fields.
+     *
+     * @param record
+     *            index of the record to read
+     * @return a <code>String[]</code> with the field-values
+     * @throws IndexOutOfBoundsException
+     *             if the index is out of range
+     *             (index < 0 || index >= getNumRecords())
+     * @throws IOException
+     *             on I/O-errors
+     */
+    String[] read(int record) throws IOException;
+
+
+    /**
+     * Visits every active record in the database, the same
+     * <code>RecordView</code> may be reused for all records.
+     *
+     * @param visitor
+     *            the <code>RecordVisitor</code> to call for each record
+     * @throws IOException
+     *             on I/O-errors
+     */
+    void scan(RecordVisitor visitor) throws IOException;
+
+
+    /**
+     * Writes the field-values of a record.
+     *
+     * @param record
+     *            index of the record to write
+     * @param data
+     *            a <code>String[]</code> with the field-values
+     * @throws IndexOutOfBoundsException
+     *             if the index is out of range
+     *             (index < 0 || index >= getNumRecords())
+     * @throws IllegalArgumentException
+     *             if the fields can't be stored in the database
+     * @throws IOException
+     *             on I/O-errors
+     */
+    void write(int record, String[] data) throws IOException;
+
+
+    /**
+     * Performs one step of reclaiming the space used by deleted or outdated
+     * records. Record-numbers aren't affected.
+     *
+     * @return <code>false</code> if there was nothing left to compact
+     * @throws IOException
+     *             on I/O-errors
+     */
+    boolean compact() throws IOException;
+
+
+    /**
+     * Verifies that the field-values are valid / approved for storage.
+     *
+     * @param data
+     *            a <code>String[]</code> with the field-values
+     * @throws IllegalArgumentException
+     *             if the fields can't be stored in the database
+     */
+    void verifyFieldFormat(String[] data);
+
+
+    /**
+     * Returns the field-values the way they will be stored, i.e. truncated,
+     * trimmed and formatted the same way as <code>read()</code> would return
+     * them.
+     *
+     * @param data
+     *            a <code>String[]</code> with the field-values
+     * @return the normalized field-values
+     * @throws IllegalArgumentException
+     *             if the fields can't be stored in the database
+     */
+    String[] normalize(String[] data);
+}
@@ -0,0 +1,33 @@
+package suncertify.db;
+
+
+/**
+ * Defines the ways the database-file can be accessed.
+ *
+ * @author Lars Hvile
+ * @see DataOptions#setStorageMode(StorageMode)
+ */
+public enum StorageMode {
+
+    /**
+     * The file is accessed through a <code>RandomAccessFile</code> opened in
+     * 'rws' mode, each access is a separate system-call.
+     */
+    RANDOM_ACCESS,
+
+    /**
+     * The file is mapped into memory, reads and writes become plain
+     * buffer-operations. Well suited for large files which are searched
+     * frequently.
+     */
+    MEMORY_MAPPED,
+
+    /**
+     * The database-file is only read while the database is open, every
+     * modification is appended to a segment-file next to it instead. Writes
+     * are sequential, which suits update-heavy workloads. Segments are merged
+     * in the background, and the modifications are written back to the
+     * database-file when the database is closed.
+     */
+    LOG_STRUCTURED
+}
@@ -0,0 +1,184 @@
+package suncertify.db;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicLong;
+
+
+/**
+ * Makes modifications durable according to a <code>Durability</code>.
+ * Writers register each modification with <code>modified()</code> while
+ * holding their write-lock, and then call <code>awaitDurable()</code> after
+ * the lock has been released. This allows concurrent writers to share a
+ * single force of the file when using <code>Durability.GROUP_COMMIT</code>.
+ * <br/>
+ * <br/>
+ * This class is thread-safe.
+ *
+ * @author Lars Hvile
+ */
+final class SyncCoordinator {
+
+    private final FileStorage storage;
+    private final Durability  durability;
+    private final long        windowMillis;
+
+    // sequence-number of the latest modification
+    private final AtomicLong modifiedSequence = new AtomicLong();
+
+    // guards the two fields below, used by group-commit only
+    private final Object monitor = new Object();
+    private long         forcedSequence;
+    private boolean      forceInProgress;
+
+
+    /**
+     * Class-constructor.
+     *
+     * @param storage
+     *            the <code>FileStorage</code> to force
+     * @param durability
+     *            the <code>Durability</code> to provide
+     * @param windowMillis
+     *            the number of milliseconds a group-commit waits for other
+     *            writers before forcing the file
+     */
+    SyncCoordinator(FileStorage storage, Durability durability,
+            long windowMillis) {
+        this.storage = storage;
+        this.durability = durability;
+        this.windowMillis = windowMillis;
+    }
+
+
+    /**
+     * Registers a modification.
+     *
+     * @return the modification's sequence-number, to be passed to
+     *         <code>awaitDurable()</code>
+     */
+    long modified() {
+        return modifiedSequence.incrementAndGet();
+    }
+
+
+    /**
+     * Returns the sequence-number of the latest modification.
+     *
+     * @return the sequence-number
+     */
+    long getModifiedSequence() {
+        return modifiedSequence.get();
+    }
+
+
+    /**
+     * Blocks until a modification, and all modifications before it, are
+     * durable.
+     *
+     * @param sequence
+     *            the modification's sequence-number
+     * @throws IOException
+     *             if unable to force the file
+     */
+    void awaitDurable(long sequence) throws IOException {
+        switch (durability) {
+            case FORCE:
+                storage.force();
+                break;
+            case GROUP_COMMIT:
+                groupCommit(sequence);
+                break;
+            default:
+                break; // already durable, or never
+        }
+    }
+
+
+    /*
+     * The first writer to arrive becomes the leader. It waits for the
+     * configured window, and then forces the file on behalf of everyone who
+     * registered a modification before the force started. Writers arriving
+     * while a force is in progress wait for it, and then for the next one if
+     * their modification wasn't covered.
+     */
+    private void groupCommit(long sequence) throws IOException {
+        boolean interrupted = false;
+        try {
+            synchronized (monitor) {
+                while (forceInProgress && (forcedSequence < sequence)) {
+                    interrupted |= waitUninterruptibly();
+                }
+                if (forcedSequence >= sequence) {
+                    return;
+                }
+                forceInProgress = true;
+            }
+
+            try {
+                interrupted |= sleepUninterruptibly(windowMillis);
+
+                final long target = modifiedSequence.get();
+                storage.force();
+
+                synchronized (monitor) {
+                    forcedSequence = Math.max(forcedSequence, target);
+                }
+            } finally {
+                synchronized (monitor) {
+                    forceInProgress = false;
+                    monitor.notifyAll();
+                }
+            }
+        } finally {
+            // restored after the force, an interrupted thread would close
+            // the file's channel
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+
+    /**
+     * Forces all remaining modifications to disk, used before the file is
+     * closed.
+     *
+     * @throws IOException
+     *             if unable to force the file
+     */
+    void flush() throws IOException {
+        if (Durability.SYNCHRONOUS != durability) {
+            storage.force();
+        }
+        synchronized (monitor) {
+            forcedSequence = modifiedSequence.get();
+            monitor.notifyAll();
+        }
+    }
+
+
+    /*
+     * Returns true if the thread was interrupted, the caller must restore
+     * the interrupt-flag.
+     */
+    private boolean waitUninterruptibly() {
+        try {
+            monitor.wait();
+            return false;
+        } catch (InterruptedException e) {
+            return true;
+        }
+    }
+
+
+    private static boolean sleepUninterruptibly(long millis) {
+        if (millis > 0) {
+            try {
+                Thread.sleep(millis);
+            } catch (InterruptedException e) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
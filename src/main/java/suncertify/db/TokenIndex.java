@@ -0,0 +1,126 @@
+package suncertify.db;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+
+/**
+ * In-memory inverted index of a field holding a comma-separated list, like
+ * the specialties, used by <code>Data</code> to find the records containing
+ * a token without scanning the database. Each distinct lower-cased token has
+ * a bitmap of the records containing it. <br/>
+ * <br/>
+ * The index is built when the database is opened, and updated after every
+ * modification. Instances aren't thread-safe, <code>Data</code> guards it
+ * with its state-lock.
+ *
+ * @author Lars Hvile
+ */
+final class TokenIndex {
+
+    private static final RecordBitmap EMPTY = new RecordBitmap();
+
+    // lower-cased token -> records
+    private final Map<String, RecordBitmap> postings
+            = new HashMap<String, RecordBitmap>();
+
+
+    /**
+     * Splits a value into its lower-cased tokens. The tokens are separated
+     * by commas, surrounding whitespace & empty tokens are ignored.
+     *
+     * @param value
+     *            the value
+     * @return the tokens, in the order they appear
+     */
+    static List<String> tokenize(String value) {
+        final List<String> tmp = new ArrayList<String>();
+        for (String token : value.split(",")) {
+            final String trimmed = token.trim();
+            if (trimmed.length() > 0) {
+                tmp.add(PrefixIndex.toKey(trimmed));
+            }
+        }
+        return tmp;
+    }
+
+
+    /**
+     * Checks if a value contains a token, ignoring case.
+     *
+     * @param value
+     *            the value
+     * @param token
+     *            the token
+     * @return <code>true</code> if one of the value's tokens equals the
+     *         token
+     */
+    static boolean contains(String value, String token) {
+        return tokenize(value).contains(PrefixIndex.toKey(token.trim()));
+    }
+
+
+    /**
+     * Returns the number of distinct tokens.
+     *
+     * @return the number of tokens
+     */
+    int getNumTokens() {
+        return postings.size();
+    }
+
+
+    /**
+     * Adds the tokens of a record's value.
+     *
+     * @param recNo
+     *            the record's id
+     * @param value
+     *            the record's value, as returned by <code>read()</code>
+     */
+    void add(int recNo, String value) {
+        for (String token : tokenize(value)) {
+            RecordBitmap bitmap = postings.get(token);
+            if (null == bitmap) {
+                bitmap = new RecordBitmap();
+                postings.put(token, bitmap);
+            }
+            bitmap.add(recNo);
+        }
+    }
+
+
+    /**
+     * Removes the tokens of a record's value.
+     *
+     * @param recNo
+     *            the record's id
+     * @param value
+     *            the record's value, as returned by <code>read()</code>
+     */
+    void remove(int recNo, String value) {
+        for (String token : tokenize(value)) {
+            final RecordBitmap bitmap = postings.get(token);
+            if ((null != bitmap) && bitmap.remove(recNo)
+                    && bitmap.isEmpty()) {
+                postings.remove(token);
+            }
+        }
+    }
+
+
+    /**
+     * Finds the records containing a token, ignoring case.
+     *
+     * @param token
+     *            the token
+     * @return the matching records, must not be modified
+     */
+    RecordBitmap find(String token) {
+        final RecordBitmap bitmap = postings.get(
+                PrefixIndex.toKey(token.trim()));
+        return ((null == bitmap) ? EMPTY : bitmap);
+    }
+}
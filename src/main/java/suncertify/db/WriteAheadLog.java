@@ -0,0 +1,286 @@
+package suncertify.db;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.zip.CRC32;
+
+
+/**
+ * Append-only log of the modifications done to a database-file. Each
+ * modification is appended to the log before the database-file itself is
+ * written. Only the log has to be forced to disk for a modification to be
+ * durable, the database-file is forced at checkpoints. If the application
+ * crashes, the log is replayed on the database-file the next time it is
+ * opened. <br/>
+ * <br/>
+ * An entry consists of the operation, the record-index, the offset within
+ * the record, the modified bytes and a checksum. Entries are applied by
+ * writing the bytes back to the same position, so replaying an entry more than
+ * once is harmless. A torn entry at the end of the log (the application
+ * crashed while appending it) is ignored, since the operation never
+ * completed. <br/>
+ * <br/>
+ * This class is not thread-safe, except for <code>getStorage().force()</code>
+ * which may be called while other threads append.
+ *
+ * @author Lars Hvile
+ */
+final class WriteAheadLog {
+
+    /**
+     * The logged operations.
+     */
+    enum Operation {
+        CREATE, UPDATE, DELETE
+    }
+
+    // magic-value used to identify a log-file
+    private static final int MAGIC = 0x57414c31;
+
+    // magic + record-length
+    private static final int LOG_HEADER_SIZE = 8;
+
+    // operation + record + offset + length
+    private static final int ENTRY_HEADER_SIZE = 13;
+
+    // crc32 of header + data
+    private static final int ENTRY_TRAILER_SIZE = 4;
+
+    private final File                    file;
+    private final RandomAccessFileStorage storage;
+    private final int                     recordLen;
+    private long                          size;
+
+
+    /**
+     * Opens a log-file, creating it if it doesn't exist.
+     *
+     * @param file
+     *            the log-file
+     * @param recordLen
+     *            number of bytes / record in the database
+     * @param synchronous
+     *            <code>true</code> if every append should be written
+     *            directly to disk
+     * @return a <code>WriteAheadLog</code>
+     * @throws DatabaseException
+     *             if the file isn't a log for this database
+     * @throws IOException
+     *             on I/O-errors
+     */
+    static WriteAheadLog open(File file, int recordLen, boolean synchronous)
+            throws IOException {
+
+        final RandomAccessFile raf = new RandomAccessFile(file,
+                synchronous ? "rws" : "rw");
+
+        try {
+            final WriteAheadLog log = new WriteAheadLog(file,
+                    new RandomAccessFileStorage(raf), recordLen);
+            log.verifyHeader();
+            return log;
+        } catch (IOException e) {
+            raf.close();
+            throw e;
+        } catch (RuntimeException e) {
+            raf.close();
+            throw e;
+        }
+    }
+
+
+    /*
+     * Private constructor for the factory-method.
+     */
+    private WriteAheadLog(File file, RandomAccessFileStorage storage,
+            int recordLen) throws IOException {
+        this.file = file;
+        this.storage = storage;
+        this.recordLen = recordLen;
+        this.size = storage.length();
+    }
+
+
+    private void verifyHeader() throws IOException {
+
+        if (size < LOG_HEADER_SIZE) {
+            writeHeader();
+            return;
+        }
+
+        final byte[] tmp = new byte[LOG_HEADER_SIZE];
+        storage.read(0, tmp, 0, tmp.length);
+        final ByteBuffer header = ByteBuffer.wrap(tmp);
+
+        if ((MAGIC != header.getInt()) || (recordLen != header.getInt())) {
+            throw new DatabaseException("write-ahead log " + file
+                    + " doesn't belong to the database");
+        }
+    }
+
+
+    private void writeHeader() throws IOException {
+        final ByteBuffer header = ByteBuffer.allocate(LOG_HEADER_SIZE);
+        header.putInt(MAGIC).putInt(recordLen);
+        storage.write(0, header.array(), 0, LOG_HEADER_SIZE);
+        storage.setLength(LOG_HEADER_SIZE);
+        size = LOG_HEADER_SIZE;
+    }
+
+
+    /**
+     * Returns the storage of the log-file, used to force the log to disk.
+     *
+     * @return a <code>FileStorage</code>
+     */
+    FileStorage getStorage() {
+        return storage;
+    }
+
+
+    /**
+     * Returns the size of the log.
+     *
+     * @return the size in bytes
+     */
+    long size() {
+        return size;
+    }
+
+
+    /**
+     * Checks if the log contains any entries.
+     *
+     * @return <code>true</code> if empty
+     */
+    boolean isEmpty() {
+        return (size <= LOG_HEADER_SIZE);
+    }
+
+
+    /**
+     * Appends an entry to the log with a single write.
+     *
+     * @param operation
+     *            the logged <code>Operation</code>
+     * @param record
+     *            index of the modified record
+     * @param offset
+     *            offset of the first modified byte within the record
+     * @param data
+     *            a <code>byte[]</code> containing the modified bytes
+     * @param dataOffset
+     *            offset of the first modified byte in <code>data</code>
+     * @param length
+     *            number of modified bytes
+     * @throws IOException
+     *             on I/O-errors
+     */
+    void append(Operation operation, int record, int offset, byte[] data,
+            int dataOffset, int length) throws IOException {
+
+        final ByteBuffer entry = ByteBuffer.allocate(ENTRY_HEADER_SIZE
+                + length + ENTRY_TRAILER_SIZE);
+        entry.put((byte) operation.ordinal());
+        entry.putInt(record);
+        entry.putInt(offset);
+        entry.putInt(length);
+        entry.put(data, dataOffset, length);
+        entry.putInt(checksum(entry.array(), entry.position()));
+
+        storage.write(size, entry.array(), 0, entry.capacity());
+        size += entry.capacity();
+    }
+
+
+    /**
+     * Applies all the complete entries in the log to a database-file.
+     *
+     * @param target
+     *            the database-file
+     * @param recordStart
+     *            position of the first record in the database-file
+     * @return the number of entries applied
+     * @throws IOException
+     *             on I/O-errors
+     */
+    int replay(FileStorage target, long recordStart) throws IOException {
+
+        final byte[] header = new byte[ENTRY_HEADER_SIZE];
+        long position = LOG_HEADER_SIZE;
+        int numApplied = 0;
+
+        while ((position + ENTRY_HEADER_SIZE + ENTRY_TRAILER_SIZE) <= size) {
+
+            storage.read(position, header, 0, header.length);
+            final ByteBuffer tmp = ByteBuffer.wrap(header);
+            final int operation = tmp.get();
+            final int record    = tmp.getInt();
+            final int offset    = tmp.getInt();
+            final int length    = tmp.getInt();
+
+            final long entrySize = ENTRY_HEADER_SIZE + (long) length
+                    + ENTRY_TRAILER_SIZE;
+
+            if ((operation < 0) || (operation >= Operation.values().length)
+                    || (record < 0) || (offset < 0) || (length < 0)
+                    || ((offset + (long) length) > recordLen)
+                    || ((position + entrySize) > size)) {
+                break; // torn entry
+            }
+
+            final byte[] entry = new byte[(int) entrySize];
+            storage.read(position, entry, 0, entry.length);
+
+            final int dataEnd = ENTRY_HEADER_SIZE + length;
+            if (checksum(entry, dataEnd) != ByteBuffer.wrap(entry, dataEnd,
+                    ENTRY_TRAILER_SIZE).getInt()) {
+                break; // torn entry
+            }
+
+            target.write(recordStart + ((long) recordLen * record) + offset,
+                    entry, ENTRY_HEADER_SIZE, length);
+
+            position += entrySize;
+            numApplied++;
+        }
+
+        return numApplied;
+    }
+
+
+    /**
+     * Removes all entries from the log, should only be called after the
+     * database-file has been forced to disk.
+     *
+     * @throws IOException
+     *             on I/O-errors
+     */
+    void truncate() throws IOException {
+        writeHeader();
+        storage.force();
+    }
+
+
+    /**
+     * Closes the log-file. The file is deleted if the log is empty.
+     *
+     * @throws IOException
+     *             if an IO-error occurs while closing
+     */
+    void close() throws IOException {
+        storage.close();
+        if (isEmpty() && !file.delete()) {
+            file.deleteOnExit();
+        }
+    }
+
+
+    private static int checksum(byte[] buffer, int length) {
+        final CRC32 crc = new CRC32();
+        crc.update(buffer, 0, length);
+        return (int) crc.getValue();
+    }
+}
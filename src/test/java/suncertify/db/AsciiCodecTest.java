@@ -0,0 +1,53 @@
+package suncertify.db;
+
+import java.nio.charset.Charset;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import junit.framework.TestCase;
+
+
+@RunWith(JUnit4.class)
+public class AsciiCodecTest extends TestCase {
+    
+    private static final Charset CHARSET = Charset.forName("US-ASCII");
+    
+    
+    /**
+     * verify that decode() gives the same result as the charset + trim()
+     */
+    @Test
+    public void decode_equals_charset_and_trim() throws Exception {
+        
+        final byte[][] samples = new byte[][] {
+                "Hamner & Tong   ".getBytes(CHARSET),
+                "  padded both ends \0\0\0".getBytes(CHARSET),
+                "\0\0\0\0".getBytes(CHARSET),
+                new byte[0],
+                new byte[] {'a', (byte) 0xE5, 'b', ' '},
+                new byte[] {(byte) 0xFF, ' '}
+        };
+        
+        for (byte[] sample : samples) {
+            assertEquals(   new String(sample, CHARSET).trim(),
+                            AsciiCodec.decode(sample, 0, sample.length) );
+        }
+    }
+    
+    
+    /**
+     * verify decoding of a field in the middle of a buffer
+     */
+    @Test
+    public void decode_with_offset() throws Exception {
+        
+        final byte[] buffer = "xxx  abc  yyy".getBytes(CHARSET);
+        
+        assertEquals("abc", AsciiCodec.decode(buffer, 3, 7));
+        assertEquals(5, AsciiCodec.trimmedStart(buffer, 3, 7));
+        assertEquals(8, AsciiCodec.trimmedEnd(buffer, 5, 10));
+        
+    }
+}
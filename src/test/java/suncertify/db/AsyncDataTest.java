@@ -0,0 +1,196 @@
+package suncertify.db;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import test.common.AbstractDataTest;
+
+
+@RunWith(JUnit4.class)
+public class AsyncDataTest extends AbstractDataTest {
+    
+    private AsyncData async;
+    
+    
+    @Override
+    @Before
+    public void setUp() throws Exception {
+        super.setUp();
+        async = new AsyncData(db, 2);
+    }
+    
+    
+    @Override
+    @After
+    public void tearDown() throws Exception {
+        assertTrue(async.shutdown(5000));
+        super.tearDown();
+    }
+    
+    
+    /**
+     * verify that many reads can be in flight at the same time
+     */
+    @Test
+    public void read() throws Exception {
+        
+        final List<Future<String[]>> results
+                = new ArrayList<Future<String[]>>();
+        for (int recNo = 0; recNo < 29; recNo++) {
+            results.add(async.read(recNo));
+        }
+        
+        for (int recNo = 0; recNo < 29; recNo++) {
+            assertEquals(Arrays.asList(db.read(recNo)), Arrays.asList(results
+                    .get(recNo).get()));
+        }
+    }
+    
+    
+    /**
+     * verify that exceptions are reported through the future
+     */
+    @Test
+    public void read_undefined_record() throws Exception {
+        try {
+            async.read(-1).get();
+            fail();
+        } catch (ExecutionException e) {
+            assertEquals(RecordNotFoundException.class, e.getCause()
+                    .getClass());
+        }
+    }
+    
+    
+    /**
+     * verify lock, update & unlock
+     */
+    @Test
+    public void update() throws Exception {
+        
+        final String[] data = db.read(3);
+        data[5] = "1234";
+        
+        async.lock(3).get();
+        async.update(3, data).get();
+        async.unlock(3).get();
+        
+        assertEquals("1234", db.read(3)[5]);
+        assertFalse(async.isLocked(3).get());
+    }
+    
+    
+    /**
+     * verify that waiting for a lock doesn't block the other operations
+     */
+    @Test
+    public void waiting_for_lock() throws Exception {
+        
+        db.lock(0);
+        
+        final List<Future<Void>> waiting = new ArrayList<Future<Void>>();
+        for (int i = 0; i < 4; i++) {
+            waiting.add(async.lock(0));
+        }
+        
+        assertEquals(db.size(), async.find(new String[6]).get(5,
+                TimeUnit.SECONDS).length);
+        
+        try {
+            waiting.get(0).get(50, TimeUnit.MILLISECONDS);
+            fail();
+        } catch (TimeoutException e) {}
+        
+        // each waiter gets the lock in turn
+        for (int i = 0; i < waiting.size(); i++) {
+            db.unlock(0);
+            while (countDone(waiting) == i) {
+                Thread.sleep(5);
+            }
+            assertEquals(i + 1, countDone(waiting));
+        }
+        db.unlock(0);
+    }
+    
+    
+    /**
+     * verify that only one thread waits for each record
+     */
+    @Test
+    public void one_waiting_thread_per_record() throws Exception {
+        
+        db.lock(0);
+        db.lock(1);
+        
+        final List<Future<Void>> waiting = new ArrayList<Future<Void>>();
+        for (int i = 0; i < 20; i++) {
+            waiting.add(async.lock(i % 2));
+        }
+        Thread.sleep(50);
+        assertEquals(2, countLockThreads());
+        
+        for (int i = 0; i < 10; i++) {
+            db.unlock(0);
+            db.unlock(1);
+            waiting.get(2 * i).get(5, TimeUnit.SECONDS);
+            waiting.get(2 * i + 1).get(5, TimeUnit.SECONDS);
+        }
+        db.unlock(0);
+        db.unlock(1);
+        assertEquals(20, countDone(waiting));
+    }
+    
+    
+    /**
+     * verify that a cancelled lock-request is skipped
+     */
+    @Test
+    public void cancel_waiting_lock() throws Exception {
+        
+        db.lock(0);
+        
+        final Future<Void> first = async.lock(0);
+        final Future<Void> cancelled = async.lock(0);
+        final Future<Void> last = async.lock(0);
+        assertTrue(cancelled.cancel(false));
+        
+        db.unlock(0);
+        first.get(5, TimeUnit.SECONDS);
+        db.unlock(0);
+        last.get(5, TimeUnit.SECONDS);
+        db.unlock(0);
+    }
+    
+    
+    private static int countLockThreads() {
+        int count = 0;
+        for (Thread t : Thread.getAllStackTraces().keySet()) {
+            if (t.getName().startsWith("db-lock-")) {
+                count++;
+            }
+        }
+        return count;
+    }
+    
+    
+    private static int countDone(List<Future<Void>> futures) {
+        int count = 0;
+        for (Future<Void> f : futures) {
+            if (f.isDone()) {
+                count++;
+            }
+        }
+        return count;
+    }
+}
@@ -0,0 +1,124 @@
+package suncertify.db;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+
+/**
+ * Runs the <code>Data</code> tests with bitmap-indexes.
+ */
+@RunWith(JUnit4.class)
+public class BitmapIndexDataTest extends DataTest {
+    
+    @Override
+    protected DataOptions createOptions() {
+        final DataOptions options = new DataOptions();
+        options.setBitmapIndexes("location", "size");
+        options.setPrefixIndexes("name");
+        return options;
+    }
+    
+    
+    /**
+     * verify that the bitmaps of several indexed fields are intersected
+     */
+    @Test
+    public void find_bitmap_intersection() throws Exception {
+        
+        final String[] criteria = new String[] {null, "xanadu", null, "1",
+                null, null};
+        final String plan = db.explain(criteria);
+        
+        assertTrue(plan, plan.startsWith("bitmap-index on "));
+        assertTrue(plan, plan.contains("-> intersect bitmap-index on "));
+        assertFalse(plan, plan.contains("compare"));
+        assertEquals(Arrays.asList(21), asList(db.find(criteria)));
+        
+        // both fields match some records, but never the same ones
+        criteria[1] = "Smallville";
+        criteria[3] = "9";
+        try {
+            db.find(criteria);
+            fail();
+        } catch (RecordNotFoundException e) {}
+    }
+    
+    
+    /**
+     * verify that the combined indexes give the same result as a scan
+     */
+    @Test
+    public void find_same_as_scan() throws Exception {
+        
+        final Data plain = new Data(dbFile);
+        try {
+            for (int recNo : db.find(new String[6])) {
+                final String[] record = db.read(recNo);
+                final String[] criteria = new String[] {
+                        record[0].substring(0, 1), record[1].toUpperCase(),
+                        record[2].substring(0, 2), record[3], null, null};
+                
+                assertEquals(asList(plain.find(criteria)),
+                        asList(db.find(criteria)));
+            }
+        } finally {
+            plain.close();
+        }
+    }
+    
+    
+    /**
+     * verify that the most selective index drives the search
+     */
+    @Test
+    public void explain_most_selective_first() throws Exception {
+        
+        final String[] criteria = new String[] {"Buonarotti", "Smallville",
+                null, null, null, null};
+        final String plan = db.explain(criteria);
+        
+        assertTrue(plan, plan.startsWith("bitmap-index on location (2 "));
+        assertTrue(plan, plan.contains("-> intersect prefix-index on name"));
+        assertFalse(plan, plan.contains("compare"));
+        assertEquals(Arrays.asList(0), asList(db.find(criteria)));
+        
+        criteria[0] = "Fred";
+        criteria[1] = "";
+        assertTrue(db.explain(criteria).startsWith(
+                "prefix-index on name (3 "));
+    }
+    
+    
+    /**
+     * verify that residual criteria are compared against the candidates
+     */
+    @Test
+    public void explain_residual() throws Exception {
+        
+        final String[] criteria = new String[] {null, "Smallville", "Air",
+                null, null, null};
+        final String plan = db.explain(criteria);
+        
+        assertTrue(plan, plan.startsWith("bitmap-index on location"));
+        assertTrue(plan, plan.contains("-> compare specialties"));
+        assertEquals(Arrays.asList(0), asList(db.find(criteria)));
+    }
+    
+    
+    /**
+     * verify that every record is scanned if the index isn't selective
+     */
+    @Test
+    public void explain_not_selective() throws Exception {
+        
+        final String[] criteria = new String[] {null, "", "Air", null, null,
+                null};
+        
+        assertTrue(db.explain(criteria).startsWith("scan of "));
+        assertEquals(db.find(new String[] {null, null, "Air", null, null,
+                null}).length, db.find(criteria).length);
+    }
+}
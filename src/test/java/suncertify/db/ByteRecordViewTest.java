@@ -0,0 +1,134 @@
+package suncertify.db;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import junit.framework.TestCase;
+
+
+@RunWith(JUnit4.class)
+public class ByteRecordViewTest extends TestCase {
+    
+    private ByteRecordView view;
+    
+    
+    @Override
+    @Before
+    public void setUp() throws Exception {
+        
+        final DatabaseField[] fields = new DatabaseField[] {
+                new DatabaseField(0, "name", (short) 8,
+                        DatabaseField.Type.TEXT),
+                new DatabaseField(1, "location", (short) 6,
+                        DatabaseField.Type.TEXT)
+        };
+        
+        view = new ByteRecordView(new RecordFormat(1, fields));
+        
+        final byte[] buffer = "xx Bob    Oslo\u0000\u0000".getBytes("US-ASCII");
+        view.reset(buffer, 1, 7);
+    }
+    
+    
+    /**
+     * verify that fields are trimmed like read() does
+     */
+    @Test
+    public void trimmed_values() {
+        assertEquals(7, view.getRecNo());
+        assertEquals(2, view.getFieldCount());
+        assertEquals(3, view.length(0));
+        assertEquals('B', view.charAt(0, 0));
+        assertEquals("Bob", view.getString(0));
+        assertEquals("Oslo", view.getString(1));
+    }
+    
+    
+    /**
+     * verify comparisons against the field-values
+     */
+    @Test
+    public void comparisons() throws Exception {
+        assertTrue(view.contentEquals(0, "Bob"));
+        assertFalse(view.contentEquals(0, "Bo"));
+        assertTrue(view.startsWithIgnoreCase(1, "osL"));
+        assertTrue(view.startsWithIgnoreCase(1, ""));
+        assertFalse(view.startsWithIgnoreCase(1, "Oslo2"));
+        assertEquals(0, view.compareTo(0, "Bob".getBytes("US-ASCII")));
+        assertTrue(view.compareTo(0, "Bobby".getBytes("US-ASCII")) < 0);
+        assertTrue(view.compareTo(1, "Bergen".getBytes("US-ASCII")) > 0);
+    }
+    
+    
+    /**
+     * verify that binary fields are viewed in their text-form
+     */
+    @Test
+    public void binary_fields() throws Exception {
+        
+        final RecordFormat format = new RecordFormat(2, new DatabaseField[] {
+                new DatabaseField(0, "size", (short) 6,
+                        DatabaseField.Type.NUMBER),
+                new DatabaseField(1, "rate", (short) 8,
+                        DatabaseField.Type.MONEY)
+        });
+        
+        final ByteRecordView binary = new ByteRecordView(format);
+        binary.reset(format.encode(new String[] {"12", "$40.50"}), 0, 3);
+        
+        assertEquals(12, binary.getInt(0));
+        assertEquals(4050, binary.getInt(1));
+        assertEquals("$40.50", binary.getString(1));
+        assertEquals(6, binary.length(1));
+        assertTrue(binary.contentEquals(0, "12"));
+        assertTrue(binary.startsWithIgnoreCase(1, "$40"));
+        assertEquals(0, binary.compareTo(1, "$40.50".getBytes("US-ASCII")));
+    }
+    
+    
+    /**
+     * verify that numeric fields are compared by value, not by their text
+     */
+    @Test
+    public void compare_numeric_fields() throws Exception {
+        
+        final RecordFormat format = new RecordFormat(2, new DatabaseField[] {
+                new DatabaseField(0, "size", (short) 6,
+                        DatabaseField.Type.NUMBER),
+                new DatabaseField(1, "rate", (short) 8,
+                        DatabaseField.Type.MONEY)
+        });
+        
+        final ByteRecordView binary = new ByteRecordView(format);
+        binary.reset(format.encode(new String[] {"9", "$9.50"}), 0, 3);
+        
+        assertTrue(binary.compareTo(0, "10".getBytes("US-ASCII")) < 0);
+        assertTrue(binary.compareTo(0, "8".getBytes("US-ASCII")) > 0);
+        assertEquals(0, binary.compareTo(0, "9".getBytes("US-ASCII")));
+        assertTrue(binary.compareTo(1, "$10.00".getBytes("US-ASCII")) < 0);
+        assertEquals(0, binary.compareTo(1, "9.5".getBytes("US-ASCII")));
+        
+        // not a number, compared as text
+        assertTrue(binary.compareTo(0, "x".getBytes("US-ASCII")) < 0);
+    }
+    
+    
+    /**
+     * getInt(), text-field
+     */
+    @Test(expected=NumberFormatException.class)
+    public void get_int_text_field() {
+        view.getInt(0);
+    }
+    
+    
+    /**
+     * charAt(), index out of range
+     */
+    @Test(expected=IndexOutOfBoundsException.class)
+    public void char_at_out_of_range() {
+        view.charAt(0, 3);
+    }
+}
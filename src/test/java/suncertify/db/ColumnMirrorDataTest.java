@@ -0,0 +1,29 @@
+package suncertify.db;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+
+/**
+ * Runs the <code>Data</code> tests with a column-mirror.
+ */
+@RunWith(JUnit4.class)
+public class ColumnMirrorDataTest extends DataTest {
+    
+    @Override
+    protected DataOptions createOptions() {
+        final DataOptions options = new DataOptions();
+        options.setColumnMirror(true);
+        return options;
+    }
+    
+    
+    /**
+     * verify that criteria outside the 7-bit range fall back to the file
+     */
+    @Test(expected=RecordNotFoundException.class)
+    public void find_non_ascii() throws Exception {
+        db.find(new String[] {"Små", null, null, null, null, null});
+    }
+}
@@ -27,7 +27,16 @@ public class DataFileAccessTest extends AbstractFileDbTest {
     @Before
     public void setUp() throws Exception {
         super.setUp();
-        access = DataFileAccess.create(dbFile);
+        access = DataFileAccess.create(dbFile, createOptions());
+    }
+    
+    
+    /**
+     * Returns the options used to open the database, subclasses may override
+     * this to test other configurations.
+     */
+    protected DataOptions createOptions() {
+        return new DataOptions();
     }
 
     
@@ -284,6 +293,84 @@ public class DataFileAccessTest extends AbstractFileDbTest {
     }
     
     
+    /**
+     * verify that compaction shrinks the file, while the records keep their
+     * numbers and values
+     */
+    @Test
+    public void compact() throws Exception {
+        
+        final List<String> last = Arrays.asList(access.read(28));
+        final List<String> kept = Arrays.asList(access.read(10));
+        final long length = dbFile.length();
+        
+        access.delete(1);
+        access.delete(2);
+        access.delete(27);
+        
+        int numSteps = 0;
+        while (access.compact()) {
+            numSteps++;
+        }
+        
+        assertEquals(2, numSteps);
+        assertEquals(length - (3 * 183), dbFile.length());
+        assertEquals(26, access.size());
+        assertEquals(last, Arrays.asList(access.read(28)));
+        assertEquals(kept, Arrays.asList(access.read(10)));
+        assertTrue(access.isDeleted(27));
+        
+        // new records get a new number, and are appended to the file, which
+        // grows by a preallocated chunk
+        assertEquals(1, access.create());
+        assertTrue(dbFile.length() >= (length - (2 * 183)));
+        assertEquals(last, Arrays.asList(access.read(28)));
+        
+        final int[] visited = new int[1];
+        access.scan(new RecordVisitor() {
+            public boolean visit(RecordView record) {
+                visited[0]++;
+                assertFalse(access.isDeleted(record.getRecNo()));
+                return true;
+            }
+        });
+        assertEquals(27, visited[0]);
+        
+        // the unused part of the chunk is trimmed when closing
+        access.close();
+        access = null;
+        assertEquals(length - (2 * 183), dbFile.length());
+    }
+    
+    
+    /**
+     * verify that the file grows in chunks, and that the unused part is
+     * removed when the database is closed
+     */
+    @Test
+    public void preallocation() throws Exception {
+        
+        final long length = dbFile.length();
+        final String[] record = new String[] {"a", "b", "c", "1", "$2", "3"};
+        
+        assertEquals(29, access.create(record));
+        final long preallocated = dbFile.length();
+        assertTrue(preallocated > (length + 183));
+        
+        assertEquals(30, access.create(record));
+        assertEquals(preallocated, dbFile.length());
+        assertEquals(31, access.getNumRecords());
+        
+        access.close();
+        access = null;
+        assertEquals(length + (2 * 183), dbFile.length());
+        
+        access = DataFileAccess.create(dbFile, createOptions());
+        assertEquals(31, access.size());
+        assertEquals(Arrays.asList(record), Arrays.asList(access.read(30)));
+    }
+    
+    
     /**
      * write, and verify that the correct data was written
      */
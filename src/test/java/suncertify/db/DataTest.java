@@ -1,9 +1,14 @@
 package suncertify.db;
 
+import java.io.File;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.Callable;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import org.junit.Test;
 import org.junit.runner.RunWith;
@@ -144,6 +149,39 @@ public class DataTest extends AbstractDataTest {
     }
     
     
+    /**
+     * verify that every record of a duplicate key in the file is indexed, so
+     * the key stays taken after the first one is deleted
+     */
+    @Test
+    public void duplicate_key_in_file() throws Exception {
+        
+        final String[] record = db.read(0);
+        db.close();
+        db = null;
+        
+        final DataFileAccess access = DataFileAccess.create(dbFile,
+                new DataOptions());
+        try {
+            access.write(1, record);
+        } finally {
+            access.close();
+        }
+        
+        db = createData();
+        assertEquals(0, db.findByKey(record[0], record[1]));
+        
+        db.lock(0);
+        db.delete(0);
+        assertEquals(1, db.findByKey(record[0], record[1]));
+        
+        try {
+            db.create(record);
+            fail();
+        } catch (DuplicateKeyException e) {}
+    }
+    
+    
     /**
      * Create a valid record and verify it
      */
@@ -311,6 +349,22 @@ public class DataTest extends AbstractDataTest {
     }
     
     
+    /**
+     * verify that find() still covers the last records after a deletion
+     */
+    @Test
+    public void find_after_delete() throws Exception {
+        
+        db.lock(0);
+        db.delete(0);
+        
+        int[] res = db.find(new String[] { null, null, null, null, "$", null});
+        
+        assertEquals(db.size(), res.length);
+        assertEquals(1, res[0]);
+    }
+    
+    
     /**
      * verify that find() ignores the case
      */
@@ -359,6 +413,94 @@ public class DataTest extends AbstractDataTest {
     }
     
     
+    /**
+     * verify that scan() visits every active record, with the same values as
+     * read()
+     */
+    @Test
+    public void scan() throws Exception {
+        
+        db.lock(2);
+        db.delete(2);
+        
+        final List<Integer> visited = new ArrayList<Integer>();
+        db.scan(new RecordVisitor() {
+            public boolean visit(RecordView record) {
+                visited.add(record.getRecNo());
+                try {
+                    assertEquals(Arrays.asList(db.read(record.getRecNo())),
+                            Arrays.asList(record.toArray()));
+                } catch (RecordNotFoundException e) {
+                    fail();
+                }
+                return true;
+            }
+        });
+        
+        assertEquals(db.size(), visited.size());
+        assertFalse(visited.contains(2));
+    }
+    
+    
+    /**
+     * verify that scan() stops when the visitor returns false
+     */
+    @Test
+    public void scan_stop() throws Exception {
+        
+        final List<Integer> visited = new ArrayList<Integer>();
+        db.scan(new RecordVisitor() {
+            public boolean visit(RecordView record) {
+                visited.add(record.getRecNo());
+                return (visited.size() < 3);
+            }
+        });
+        
+        assertEquals(Arrays.asList(0, 1, 2), visited);
+    }
+    
+    
+    /**
+     * verify that reading a record twice is served by the page-cache
+     */
+    @Test
+    public void read_is_cached() throws Exception {
+        
+        db.read(0);
+        final long misses = db.getCacheMisses();
+        final long hits = db.getCacheHits();
+        db.read(0);
+        
+        assertEquals(misses, db.getCacheMisses());
+        assertEquals(hits + 1, db.getCacheHits());
+    }
+    
+    
+    /**
+     * verify that find() & read() give the same results after compaction
+     */
+    @Test
+    public void compact() throws Exception {
+        
+        for (int recNo = 0; recNo < 5; recNo++) {
+            db.lock(recNo);
+            db.delete(recNo);
+        }
+        
+        final String[] criteria = new String[] {
+                null, null, null, null, "$", null};
+        final int[] before = db.find(criteria);
+        final List<String> last = Arrays.asList(db.read(28));
+        
+        assertTrue(db.compact() > 0);
+        
+        assertEquals(Arrays.toString(before),
+                Arrays.toString(db.find(criteria)));
+        assertEquals(last, Arrays.asList(db.read(28)));
+        assertEquals(0, db.compact());
+    }
+    
+    
     /**
      * isLocked(), invalid record-id
      */
@@ -465,4 +607,302 @@ public class DataTest extends AbstractDataTest {
                 actions);
         
     }
+    
+    
+    /**
+     * verify that searches & reads from several threads return consistent
+     * results
+     */
+    @Test
+    public void parallel_reads() throws Exception {
+        
+        final List<String> expected = Arrays.asList(db.read(3));
+        final ExecutorService executor = Executors.newFixedThreadPool(8);
+        final List<Future<Boolean>> results = new ArrayList<Future<Boolean>>();
+        
+        try {
+            for (int i = 0; i < 32; i++) {
+                results.add(executor.submit(new Callable<Boolean>() {
+                    @Override public Boolean call() throws Exception {
+                        for (int j = 0; j < 50; j++) {
+                            final int[] found = db.find(new String[] {
+                                    "Hamner", "Whoville", null, null, null,
+                                    null});
+                            if ((1 != found.length) || !expected.equals(
+                                    Arrays.asList(db.read(found[0])))) {
+                                return false;
+                            }
+                        }
+                        return true;
+                    }
+                }));
+            }
+            
+            for (Future<Boolean> result : results) {
+                assertTrue(result.get());
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+    
+    
+    /**
+     * verify that a backup contains every record, deleted ones included
+     */
+    @Test
+    public void backup() throws Exception {
+        
+        db.lock(2);
+        db.delete(2);
+        
+        final File target = File.createTempFile("backup", null);
+        target.delete();
+        try {
+            assertEquals(29, db.backup(target));
+            
+            final Data copy = new Data(target);
+            try {
+                assertEquals(28, copy.size());
+                try {
+                    copy.read(2);
+                    fail();
+                } catch (RecordNotFoundException e) {}
+                for (int recNo = 0; recNo < 29; recNo++) {
+                    if (2 == recNo) {
+                        continue;
+                    }
+                    assertEquals(Arrays.asList(db.read(recNo)),
+                            Arrays.asList(copy.read(recNo)));
+                }
+            } finally {
+                copy.close();
+            }
+        } finally {
+            deleteDatabase(target);
+        }
+    }
+    
+    
+    /**
+     * verify that records modified while a backup runs are copied as they
+     * were when it started
+     */
+    @Test
+    public void backup_copy_on_write() throws Exception {
+        
+        final List<String> original = Arrays.asList(db.read(0));
+        final RecordSnapshot snapshot = db.beginSnapshot();
+        
+        final String[] record = db.read(0);
+        record[2] = "Modified";
+        db.lock(0);
+        db.update(0, record);
+        db.unlock(0);
+        record[0] = "Created";
+        final int created = db.create(record);
+        db.lock(1);
+        db.delete(1);
+        
+        final File target = File.createTempFile("backup", null);
+        try {
+            db.writeSnapshot(snapshot, target);
+            db.endSnapshot(snapshot);
+            
+            final Data copy = new Data(target);
+            try {
+                assertEquals(29, copy.size());
+                assertEquals(original, Arrays.asList(copy.read(0)));
+                assertEquals("Smallville", copy.read(1)[1]);
+                try {
+                    copy.read(created);
+                    fail();
+                } catch (RecordNotFoundException e) {}
+            } finally {
+                copy.close();
+            }
+        } finally {
+            deleteDatabase(target);
+        }
+    }
+    
+    
+    /**
+     * verify that findByKey() finds records by name & location
+     */
+    @Test
+    public void find_by_key() throws Exception {
+        final String[] record = db.read(7);
+        assertEquals(7, db.findByKey(record[0], record[1]));
+        assertEquals(7, db.findByKey(record[0] + "   ", record[1]));
+    }
+    
+    
+    /**
+     * verify RecordNotFoundException for unknown keys
+     */
+    @Test(expected=RecordNotFoundException.class)
+    public void find_by_key_not_found() throws Exception {
+        db.findByKey(db.read(7)[0], "Nowhere");
+    }
+    
+    
+    /**
+     * verify IllegalArgumentException for incomplete keys
+     */
+    @Test(expected=IllegalArgumentException.class)
+    public void find_by_key_invalid() throws Exception {
+        db.findByKey("Dogs With Tools");
+    }
+    
+    
+    /**
+     * verify that the key-index follows creates, updates & deletes
+     */
+    @Test
+    public void find_by_key_after_modifications() throws Exception {
+        
+        final String[] record = db.read(7);
+        final String[] oldKey = new String[] {record[0], record[1]};
+        
+        record[1] = "Moved";
+        db.lock(7);
+        db.update(7, record);
+        db.unlock(7);
+        assertEquals(7, db.findByKey(record[0], "Moved"));
+        
+        final String[] created = db.read(7);
+        created[1] = oldKey[1];
+        final int recNo = db.create(created);
+        assertEquals(recNo, db.findByKey(oldKey));
+        
+        db.lock(recNo);
+        db.delete(recNo);
+        try {
+            db.findByKey(oldKey);
+            fail();
+        } catch (RecordNotFoundException e) {}
+        
+        // the key is free again
+        assertEquals(recNo, db.create(created));
+    }
+    
+    
+    /**
+     * verify that find() & findContaining() follow creates, updates &
+     * deletes, whatever indexes are used
+     */
+    @Test
+    public void find_after_modifications() throws Exception {
+        
+        final String[] criteria = new String[] {"Bo", "OSLO", null, "1",
+                null, null};
+        final String[] tokens = new String[] {null, null, "thatching", null,
+                null, null};
+        
+        final int created = db.create(new String[] {"Bob", "oslo, norway",
+                "Roofing, Thatching", "12", "$2", ""});
+        
+        final String[] record = db.read(0);
+        record[0] = "Bonnie";
+        record[1] = "Oslo";
+        record[2] = "thatching";
+        record[3] = "1";
+        db.lock(0);
+        db.update(0, record);
+        db.unlock(0);
+        
+        assertEquals(Arrays.asList(0, created), asList(db.find(criteria)));
+        assertEquals(Arrays.asList(0, created),
+                asList(db.findContaining(tokens)));
+        
+        // the old values are gone
+        assertEquals(Arrays.asList(1), asList(db.find(new String[] {null,
+                "smallville", null, null, null, null})));
+        assertFalse(asList(db.findContaining(new String[] {null, null,
+                "painting", null, null, null})).contains(0));
+        
+        db.lock(0);
+        db.delete(0);
+        
+        assertEquals(Arrays.asList(created), asList(db.find(criteria)));
+        assertEquals(Arrays.asList(created),
+                asList(db.findContaining(tokens)));
+    }
+    
+    
+    /**
+     * verify that findContaining() matches whole tokens, ignoring case
+     */
+    @Test
+    public void find_containing() throws Exception {
+        
+        final List<Integer> expected = new ArrayList<Integer>();
+        for (int recNo : db.find(new String[6])) {
+            for (String token : db.read(recNo)[2].split(",")) {
+                if (token.trim().equalsIgnoreCase("plumbing")) {
+                    expected.add(recNo);
+                    break;
+                }
+            }
+        }
+        
+        final List<Integer> actual = new ArrayList<Integer>();
+        for (int recNo : db.findContaining(new String[] {null, null,
+                " PLUMBING", null, null, null})) {
+            actual.add(recNo);
+        }
+        
+        assertFalse(expected.isEmpty());
+        assertEquals(expected, actual);
+    }
+    
+    
+    /**
+     * verify findContaining() with tokens for several fields
+     */
+    @Test
+    public void find_containing_combined() throws Exception {
+        final int[] matches = db.findContaining(new String[] {null,
+                "smallville", "Painting", null, null, null});
+        assertEquals(Arrays.asList(0, 1), Arrays.asList(matches[0],
+                matches[1]));
+        assertEquals(2, matches.length);
+    }
+    
+    
+    /**
+     * verify that a prefix of a token doesn't match
+     */
+    @Test(expected=RecordNotFoundException.class)
+    public void find_containing_prefix() throws Exception {
+        db.findContaining(new String[] {null, null, "Plumb", null, null,
+                null});
+    }
+    
+    
+    /**
+     * verify that searches without indexes scan every record
+     */
+    @Test
+    public void explain() throws Exception {
+        final String plan = db.explain(new String[] {null, null, "Air",
+                null, null, null});
+        assertTrue(plan, plan.contains("scan of 29 record(s)"));
+    }
+    
+    
+    /**
+     * verify IllegalArgumentException for the wrong number of criteria
+     */
+    @Test(expected=IllegalArgumentException.class)
+    public void explain_invalid() throws Exception {
+        db.explain(new String[1]);
+    }
+    
+    
+    private static void deleteDatabase(File file) {
+        new File(file.getPath() + ".summary").delete();
+        file.delete();
+    }
 }
@@ -0,0 +1,110 @@
+package suncertify.db;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import junit.framework.TestCase;
+
+
+@RunWith(JUnit4.class)
+public class FieldDictionaryTest extends TestCase {
+    
+    private File file;
+    
+    
+    /**
+     * test-setup
+     */
+    @Override
+    @Before
+    public void setUp() throws Exception {
+        file = File.createTempFile("temp-dictionary", null);
+        assertTrue(file.delete());
+    }
+    
+    
+    /**
+     * test-cleanup
+     */
+    @Override
+    @After
+    public void tearDown() throws Exception {
+        file.delete();
+    }
+    
+    
+    /**
+     * verify that codes are assigned per field, and survive a re-open
+     */
+    @Test
+    public void codes() throws Exception {
+        
+        FieldDictionary dictionary = FieldDictionary.open(file, 2);
+        assertEquals(1, dictionary.add(0, "Oslo"));
+        assertEquals(2, dictionary.add(0, "Bergen"));
+        assertEquals(1, dictionary.add(0, "Oslo"));
+        assertEquals(1, dictionary.add(1, "Bergen"));
+        assertEquals(0, dictionary.add(1, ""));
+        dictionary.close();
+        
+        dictionary = FieldDictionary.open(file, 2);
+        try {
+            assertEquals("", dictionary.get(0, 0));
+            assertEquals("Oslo", dictionary.get(0, 1));
+            assertEquals("Bergen", dictionary.get(0, 2));
+            assertSame(dictionary.get(0, 2), dictionary.get(0, 2));
+            assertEquals(3, dictionary.size(0));
+            assertEquals(2, dictionary.size(1));
+            assertEquals(3, dictionary.add(0, "Trondheim"));
+        } finally {
+            dictionary.close();
+        }
+    }
+    
+    
+    /**
+     * verify that a partial entry at the end of the file is removed
+     */
+    @Test
+    public void partial_entry() throws Exception {
+        
+        FieldDictionary dictionary = FieldDictionary.open(file, 1);
+        dictionary.add(0, "Oslo");
+        dictionary.close();
+        
+        final long length = file.length();
+        final RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        raf.seek(length);
+        raf.write(new byte[] {0, 0, 0, 10, 'B', 'e'});
+        raf.close();
+        
+        dictionary = FieldDictionary.open(file, 1);
+        try {
+            assertEquals(length, file.length());
+            assertEquals(2, dictionary.size(0));
+            assertEquals(2, dictionary.add(0, "Bergen"));
+        } finally {
+            dictionary.close();
+        }
+    }
+    
+    
+    /**
+     * get(), unknown code
+     */
+    @Test(expected=DatabaseException.class)
+    public void unknown_code() throws Exception {
+        final FieldDictionary dictionary = FieldDictionary.open(file, 1);
+        try {
+            dictionary.get(0, 1);
+        } finally {
+            dictionary.close();
+        }
+    }
+}
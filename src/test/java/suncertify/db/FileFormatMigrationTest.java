@@ -0,0 +1,260 @@
+package suncertify.db;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import test.common.AbstractFileDbTest;
+
+
+@RunWith(JUnit4.class)
+public class FileFormatMigrationTest extends AbstractFileDbTest {
+    
+    private File target;
+    
+    
+    /**
+     * test-setup
+     */
+    @Override
+    @Before
+    public void setUp() throws Exception {
+        super.setUp();
+        target = new File(dbFile.getPath() + ".v2");
+    }
+    
+    
+    /**
+     * test-cleanup
+     */
+    @Override
+    @After
+    public void tearDown() throws Exception {
+        new File(target.getPath() + ".summary").delete();
+        new File(target.getPath() + ".dict").delete();
+        target.delete();
+        super.tearDown();
+    }
+    
+    
+    /**
+     * verify that a migrated database returns the same records, with the
+     * field-types and key-fields stored in the header
+     */
+    @Test
+    public void migrated_records() throws Exception {
+        
+        final DataFileAccess v1 = DataFileAccess.create(dbFile,
+                new DataOptions());
+        final String[] owned = v1.read(0);
+        owned[5] = "00001234";
+        v1.write(0, owned);
+        v1.delete(3);
+        v1.close();
+        
+        assertEquals(29, FileFormatMigration.migrate(dbFile, target));
+        assertTrue(target.length() < dbFile.length());
+        
+        final DataFileAccess before = DataFileAccess.create(dbFile,
+                new DataOptions());
+        final DataFileAccess after = DataFileAccess.create(target,
+                new DataOptions());
+        try {
+            assertEquals(before.getNumRecords(), after.getNumRecords());
+            assertEquals(before.getFields().length, after.getFields().length);
+            assertTrue(after.getFields()[0].isKey());
+            assertTrue(after.getFields()[1].isKey());
+            assertFalse(after.getFields()[2].isKey());
+            assertEquals(DatabaseField.Type.MONEY,
+                    after.getFields()[4].getType());
+            assertEquals(DatabaseField.Type.TEXT,
+                    after.getFields()[5].getType());
+            assertEquals("00001234", after.read(0)[5]);
+            
+            for (int i = 0; i < before.getNumRecords(); i++) {
+                assertEquals(before.isDeleted(i), after.isDeleted(i));
+                if (!before.isDeleted(i)) {
+                    assertEquals(Arrays.asList(before.read(i)),
+                            Arrays.asList(after.read(i)));
+                }
+            }
+        } finally {
+            before.close();
+            after.close();
+        }
+        
+        // the owner's leading zeros can still be searched for
+        final Data migrated = new Data(target);
+        try {
+            final int[] matches = migrated.find(new String[] {null, null,
+                    null, null, null, "0000"});
+            assertEquals(1, matches.length);
+            assertEquals(0, matches[0]);
+        } finally {
+            migrated.close();
+        }
+    }
+    
+    
+    /**
+     * verify that dictionary-encoded fields return the same values as
+     * canonical instances, and can be searched/updated
+     */
+    @Test
+    public void dictionary_encoded_fields() throws Exception {
+        
+        FileFormatMigration.migrate(dbFile, target, "location",
+                "specialties");
+        assertTrue(new File(target.getPath() + ".dict").exists());
+        
+        final Data before = new Data(dbFile);
+        final Data after = new Data(target);
+        try {
+            String[] first = null;
+            for (int i = 0; i < 29; i++) {
+                final String[] record = after.read(i);
+                assertEquals(Arrays.asList(before.read(i)),
+                        Arrays.asList(record));
+                if ((null != first) && first[1].equals(record[1])) {
+                    assertSame(first[1], record[1]);
+                }
+                first = ((null == first) ? record : first);
+            }
+            
+            assertTrue(Arrays.equals(before.find(new String[] {null,
+                    "smallv", null, null, null, null}), after.find(
+                    new String[] {null, "smallv", null, null, null, null})));
+            
+            // a new value is added to the dictionary
+            final String[] record = after.read(0);
+            record[1] = "Lillehammer";
+            after.lock(0);
+            after.update(0, record);
+            after.unlock(0);
+        } finally {
+            before.close();
+            after.close();
+        }
+        
+        final Data reopened = new Data(target);
+        try {
+            assertEquals("Lillehammer", reopened.read(0)[1]);
+        } finally {
+            reopened.close();
+        }
+    }
+    
+    
+    /**
+     * verify that a dictionary-encoded file can be migrated again, the
+     * source's dictionary is used to decode its records
+     */
+    @Test
+    public void migrate_dictionary_encoded_source() throws Exception {
+        
+        final File again = new File(dbFile.getPath() + ".v2.again");
+        FileFormatMigration.migrate(dbFile, target, "location");
+        try {
+            assertEquals(29, FileFormatMigration.migrate(target, again,
+                    "specialties"));
+            
+            final Data before = new Data(dbFile);
+            final Data after = new Data(again);
+            try {
+                for (int i = 0; i < 29; i++) {
+                    assertEquals(Arrays.asList(before.read(i)),
+                            Arrays.asList(after.read(i)));
+                }
+            } finally {
+                before.close();
+                after.close();
+            }
+        } finally {
+            new File(again.getPath() + ".summary").delete();
+            new File(again.getPath() + ".dict").delete();
+            again.delete();
+        }
+    }
+    
+    
+    /**
+     * a dictionary-encoded source without its dictionary-file
+     */
+    @Test
+    public void missing_source_dictionary() throws Exception {
+        
+        final File again = new File(dbFile.getPath() + ".v2.again");
+        FileFormatMigration.migrate(dbFile, target, "location");
+        assertTrue(new File(target.getPath() + ".dict").delete());
+        
+        try {
+            FileFormatMigration.migrate(target, again);
+            fail();
+        } catch (DatabaseException e) {
+            assertFalse(again.exists());
+        }
+    }
+    
+    
+    /**
+     * dictionary-encoding of a NUMBER-field
+     */
+    @Test(expected=IllegalArgumentException.class)
+    public void dictionary_number_field() throws Exception {
+        FileFormatMigration.migrate(dbFile, target, "size");
+    }
+    
+    
+    /**
+     * verify that numeric fields are validated in a migrated database
+     */
+    @Test(expected=IllegalArgumentException.class)
+    public void invalid_money_value() throws Exception {
+        
+        FileFormatMigration.migrate(dbFile, target);
+        
+        final Data data = new Data(target);
+        try {
+            final String[] record = data.read(0);
+            record[4] = "$forty";
+            data.lock(0);
+            data.update(0, record);
+        } finally {
+            data.close();
+        }
+    }
+    
+    
+    /**
+     * verify that the key-fields from the header are used for the
+     * unique-key check
+     */
+    @Test(expected=DuplicateKeyException.class)
+    public void duplicate_key() throws Exception {
+        
+        FileFormatMigration.migrate(dbFile, target);
+        
+        final Data data = new Data(target);
+        try {
+            data.create(data.read(0));
+        } finally {
+            data.close();
+        }
+    }
+    
+    
+    /**
+     * verify IOException if the target exists
+     */
+    @Test(expected=IOException.class)
+    public void target_exists() throws Exception {
+        assertTrue(target.createNewFile());
+        FileFormatMigration.migrate(dbFile, target);
+    }
+}
@@ -0,0 +1,21 @@
+package suncertify.db;
+
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+
+/**
+ * Runs the <code>Data</code> tests with the log-structured storage, using
+ * small segments so they're closed & merged while testing.
+ */
+@RunWith(JUnit4.class)
+public class LogStructuredDataTest extends DataTest {
+    
+    @Override
+    protected DataOptions createOptions() {
+        final DataOptions options = new DataOptions();
+        options.setStorageMode(StorageMode.LOG_STRUCTURED);
+        options.setSegmentSize(2048);
+        return options;
+    }
+}
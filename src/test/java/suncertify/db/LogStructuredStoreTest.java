@@ -0,0 +1,190 @@
+package suncertify.db;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import test.common.AbstractFileDbTest;
+
+
+@RunWith(JUnit4.class)
+public class LogStructuredStoreTest extends AbstractFileDbTest {
+
+    private LogStructuredStore store;
+
+
+    /**
+     * test-setup
+     */
+    @Override
+    @Before
+    public void setUp() throws Exception {
+        super.setUp();
+        store = LogStructuredStore.create(dbFile, createOptions());
+    }
+
+
+    private static DataOptions createOptions() {
+        final DataOptions options = new DataOptions();
+        options.setStorageMode(StorageMode.LOG_STRUCTURED);
+        options.setSegmentSize(1024);
+        return options;
+    }
+
+
+    /**
+     * test-cleanup
+     */
+    @Override
+    @After
+    public void tearDown() throws Exception {
+        if (null != store) {
+            store.close();
+        }
+        super.tearDown();
+    }
+
+
+    /**
+     * verify that modifications are written back to the db-file on close
+     */
+    @Test
+    public void close_writes_back() throws Exception {
+
+        final String[] record = store.read(0);
+        record[0] = "Written back";
+        store.write(0, record);
+        final int created = store.create(record);
+        store.delete(1);
+
+        assertTrue(LogStructuredStore.hasSegments(dbFile));
+        store.close();
+        store = null;
+        assertFalse(LogStructuredStore.hasSegments(dbFile));
+
+        final DataFileAccess access = DataFileAccess.create(dbFile,
+                new DataOptions());
+        try {
+            assertEquals("Written back", access.read(0)[0]);
+            assertTrue(access.isDeleted(1));
+            assertEquals("Written back", access.read(created)[0]);
+        } finally {
+            access.close();
+        }
+    }
+
+
+    /**
+     * verify that the segments are replayed if the db wasn't closed
+     */
+    @Test
+    public void replay_after_crash() throws Exception {
+
+        final String[] record = store.read(0);
+        for (int i = 0; i < 20; i++) {
+            record[0] = "Version " + i;
+            store.write(0, record);
+        }
+        final int created = store.create(record);
+        store.delete(2);
+
+        // no close, simulates a crash
+        store = LogStructuredStore.create(dbFile, createOptions());
+
+        assertEquals("Version 19", store.read(0)[0]);
+        assertTrue(store.isDeleted(2));
+        assertEquals("Version 19", store.read(created)[0]);
+        assertEquals(created + 1, store.getNumRecords());
+    }
+
+
+    /**
+     * verify that a torn entry at the end of a segment is ignored
+     */
+    @Test
+    public void replay_torn_entry() throws Exception {
+
+        final String[] record = store.read(0);
+        record[0] = "Complete";
+        store.write(0, record);
+
+        final RandomAccessFile segment = new RandomAccessFile(new File(
+                dbFile.getPath() + ".seg1"), "rw");
+        try {
+            segment.seek(segment.length());
+            segment.write(new byte[] {0, 0, 0, 0, 0, 'x'});
+        } finally {
+            segment.close();
+        }
+
+        store = LogStructuredStore.create(dbFile, createOptions());
+        assertEquals("Complete", store.read(0)[0]);
+    }
+
+
+    /**
+     * verify that compacting merges the segments, keeping the latest versions
+     */
+    @Test
+    public void compact_merges_segments() throws Exception {
+
+        final String[] record = store.read(0);
+        for (int i = 0; i < 50; i++) {
+            record[0] = "Version " + i;
+            store.write(0, record);
+        }
+        store.delete(3);
+
+        assertTrue(store.compact());
+        assertTrue(store.getNumSegments() <= 2);
+        assertFalse(store.compact());
+
+        assertEquals("Version 49", store.read(0)[0]);
+        assertTrue(store.isDeleted(3));
+        assertEquals(28, store.size());
+    }
+
+
+    /**
+     * verify that the segments are preferred when scanning
+     */
+    @Test
+    public void scan_sees_modifications() throws Exception {
+
+        final String[] record = store.read(5);
+        record[0] = "Scanned";
+        store.write(5, record);
+        store.delete(6);
+
+        final int[] count = new int[1];
+        store.scan(new RecordVisitor() {
+            @Override
+            public boolean visit(RecordView view) {
+                assertTrue(6 != view.getRecNo());
+                if (5 == view.getRecNo()) {
+                    assertTrue(view.contentEquals(0, "Scanned"));
+                }
+                count[0]++;
+                return true;
+            }
+        });
+
+        assertEquals(28, count[0]);
+    }
+
+
+    /**
+     * verify that the db-file can't be opened in another mode while it has
+     * segments
+     */
+    @Test(expected=DatabaseException.class)
+    public void open_with_segments() throws Exception {
+        store.write(0, store.read(0));
+        DataFileAccess.create(dbFile, new DataOptions());
+    }
+}
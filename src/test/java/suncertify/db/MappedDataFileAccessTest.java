@@ -0,0 +1,57 @@
+package suncertify.db;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+
+/**
+ * Runs the <code>DataFileAccess</code> tests against a memory-mapped file.
+ */
+@RunWith(JUnit4.class)
+public class MappedDataFileAccessTest extends DataFileAccessTest {
+    
+    private DataFileAccess reopened;
+    
+    
+    @Override
+    protected DataOptions createOptions() {
+        final DataOptions options = new DataOptions();
+        options.setStorageMode(StorageMode.MEMORY_MAPPED);
+        return options;
+    }
+    
+    
+    @Override
+    public void tearDown() throws Exception {
+        if (null != reopened) {
+            reopened.close();
+        }
+        super.tearDown();
+    }
+    
+    
+    /**
+     * verify that records appended to a mapped file reach the file itself
+     */
+    @Test
+    public void appended_record_is_persisted() throws Exception {
+        
+        final DataFileAccess access = DataFileAccess.create(dbFile,
+                createOptions());
+        final String[] expected = new String[] {
+                "one", "two", "three", "4", "$5", "6"
+        };
+        
+        final int record = access.create();
+        access.write(record, expected);
+        access.close();
+        
+        reopened = DataFileAccess.create(dbFile);
+        assertEquals(   Arrays.asList(expected),
+                        Arrays.asList(reopened.read(record))    );
+        
+    }
+}
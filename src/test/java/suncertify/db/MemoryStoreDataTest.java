@@ -0,0 +1,48 @@
+package suncertify.db;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+
+/**
+ * Runs the <code>Data</code> tests with the records in a
+ * <code>MemoryStore</code>.
+ */
+@RunWith(JUnit4.class)
+public class MemoryStoreDataTest extends DataTest {
+    
+    @Override
+    protected Data createData() throws Exception {
+        return new Data(MemoryStore.load(dbFile), createOptions());
+    }
+    
+    
+    /**
+     * verify that no cache is involved
+     */
+    @Override
+    @Test
+    public void read_is_cached() throws Exception {
+        db.read(0);
+        db.read(0);
+        assertEquals(0, db.getCacheHits());
+        assertEquals(0, db.getCacheMisses());
+    }
+    
+    
+    /**
+     * verify that there's nothing to compact, deleted records are reused
+     */
+    @Override
+    @Test
+    public void compact() throws Exception {
+        db.lock(0);
+        db.delete(0);
+        
+        assertEquals(0, db.compact());
+        final String[] record = db.read(1);
+        record[0] = "Reused";
+        assertEquals(0, db.create(record));
+    }
+}
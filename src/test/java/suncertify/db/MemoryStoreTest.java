@@ -0,0 +1,121 @@
+package suncertify.db;
+
+import java.io.File;
+import java.util.Arrays;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import test.common.AbstractFileDbTest;
+
+
+@RunWith(JUnit4.class)
+public class MemoryStoreTest extends AbstractFileDbTest {
+
+    private MemoryStore store;
+
+
+    /**
+     * test-setup
+     */
+    @Override
+    @Before
+    public void setUp() throws Exception {
+        super.setUp();
+        store = MemoryStore.load(dbFile);
+    }
+
+
+    /**
+     * test-cleanup
+     */
+    @Override
+    @After
+    public void tearDown() throws Exception {
+        store.close();
+        super.tearDown();
+    }
+
+
+    /**
+     * verify that every record is loaded
+     */
+    @Test
+    public void load() throws Exception {
+        final DataFileAccess access = DataFileAccess.create(dbFile,
+                new DataOptions());
+        try {
+            assertEquals(access.getNumRecords(), store.getNumRecords());
+            for (int i = 0; i < access.getNumRecords(); i++) {
+                assertEquals(access.isDeleted(i), store.isDeleted(i));
+                assertEquals(Arrays.asList(access.read(i)),
+                        Arrays.asList(store.read(i)));
+            }
+        } finally {
+            access.close();
+        }
+    }
+
+
+    /**
+     * verify that modifications aren't written to the file until a snapshot
+     * is taken
+     */
+    @Test
+    public void snapshot() throws Exception {
+
+        final String[] record = store.read(0);
+        record[0] = "In memory";
+        store.write(0, record);
+        final int created = store.create(record);
+        store.delete(1);
+
+        assertEquals(29, MemoryStore.load(dbFile).size());
+
+        store.snapshot(dbFile);
+
+        final MemoryStore loaded = MemoryStore.load(dbFile);
+        assertEquals("In memory", loaded.read(0)[0]);
+        assertTrue(loaded.isDeleted(1));
+        assertEquals("In memory", loaded.read(created)[0]);
+        assertEquals(store.getNumRecords(), loaded.getNumRecords());
+        assertFalse(new File(dbFile.getPath() + ".tmp").exists());
+    }
+
+
+    /**
+     * verify that a database-file with a dictionary can be snapshotted
+     */
+    @Test
+    public void snapshot_dictionary() throws Exception {
+
+        final File migrated = new File(dbFile.getPath() + ".v2");
+        final File dictionary = new File(migrated.getPath() + ".dict");
+        FileFormatMigration.migrate(dbFile, migrated, "location");
+
+        try {
+            final MemoryStore v2 = MemoryStore.load(migrated);
+            final String[] record = v2.read(3);
+            record[1] = "Somewhere new";
+            v2.write(3, record);
+            v2.snapshot(migrated);
+
+            final DataFileAccess access = DataFileAccess.create(migrated,
+                    new DataOptions());
+            try {
+                assertEquals("Somewhere new", access.read(3)[1]);
+                assertEquals(store.read(4)[1], access.read(4)[1]);
+            } finally {
+                access.close();
+            }
+        } finally {
+            for (File file : new File[] {migrated, dictionary, new File(
+                    migrated.getPath() + ".summary")}) {
+                file.delete();
+            }
+        }
+    }
+}
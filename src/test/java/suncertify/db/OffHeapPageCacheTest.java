@@ -0,0 +1,48 @@
+package suncertify.db;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+
+/**
+ * Runs the <code>PageCache</code> tests with the pages kept off-heap.
+ */
+@RunWith(JUnit4.class)
+public class OffHeapPageCacheTest extends PageCacheTest {
+    
+    @Override
+    protected PageCache createCache(FileStorage storage, long base,
+            int pageSize, long budget) {
+        return new PageCache(storage, base, pageSize, budget, true);
+    }
+    
+    
+    /**
+     * verify that pages spread over several slabs are kept apart
+     */
+    @Test
+    public void several_slabs() throws Exception {
+        
+        final int pageSize = 300 * 1024; // 3 pages / slab
+        final MemoryStorage storage = new MemoryStorage(8 * pageSize);
+        final PageCache cache = createCache(storage, 0, pageSize,
+                8L * pageSize);
+        
+        final byte[] buffer = new byte[2];
+        for (int round = 0; round < 2; round++) {
+            for (int page = 0; page < 8; page++) {
+                cache.read((long) page * pageSize + 7, buffer, 0, 2);
+                assertEquals(Arrays.toString(new byte[] {
+                        (byte) (page * pageSize + 7),
+                        (byte) (page * pageSize + 8)}),
+                        Arrays.toString(buffer));
+            }
+        }
+        
+        assertEquals(8, cache.getMisses());
+        assertEquals(8, cache.getHits());
+    }
+}
@@ -0,0 +1,197 @@
+package suncertify.db;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import junit.framework.TestCase;
+
+
+@RunWith(JUnit4.class)
+public class PageCacheTest extends TestCase {
+    
+    private MemoryStorage storage;
+    private PageCache     cache;
+    
+    
+    @Override
+    @Before
+    public void setUp() throws Exception {
+        storage = new MemoryStorage(60);
+        cache = createCache(storage, 4, 10, 20); // two pages of 10 bytes
+    }
+    
+    
+    /**
+     * Creates the cache under test, subclasses may override this to test
+     * other configurations.
+     */
+    protected PageCache createCache(FileStorage storage, long base,
+            int pageSize, long budget) {
+        return new PageCache(storage, base, pageSize, budget);
+    }
+    
+    
+    /**
+     * verify that a page is only read once from the storage
+     */
+    @Test
+    public void hit_after_miss() throws Exception {
+        
+        final byte[] buffer = new byte[3];
+        cache.read(6, buffer, 0, 3);
+        cache.read(8, buffer, 0, 3);
+        
+        assertEquals(1, storage.reads);
+        assertEquals(1, cache.getMisses());
+        assertEquals(1, cache.getHits());
+        assertEquals(Arrays.toString(new byte[] {8, 9, 10}),
+                Arrays.toString(buffer));
+    }
+    
+    
+    /**
+     * verify that a read spanning two pages returns the right bytes
+     */
+    @Test
+    public void read_across_pages() throws Exception {
+        
+        final byte[] buffer = new byte[4];
+        cache.read(12, buffer, 0, 4);
+        
+        assertEquals(Arrays.toString(new byte[] {12, 13, 14, 15}),
+                Arrays.toString(buffer));
+        assertEquals(2, cache.getMisses());
+    }
+    
+    
+    /**
+     * verify that writes are visible through the cache and in the storage
+     */
+    @Test
+    public void write_through() throws Exception {
+        
+        final byte[] buffer = new byte[1];
+        cache.read(5, buffer, 0, 1);
+        cache.write(5, new byte[] {-1}, 0, 1);
+        cache.read(5, buffer, 0, 1);
+        
+        assertEquals(-1, buffer[0]);
+        assertEquals(-1, storage.content[5]);
+        assertEquals(1, storage.reads);
+    }
+    
+    
+    /**
+     * verify that a page that keeps being hit survives a scan of pages that
+     * are only read once
+     */
+    @Test
+    public void hot_page_stays_resident() throws Exception {
+        
+        final byte[] buffer = new byte[1];
+        cache.read(4, buffer, 0, 1);
+        
+        for (int position = 14; position < 60; position += 10) {
+            cache.read(4, buffer, 0, 1);
+            cache.read(position, buffer, 0, 1);
+        }
+        
+        final int reads = storage.reads;
+        cache.read(4, buffer, 0, 1);
+        assertEquals(reads, storage.reads);
+        assertEquals(6, reads);
+    }
+    
+    
+    /**
+     * verify that appending to a partial page that's cached extends it
+     */
+    @Test
+    public void append_to_last_page() throws Exception {
+        
+        final byte[] buffer = new byte[2];
+        cache.read(58, buffer, 0, 2);
+        cache.write(60, new byte[] {7, 7}, 0, 2);
+        cache.read(60, buffer, 0, 2);
+        
+        assertEquals(Arrays.toString(new byte[] {7, 7}),
+                Arrays.toString(buffer));
+        assertEquals(1, storage.reads);
+    }
+    
+    
+    /**
+     * read beyond the end of the storage
+     */
+    @Test(expected=EOFException.class)
+    public void read_beyond_eof() throws Exception {
+        cache.read(59, new byte[2], 0, 2);
+    }
+    
+    
+    /*
+     * FileStorage kept in a byte[], counting the reads.
+     */
+    static final class MemoryStorage implements FileStorage {
+        
+        byte[] content;
+        int    reads;
+        
+        
+        MemoryStorage(int length) {
+            content = new byte[length];
+            for (int i = 0; i < length; i++) {
+                content[i] = (byte) i;
+            }
+        }
+        
+        
+        @Override
+        public long length() {
+            return content.length;
+        }
+        
+        
+        @Override
+        public void read(long position, byte[] buffer, int offset,
+                int length) throws IOException {
+            if ((position + length) > content.length) {
+                throw new EOFException();
+            }
+            System.arraycopy(content, (int) position, buffer, offset, length);
+            reads++;
+        }
+        
+        
+        @Override
+        public void write(long position, byte[] buffer, int offset,
+                int length) {
+            if ((position + length) > content.length) {
+                content = Arrays.copyOf(content, (int) position + length);
+            }
+            System.arraycopy(buffer, offset, content, (int) position, length);
+        }
+        
+        
+        @Override
+        public void setLength(long length) {
+            content = Arrays.copyOf(content, (int) length);
+        }
+        
+        
+        @Override
+        public void force() {
+        }
+        
+        
+        @Override
+        public void close() {
+        }
+    }
+}
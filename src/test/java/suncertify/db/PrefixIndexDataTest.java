@@ -0,0 +1,96 @@
+package suncertify.db;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+
+/**
+ * Runs the <code>Data</code> tests with prefix-indexes.
+ */
+@RunWith(JUnit4.class)
+public class PrefixIndexDataTest extends DataTest {
+    
+    @Override
+    protected DataOptions createOptions() {
+        final DataOptions options = new DataOptions();
+        options.setPrefixIndexes("name", "location");
+        return options;
+    }
+    
+    
+    /**
+     * verify that a prefix finds the whole range of values starting with it,
+     * ignoring case, and nothing beyond the range
+     */
+    @Test
+    public void find_prefix_range() throws Exception {
+        
+        assertEquals(Arrays.asList(9, 15, 20), asList(db.find(new String[] {
+                "fred", null, null, null, null, null})));
+        
+        final int fredrik = db.create(new String[] {"Fredrik", "Oslo", "",
+                "1", "$2", ""});
+        final int free = db.create(new String[] {"Free", "Oslo", "", "1",
+                "$2", ""});
+        
+        assertEquals(Arrays.asList(9, 15, 20, fredrik), asList(db.find(
+                new String[] {"FRED", null, null, null, null, null})));
+        assertEquals(Arrays.asList(9, 15, 20, fredrik, free), asList(db.find(
+                new String[] {"fre", null, null, null, null, null})));
+        assertEquals(Arrays.asList(fredrik), asList(db.find(new String[] {
+                "Fredrik", null, null, null, null, null})));
+        assertEquals(db.size(), db.find(new String[] {"", null, null, null,
+                null, null}).length);
+        
+        try {
+            db.find(new String[] {"Fredrikstad", null, null, null, null,
+                    null});
+            fail();
+        } catch (RecordNotFoundException e) {}
+    }
+    
+    
+    /**
+     * verify criteria for both indexed & non-indexed fields
+     */
+    @Test
+    public void find_indexed_and_residual() throws Exception {
+        
+        final String[] record = db.read(1);
+        final int[] expected = db.find(new String[] {null, record[1],
+                record[2], null, null, null});
+        
+        for (int recNo : expected) {
+            assertTrue(db.read(recNo)[2].startsWith(record[2]));
+        }
+        assertTrue(asList(expected).contains(1));
+        assertTrue(expected.length < db.find(new String[] {null, record[1],
+                null, null, null, null}).length);
+    }
+    
+    
+    /**
+     * verify that criteria outside the 7-bit range fall back to the file
+     */
+    @Test(expected=RecordNotFoundException.class)
+    public void find_non_ascii() throws Exception {
+        db.find(new String[] {"Små", null, null, null, null, null});
+    }
+    
+    
+    /**
+     * verify IllegalArgumentException for an unknown field
+     */
+    @Test(expected=IllegalArgumentException.class)
+    public void unknown_field() throws Exception {
+        db.close();
+        db = null;
+        
+        final DataOptions options = new DataOptions();
+        options.setPrefixIndexes("name", "unknown");
+        new Data(dbFile, options);
+    }
+}
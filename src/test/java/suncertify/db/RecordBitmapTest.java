@@ -0,0 +1,113 @@
+package suncertify.db;
+
+import java.util.Random;
+import java.util.TreeSet;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import junit.framework.TestCase;
+
+
+@RunWith(JUnit4.class)
+public class RecordBitmapTest extends TestCase {
+    
+    
+    /**
+     * verify add(), remove() & contains() across chunks
+     */
+    @Test
+    public void add_remove() throws Exception {
+        
+        final RecordBitmap bitmap = new RecordBitmap();
+        
+        assertTrue(bitmap.add(3));
+        assertTrue(bitmap.add(70000));
+        assertFalse(bitmap.add(3));
+        assertEquals(2, bitmap.size());
+        assertTrue(bitmap.contains(70000));
+        assertFalse(bitmap.contains(4));
+        
+        assertTrue(bitmap.remove(70000));
+        assertFalse(bitmap.remove(70000));
+        assertEquals(1, bitmap.size());
+        assertEquals(3, bitmap.toArray()[0]);
+    }
+    
+    
+    /**
+     * verify that dense chunks are converted to bitmaps & back
+     */
+    @Test
+    public void dense_chunk() throws Exception {
+        
+        final RecordBitmap bitmap = new RecordBitmap();
+        for (int i = 0; i < 10000; i++) {
+            bitmap.add(i * 2);
+        }
+        assertEquals(10000, bitmap.size());
+        
+        for (int i = 0; i < 9000; i++) {
+            assertTrue(bitmap.remove(i * 2));
+        }
+        assertEquals(1000, bitmap.size());
+        assertEquals(18000, bitmap.toArray()[0]);
+        assertTrue(bitmap.contains(19998));
+        assertFalse(bitmap.contains(19999));
+    }
+    
+    
+    /**
+     * verify and() & or() against TreeSet, for sparse & dense sets
+     */
+    @Test
+    public void and_or() throws Exception {
+        
+        final Random random = new Random(1);
+        
+        for (int density : new int[] {2, 50, 5000}) {
+            final RecordBitmap a = new RecordBitmap();
+            final RecordBitmap b = new RecordBitmap();
+            final TreeSet<Integer> setA = new TreeSet<Integer>();
+            final TreeSet<Integer> setB = new TreeSet<Integer>();
+            
+            for (int i = 0; i < 200000; i++) {
+                if (random.nextInt(density) == 0) {
+                    a.add(i);
+                    setA.add(i);
+                }
+                if (random.nextInt(3) == 0) {
+                    b.add(i);
+                    setB.add(i);
+                }
+            }
+            
+            final TreeSet<Integer> and = new TreeSet<Integer>(setA);
+            and.retainAll(setB);
+            final TreeSet<Integer> or = new TreeSet<Integer>(setA);
+            or.addAll(setB);
+            
+            assertEquals(setA, toSet(a));
+            assertEquals(and, toSet(a.and(b)));
+            assertEquals(and, toSet(b.and(a)));
+            assertEquals(or, toSet(a.or(b)));
+            assertEquals(or, toSet(b.or(a)));
+            assertEquals(or.size(), a.or(b).size());
+        }
+    }
+    
+    
+    private static TreeSet<Integer> toSet(RecordBitmap bitmap) {
+        final TreeSet<Integer> tmp = new TreeSet<Integer>();
+        int previous = -1;
+        for (int recNo : bitmap.toArray()) {
+            assertTrue(recNo > previous);
+            assertTrue(bitmap.contains(recNo));
+            tmp.add(recNo);
+            previous = recNo;
+        }
+        assertEquals(bitmap.size(), tmp.size());
+        return tmp;
+    }
+}
@@ -0,0 +1,143 @@
+package suncertify.db;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import test.common.AbstractFileDbTest;
+
+
+@RunWith(JUnit4.class)
+public class RecordSummaryTest extends AbstractFileDbTest {
+    
+    private File summaryFile;
+    
+    
+    @Override
+    @Before
+    public void setUp() throws Exception {
+        super.setUp();
+        summaryFile = new File(dbFile.getPath() + ".summary");
+    }
+    
+    
+    /**
+     * verify that the summary is dirty while the database is open, and clean
+     * after it's been closed
+     */
+    @Test
+    public void clean_after_close() throws Exception {
+        
+        final DataFileAccess access = DataFileAccess.create(dbFile);
+        assertNull(RecordSummary.load(summaryFile, 183, dbFile));
+        access.delete(1);
+        access.delete(2);
+        final int recNo = access.create(new String[] {
+                "a", "b", "c", "1", "$2", "3"});
+        final int freeSlot = (1 == recNo) ? 2 : 1;
+        access.close();
+        
+        final SlotAllocator slots = RecordSummary.load(summaryFile, 183,
+                dbFile);
+        assertNotNull(slots);
+        assertEquals(29, slots.getNumSlots());
+        assertEquals(28, slots.getNumActive());
+        assertFalse(slots.isDeleted(recNo));
+        assertTrue(slots.isDeleted(freeSlot));
+        assertEquals(freeSlot, slots.allocate());
+    }
+    
+    
+    /**
+     * verify that a reopened database uses the summary's deletion-state
+     */
+    @Test
+    public void reopen() throws Exception {
+        
+        DataFileAccess access = DataFileAccess.create(dbFile);
+        access.delete(5);
+        access.delete(6);
+        access.close();
+        
+        access = DataFileAccess.create(dbFile);
+        try {
+            assertEquals(27, access.size());
+            assertTrue(access.isDeleted(5));
+            assertTrue(access.isDeleted(6));
+            assertEquals(5, access.create());
+        } finally {
+            access.close();
+        }
+    }
+    
+    
+    /**
+     * verify that a summary is ignored if the database-file has changed size
+     */
+    @Test
+    public void length_mismatch() throws Exception {
+        
+        DataFileAccess.create(dbFile).close();
+        
+        final RandomAccessFile raf = new RandomAccessFile(dbFile, "rw");
+        raf.setLength(raf.length() + 183);
+        raf.close();
+        
+        assertNull(RecordSummary.load(summaryFile, 183, dbFile));
+    }
+    
+    
+    /**
+     * verify that a summary is ignored if the database-file has been
+     * replaced by a copy with the same length & modification-time
+     */
+    @Test
+    public void replaced() throws Exception {
+        
+        final byte[] original = new byte[(int) dbFile.length()];
+        RandomAccessFile raf = new RandomAccessFile(dbFile, "r");
+        raf.readFully(original);
+        raf.close();
+        
+        DataFileAccess access = DataFileAccess.create(dbFile);
+        access.delete(5);
+        access.close();
+        final long modified = dbFile.lastModified();
+        
+        raf = new RandomAccessFile(dbFile, "rw");
+        raf.write(original);
+        raf.close();
+        assertTrue(dbFile.setLastModified(modified));
+        
+        assertNull(RecordSummary.load(summaryFile, 183, dbFile));
+        
+        access = DataFileAccess.create(dbFile);
+        try {
+            assertFalse(access.isDeleted(5));
+            assertEquals(29, access.size());
+        } finally {
+            access.close();
+        }
+    }
+    
+    
+    /**
+     * verify that a damaged summary is ignored
+     */
+    @Test
+    public void damaged() throws Exception {
+        
+        DataFileAccess.create(dbFile).close();
+        
+        final RandomAccessFile raf = new RandomAccessFile(summaryFile, "rw");
+        raf.seek(raf.length() - 6);
+        raf.write(0xff);
+        raf.close();
+        
+        assertNull(RecordSummary.load(summaryFile, 183, dbFile));
+    }
+}
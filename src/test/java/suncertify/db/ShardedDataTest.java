@@ -0,0 +1,225 @@
+package suncertify.db;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import test.common.AbstractFileDbTest;
+
+
+@RunWith(JUnit4.class)
+public class ShardedDataTest extends AbstractFileDbTest {
+
+    private static final String[] ALL = new String[6];
+
+    private File[]      shardFiles;
+    private ShardedData db;
+
+
+    /**
+     * test-setup
+     */
+    @Override
+    @Before
+    public void setUp() throws Exception {
+        super.setUp();
+        shardFiles = new File[3];
+        for (int i = 0; i < shardFiles.length; i++) {
+            shardFiles[i] = new File(dbFile.getPath() + ".shard" + i);
+        }
+        assertEquals(29, ShardedData.split(dbFile, shardFiles));
+        db = new ShardedData(shardFiles);
+    }
+
+
+    /**
+     * test-cleanup
+     */
+    @Override
+    @After
+    public void tearDown() throws Exception {
+        if (null != db) {
+            db.close();
+        }
+        for (File file : shardFiles) {
+            new File(file.getPath() + ".summary").delete();
+            file.delete();
+        }
+        super.tearDown();
+    }
+
+
+    /**
+     * verify that the records are spread over the shards, and can be read
+     */
+    @Test
+    public void split() throws Exception {
+
+        final Set<List<String>> expected = new HashSet<List<String>>();
+        final Data source = new Data(dbFile);
+        try {
+            for (int recNo : source.find(ALL)) {
+                expected.add(Arrays.asList(source.read(recNo)));
+            }
+        } finally {
+            source.close();
+        }
+
+        final Set<List<String>> actual = new HashSet<List<String>>();
+        final Set<Integer> shards = new HashSet<Integer>();
+        for (int recNo : db.find(ALL)) {
+            actual.add(Arrays.asList(db.read(recNo)));
+            shards.add(recNo % db.getNumShards());
+        }
+
+        assertEquals(29, db.size());
+        assertEquals(expected, actual);
+        assertEquals(3, shards.size());
+    }
+
+
+    /**
+     * verify that keys are unique across the shards
+     */
+    @Test(expected=DuplicateKeyException.class)
+    public void create_duplicate() throws Exception {
+        db.create(db.read(db.find(ALL)[5]));
+    }
+
+
+    /**
+     * verify create, update & delete using the global record-numbers
+     */
+    @Test
+    public void modify() throws Exception {
+
+        final String[] record = db.read(db.find(ALL)[0]);
+        record[0] = "Sharded";
+        final int recNo = db.create(record);
+        assertEquals("Sharded", db.read(recNo)[0]);
+        assertEquals(1, db.find(new String[] {"Sharded", null, null, null,
+                null, null}).length);
+
+        record[2] = "Updated";
+        db.lock(recNo);
+        assertTrue(db.isLocked(recNo));
+        db.update(recNo, record);
+        assertEquals("Updated", db.read(recNo)[2]);
+
+        db.delete(recNo);
+        assertEquals(29, db.size());
+        try {
+            db.read(recNo);
+            fail();
+        } catch (RecordNotFoundException e) {}
+    }
+
+
+    /**
+     * verify that a key can't be moved to another shard
+     */
+    @Test
+    public void update_key_to_other_shard() throws Exception {
+
+        final int recNo = db.find(ALL)[0];
+        final String[] record = db.read(recNo);
+        db.lock(recNo);
+
+        for (int i = 0; ; i++) {
+            record[0] = "Moved " + i;
+            try {
+                db.update(recNo, record);
+            } catch (IllegalArgumentException e) {
+                break;
+            }
+        }
+    }
+
+
+    /**
+     * verify that scan() passes on the global record-numbers
+     */
+    @Test
+    public void scan() throws Exception {
+
+        final List<Integer> visited = new ArrayList<Integer>();
+        db.scan(new RecordVisitor() {
+            @Override
+            public boolean visit(RecordView record) {
+                try {
+                    assertEquals(Arrays.asList(db.read(record.getRecNo())),
+                            Arrays.asList(record.toArray()));
+                } catch (RecordNotFoundException e) {
+                    fail();
+                }
+                visited.add(record.getRecNo());
+                return true;
+            }
+        });
+
+        final List<Integer> expected = new ArrayList<Integer>();
+        for (int recNo : db.find(ALL)) {
+            expected.add(recNo);
+        }
+        final List<Integer> sorted = new ArrayList<Integer>(visited);
+        Collections.sort(sorted);
+        assertEquals(expected, sorted);
+    }
+
+
+    /**
+     * verify that findByKey() returns the global record-numbers
+     */
+    @Test
+    public void find_by_key() throws Exception {
+        for (int recNo : db.find(ALL)) {
+            final String[] record = db.read(recNo);
+            assertEquals(recNo, db.findByKey(record[0], record[1]));
+        }
+    }
+
+
+    /**
+     * verify that findContaining() searches every shard
+     */
+    @Test
+    public void find_containing() throws Exception {
+        final String[] tokens = new String[] {null, null, "Electrical", null,
+                null, null};
+
+        final Set<List<String>> expected = new HashSet<List<String>>();
+        final Data source = new Data(dbFile);
+        try {
+            for (int recNo : source.findContaining(tokens)) {
+                expected.add(Arrays.asList(source.read(recNo)));
+            }
+        } finally {
+            source.close();
+        }
+
+        final Set<List<String>> actual = new HashSet<List<String>>();
+        for (int recNo : db.findContaining(tokens)) {
+            actual.add(Arrays.asList(db.read(recNo)));
+        }
+        assertEquals(expected, actual);
+    }
+
+
+    /**
+     * verify RecordNotFoundException for negative record-numbers
+     */
+    @Test(expected=RecordNotFoundException.class)
+    public void read_invalid() throws Exception {
+        db.read(-1);
+    }
+}
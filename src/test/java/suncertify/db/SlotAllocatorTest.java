@@ -0,0 +1,102 @@
+package suncertify.db;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import junit.framework.TestCase;
+
+
+@RunWith(JUnit4.class)
+public class SlotAllocatorTest extends TestCase {
+    
+    
+    /**
+     * verify the state built from a deletion-bitmap
+     */
+    @Test
+    public void initial_state() throws Exception {
+        
+        final SlotAllocator slots = new SlotAllocator(new long[] {
+                (1L << 3) | (1L << 63), 1L}, 70);
+        
+        assertEquals(70, slots.getNumSlots());
+        assertEquals(67, slots.getNumActive());
+        assertFalse(slots.isDeleted(0));
+        assertTrue(slots.isDeleted(3));
+        assertTrue(slots.isDeleted(63));
+        assertTrue(slots.isDeleted(64));
+        assertFalse(slots.isDeleted(69));
+    }
+    
+    
+    /**
+     * verify that the lowest deleted slots are reused first, and that new
+     * slots are added when none are free
+     */
+    @Test
+    public void allocate_reuses_deleted_slots() throws Exception {
+        
+        final SlotAllocator slots = new SlotAllocator(new long[] {
+                (1L << 5) | (1L << 2)}, 10);
+        
+        assertEquals(2, slots.allocate());
+        assertEquals(5, slots.allocate());
+        assertEquals(10, slots.allocate());
+        assertEquals(11, slots.getNumSlots());
+        assertEquals(11, slots.getNumActive());
+    }
+    
+    
+    /**
+     * verify free() & growth of the bitmap
+     */
+    @Test
+    public void free_and_grow() throws Exception {
+        
+        final SlotAllocator slots = new SlotAllocator(new long[0], 0);
+        
+        for (int i = 0; i < 1000; i++) {
+            assertEquals(i, slots.allocate());
+        }
+        
+        slots.free(700);
+        assertTrue(slots.isDeleted(700));
+        assertEquals(999, slots.getNumActive());
+        assertEquals(700, slots.allocate());
+        assertFalse(slots.isDeleted(700));
+    }
+    
+    
+    /**
+     * verify the first free / last active slots, and removal of the deleted
+     * slots at the end
+     */
+    @Test
+    public void shrink() throws Exception {
+        
+        final SlotAllocator slots = new SlotAllocator(new long[] {
+                (1L << 1) | (1L << 8) | (1L << 9)}, 10);
+        
+        assertEquals(1, slots.getFirstFree());
+        assertEquals(7, slots.getLastActive());
+        assertEquals(8, slots.shrink());
+        assertEquals(7, slots.getNumActive());
+        assertEquals(1, slots.allocate());
+        assertEquals(8, slots.getFirstFree());
+        assertEquals(8, slots.allocate());
+        assertFalse(slots.isDeleted(8));
+    }
+    
+    
+    @Test(expected=IllegalStateException.class)
+    public void free_deleted_slot() throws Exception {
+        new SlotAllocator(new long[] {1L}, 1).free(0);
+    }
+    
+    
+    @Test(expected=IndexOutOfBoundsException.class)
+    public void is_deleted_out_of_bounds() throws Exception {
+        new SlotAllocator(new long[] {1L}, 1).isDeleted(1);
+    }
+}
@@ -0,0 +1,142 @@
+package suncertify.db;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import junit.framework.TestCase;
+
+
+@RunWith(JUnit4.class)
+public class SyncCoordinatorTest extends TestCase {
+    
+    private final CountingStorage storage = new CountingStorage();
+    
+    
+    /**
+     * verify that concurrent writers share forces when using group-commit
+     */
+    @Test
+    public void group_commit_shares_force() throws Exception {
+        
+        final SyncCoordinator sync = new SyncCoordinator(storage,
+                Durability.GROUP_COMMIT, 20);
+        final int numWriters = 16;
+        final CountDownLatch start = new CountDownLatch(1);
+        final List<Thread> writers = new ArrayList<Thread>();
+        final AtomicInteger done = new AtomicInteger();
+        
+        for (int i = 0; i < numWriters; i++) {
+            final Thread writer = new Thread(new Runnable() {
+                @Override public void run() {
+                    try {
+                        start.await();
+                        sync.awaitDurable(sync.modified());
+                        done.incrementAndGet();
+                    } catch (Exception e) {
+                        throw new RuntimeException(e);
+                    }
+                }
+            });
+            writer.start();
+            writers.add(writer);
+        }
+        
+        start.countDown();
+        for (Thread writer : writers) {
+            writer.join();
+        }
+        
+        assertEquals(numWriters, done.get());
+        assertTrue(storage.forces.get() > 0);
+        assertTrue(storage.forces.get() < numWriters);
+    }
+    
+    
+    /**
+     * verify that a modification already covered by a force doesn't force
+     * again
+     */
+    @Test
+    public void group_commit_skips_durable_modifications() throws Exception {
+        
+        final SyncCoordinator sync = new SyncCoordinator(storage,
+                Durability.GROUP_COMMIT, 0);
+        
+        final long first = sync.modified();
+        final long second = sync.modified();
+        
+        sync.awaitDurable(second);
+        sync.awaitDurable(first);
+        
+        assertEquals(1, storage.forces.get());
+    }
+    
+    
+    /**
+     * verify that an interrupt during the window is kept, and doesn't
+     * prevent the force
+     */
+    @Test
+    public void group_commit_restores_interrupt() throws Exception {
+        
+        final SyncCoordinator sync = new SyncCoordinator(storage,
+                Durability.GROUP_COMMIT, 50);
+        
+        Thread.currentThread().interrupt();
+        sync.awaitDurable(sync.modified());
+        
+        assertTrue(Thread.interrupted());
+        assertEquals(1, storage.forces.get());
+    }
+    
+    
+    /**
+     * verify the number of forces for the other modes
+     */
+    @Test
+    public void other_modes() throws Exception {
+        
+        new SyncCoordinator(storage, Durability.SYNCHRONOUS, 0)
+                .awaitDurable(1);
+        new SyncCoordinator(storage, Durability.OS_BUFFERED, 0)
+                .awaitDurable(1);
+        assertEquals(0, storage.forces.get());
+        
+        final SyncCoordinator force = new SyncCoordinator(storage,
+                Durability.FORCE, 0);
+        force.awaitDurable(force.modified());
+        force.awaitDurable(force.modified());
+        assertEquals(2, storage.forces.get());
+    }
+    
+    
+    /**
+     * <code>FileStorage</code> that only counts the number of forces.
+     */
+    private static final class CountingStorage implements FileStorage {
+        
+        final AtomicInteger forces = new AtomicInteger();
+        
+        @Override public long length() { return 0; }
+        @Override public void read(long position, byte[] buffer, int offset,
+                int length) {}
+        @Override public void write(long position, byte[] buffer, int offset,
+                int length) {}
+        @Override public void setLength(long length) {}
+        @Override public void close() {}
+        
+        @Override public void force() throws IOException {
+            forces.incrementAndGet();
+            try {
+                Thread.sleep(5);
+            } catch (InterruptedException e) {}
+        }
+    }
+}
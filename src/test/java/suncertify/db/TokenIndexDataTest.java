@@ -0,0 +1,53 @@
+package suncertify.db;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+
+/**
+ * Runs the <code>Data</code> tests with a token-index on the specialties.
+ */
+@RunWith(JUnit4.class)
+public class TokenIndexDataTest extends DataTest {
+    
+    @Override
+    protected DataOptions createOptions() {
+        final DataOptions options = new DataOptions();
+        options.setTokenIndexes("specialties");
+        return options;
+    }
+    
+    
+    /**
+     * verify how values are split into tokens: at commas, ignoring case,
+     * surrounding whitespace, empty tokens & repeated tokens
+     */
+    @Test
+    public void find_containing_tokens() throws Exception {
+        
+        final int created = db.create(new String[] {"Bob", "Oslo",
+                " Roofing ,, THATCHING,Roofing ", "1", "$2", ""});
+        
+        assertEquals(Arrays.asList(created), asList(db.findContaining(
+                new String[] {null, null, "thatching", null, null, null})));
+        
+        final List<Integer> roofing = asList(db.findContaining(new String[] {
+                null, null, " roofing ", null, null, null}));
+        assertEquals(8, roofing.size());
+        assertEquals(created, (int) roofing.get(7));
+        
+        // a token is matched as a whole, not word by word
+        assertEquals(Arrays.asList(0, 1, 2, 11, 17, 18, 25), asList(
+                db.findContaining(new String[] {null, null,
+                "AIR CONDITIONING", null, null, null})));
+        try {
+            db.findContaining(new String[] {null, null, "conditioning",
+                    null, null, null});
+            fail();
+        } catch (RecordNotFoundException e) {}
+    }
+}
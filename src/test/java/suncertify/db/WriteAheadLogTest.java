@@ -0,0 +1,170 @@
+package suncertify.db;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import suncertify.db.WriteAheadLog.Operation;
+import test.common.AbstractFileDbTest;
+
+
+@RunWith(JUnit4.class)
+public class WriteAheadLogTest extends AbstractFileDbTest {
+    
+    private static final String[] RECORD = new String[] {
+            "one", "two", "three", "4", "$5", "6"
+    };
+    
+    private File logFile;
+    
+    
+    @Override
+    @Before
+    public void setUp() throws Exception {
+        super.setUp();
+        logFile = new File(dbFile.getPath() + ".wal");
+    }
+    
+    
+    @Override
+    @After
+    public void tearDown() throws Exception {
+        if (logFile.exists() && !logFile.delete()) {
+            logFile.deleteOnExit();
+        }
+        super.tearDown();
+    }
+    
+    
+    private DataOptions createOptions() {
+        final DataOptions options = new DataOptions();
+        options.setWriteAheadLog(true);
+        options.setDurability(Durability.GROUP_COMMIT);
+        return options;
+    }
+    
+    
+    /**
+     * verify that modifications survive a clean close, and that the log is
+     * removed afterwards
+     */
+    @Test
+    public void clean_close() throws Exception {
+        
+        final DataFileAccess access = DataFileAccess.create(dbFile,
+                createOptions());
+        access.write(3, RECORD);
+        access.delete(0);
+        assertTrue(logFile.exists());
+        access.close();
+        
+        assertFalse(logFile.exists());
+        
+        final DataFileAccess reopened = DataFileAccess.create(dbFile);
+        try {
+            assertEquals(Arrays.asList(RECORD), Arrays.asList(reopened
+                    .read(3)));
+            assertTrue(reopened.isDeleted(0));
+        } finally {
+            reopened.close();
+        }
+    }
+    
+    
+    /**
+     * verify that a log left behind by a crash is replayed when the database
+     * is opened
+     */
+    @Test
+    public void replay_after_crash() throws Exception {
+        
+        final List<String> original;
+        {
+            final DataFileAccess access = DataFileAccess.create(dbFile);
+            original = Arrays.asList(access.read(3));
+            access.close();
+        }
+        
+        // log a modification that never reached the database-file
+        final WriteAheadLog log = WriteAheadLog.open(logFile, 183, false);
+        final byte[] deleted = new byte[] {1};
+        log.append(Operation.DELETE, 3, 0, deleted, 0, 1);
+        log.getStorage().close();
+        
+        final DataFileAccess access = DataFileAccess.create(dbFile,
+                createOptions());
+        try {
+            assertTrue(access.isDeleted(3));
+            assertEquals(original, Arrays.asList(access.read(3)));
+            assertEquals(28, access.size());
+        } finally {
+            access.close();
+        }
+    }
+    
+    
+    /**
+     * verify that a log left behind by a crash is replayed, and removed,
+     * even if the database is opened without a write-ahead log
+     */
+    @Test
+    public void replay_without_log_option() throws Exception {
+        
+        final WriteAheadLog log = WriteAheadLog.open(logFile, 183, false);
+        final byte[] deleted = new byte[] {1};
+        log.append(Operation.DELETE, 3, 0, deleted, 0, 1);
+        log.getStorage().close();
+        
+        final DataFileAccess access = DataFileAccess.create(dbFile);
+        try {
+            assertTrue(access.isDeleted(3));
+            assertFalse(logFile.exists());
+        } finally {
+            access.close();
+        }
+    }
+    
+    
+    /**
+     * verify that a torn entry at the end of the log is ignored
+     */
+    @Test
+    public void torn_entry_is_ignored() throws Exception {
+        
+        final WriteAheadLog log = WriteAheadLog.open(logFile, 183, false);
+        final byte[] deleted = new byte[] {1};
+        log.append(Operation.DELETE, 1, 0, deleted, 0, 1);
+        log.append(Operation.DELETE, 2, 0, deleted, 0, 1);
+        log.getStorage().close();
+        
+        final RandomAccessFile raf = new RandomAccessFile(logFile, "rw");
+        raf.setLength(raf.length() - 2);
+        raf.close();
+        
+        final DataFileAccess access = DataFileAccess.create(dbFile,
+                createOptions());
+        try {
+            assertTrue(access.isDeleted(1));
+            assertFalse(access.isDeleted(2));
+        } finally {
+            access.close();
+        }
+    }
+    
+    
+    /**
+     * verify that a log belonging to another database is rejected
+     */
+    @Test(expected=DatabaseException.class)
+    public void foreign_log() throws Exception {
+        WriteAheadLog.open(logFile, 10, false).getStorage().close();
+        DataFileAccess.create(dbFile, createOptions());
+    }
+}
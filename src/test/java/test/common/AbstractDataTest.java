@@ -1,9 +1,13 @@
 package test.common;
 
+import java.util.Arrays;
+import java.util.List;
+
 import org.junit.After;
 import org.junit.Before;
 
 import suncertify.db.Data;
+import suncertify.db.DataOptions;
 
 
 /**
@@ -20,7 +24,25 @@ public abstract class AbstractDataTest extends AbstractFileDbTest {
     @Before
     public void setUp() throws Exception {
         super.setUp();
-        db = new Data(dbFile);
+        db = createData();
+    }
+    
+    
+    /**
+     * Opens the database, subclasses may override this to test other
+     * storage-engines.
+     */
+    protected Data createData() throws Exception {
+        return new Data(dbFile, createOptions());
+    }
+    
+    
+    /**
+     * Returns the options used to open the database, subclasses may override
+     * this to test other configurations.
+     */
+    protected DataOptions createOptions() {
+        return new DataOptions();
     }
 
     @Override
@@ -31,5 +53,18 @@ public abstract class AbstractDataTest extends AbstractFileDbTest {
         }
         super.tearDown();
     }    
+    
+    
+    /**
+     * Converts record-numbers to a list, so they can be compared with
+     * assertEquals().
+     */
+    protected static List<Integer> asList(int[] values) {
+        final Integer[] tmp = new Integer[values.length];
+        for (int i = 0; i < values.length; i++) {
+            tmp[i] = values[i];
+        }
+        return Arrays.asList(tmp);
+    }
 
 }
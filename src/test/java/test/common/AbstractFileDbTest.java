@@ -56,6 +56,10 @@ public abstract class AbstractFileDbTest extends TestCase {
     @Override
     @After
     public void tearDown() throws Exception {
+        final File summaryFile = new File(dbFile.getPath() + ".summary");
+        if (summaryFile.exists() && !summaryFile.delete()) {
+            summaryFile.deleteOnExit();
+        }
         if (!dbFile.delete()) {
             dbFile.deleteOnExit();
         }